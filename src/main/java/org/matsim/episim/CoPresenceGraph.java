@@ -0,0 +1,389 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.episim;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/**
+ * Co-presence of persons in containers for one day of the week, derived once from the events of an {@link EventStore}
+ * with a sweep over the events, see {@link EpisimConfigGroup.ContactEngine#coPresence}.
+ * <p>
+ * Each stay of a person in a container is an interval. When an interval ends, all other intervals that are open in the same container
+ * are co-present with it. These are stored as compressed rows in the order of departure. A reverse index lists for each interval
+ * all departures it is co-present with, so that the departures relevant for a set of persons can be found without a full scan.
+ * <p>
+ * All persons start the day in their first container, also if they have no events on this day. These intervals have no start event,
+ * their enter time is only known when the day is simulated. Intervals without an end event are closed at the end of the day,
+ * unless the person stays in the container overnight. Such intervals have no departure and continue on the next day.
+ */
+final class CoPresenceGraph {
+
+	private static final double DAY = 24 * 60 * 60;
+
+	private final EpisimPerson[] person;
+	private final EpisimContainer<?>[] container;
+	private final int[] containerIndex;
+	private final int numContainers;
+	/**
+	 * Original times, enter time is NaN if the interval has no start event.
+	 */
+	private final double[] enter;
+	private final double[] leave;
+	/**
+	 * Intervals that continue on the next day.
+	 */
+	private final boolean[] staying;
+
+	/**
+	 * Intervals in order of departure.
+	 */
+	private final int[] order;
+	/**
+	 * Position of each interval in {@link #order}, -1 for staying intervals.
+	 */
+	private final int[] position;
+	private final int[] offsets;
+	private final int[] coPresent;
+
+	/**
+	 * Departures each interval is co-present with, by interval.
+	 */
+	private final int[] reverseOffsets;
+	private final int[] reverse;
+
+	/**
+	 * Build the co-presence of a day.
+	 *
+	 * @param events  events of the day
+	 * @param persons persons starting the day in one of the containers of these events, in a fixed order
+	 * @param first   container of each person at the start of the day
+	 * @param stays   whether a person present in a container at the end of the day stays there overnight
+	 */
+	CoPresenceGraph(EventStore events, List<EpisimPerson> persons, Function<EpisimPerson, EpisimContainer<?>> first,
+					BiPredicate<EpisimPerson, EpisimContainer<?>> stays) {
+
+		List<EpisimPerson> intervalPersons = new ArrayList<>();
+		List<EpisimContainer<?>> containers = new ArrayList<>();
+		IntArrayList containerIdx = new IntArrayList();
+		DoubleArrayList enterTimes = new DoubleArrayList();
+		DoubleArrayList leaveTimes = new DoubleArrayList();
+
+		IntArrayList departures = new IntArrayList();
+		IntArrayList rows = new IntArrayList();
+		IntArrayList edges = new IntArrayList();
+		rows.add(0);
+
+		// local index of each container, and the list of open intervals of each container
+		Reference2IntMap<EpisimContainer<?>> index = new Reference2IntOpenHashMap<>();
+		index.defaultReturnValue(-1);
+		List<IntArrayList> openIn = new ArrayList<>();
+		IntArrayList openPos = new IntArrayList();
+
+		// open intervals by person and container
+		Long2IntMap open = new Long2IntOpenHashMap();
+		open.defaultReturnValue(-1);
+
+		double endOfDay = DAY;
+
+		// all persons are present in their first container since the start of the day
+		for (EpisimPerson p : persons) {
+			EpisimContainer<?> c = first.apply(p);
+			int k = addInterval(p, c, Double.NaN, index, openIn, openPos, intervalPersons, containers, containerIdx, enterTimes, leaveTimes);
+			open.put(key(p, containerIdx.getInt(k)), k);
+		}
+
+		// end events without start event, which do not belong to the first container, are present since the start of the day as well
+		Int2IntMap initial = new Int2IntOpenHashMap();
+		initial.defaultReturnValue(-1);
+		LongSet started = new LongOpenHashSet();
+		LongSet claimed = new LongOpenHashSet();
+		for (int i = 0; i < events.size(); i++) {
+
+			EpisimContainer<?> c = events.getContainer(i);
+			long key = key(events.getPerson(i), localIndex(c, index, openIn));
+			byte type = events.getType(i);
+
+			if (type == EventStore.ACTIVITY_START || type == EventStore.ENTERS_VEHICLE) {
+				started.add(key);
+			} else if (!started.remove(key) && (!open.containsKey(key) || !claimed.add(key))) {
+				int k = addInterval(events.getPerson(i), c, Double.NaN, index, openIn, openPos, intervalPersons, containers, containerIdx, enterTimes, leaveTimes);
+				initial.put(i, k);
+			}
+		}
+
+		for (int i = 0; i < events.size(); i++) {
+
+			EpisimContainer<?> c = events.getContainer(i);
+			EpisimPerson p = events.getPerson(i);
+			byte type = events.getType(i);
+			double time = events.getTime(i);
+			endOfDay = Math.max(endOfDay, time);
+
+			if (type == EventStore.ACTIVITY_START || type == EventStore.ENTERS_VEHICLE) {
+
+				int k = addInterval(p, c, time, index, openIn, openPos, intervalPersons, containers, containerIdx, enterTimes, leaveTimes);
+				open.put(key(p, containerIdx.getInt(k)), k);
+
+			} else {
+
+				int local = localIndex(c, index, openIn);
+				IntArrayList list = openIn.get(local);
+
+				int k = initial.get(i);
+				if (k == -1)
+					k = open.remove(key(p, local));
+
+				// swap with last
+				int pos = openPos.getInt(k);
+				int last = list.popInt();
+				if (last != k) {
+					list.set(pos, last);
+					openPos.set(last, pos);
+				}
+
+				leaveTimes.set(k, time);
+				depart(k, list, departures, rows, edges);
+			}
+		}
+
+		int n = intervalPersons.size();
+		this.staying = new boolean[n];
+
+		// remaining persons leave at the end of the day, unless they stay overnight
+		IntArrayList leaving = new IntArrayList();
+		for (IntArrayList list : openIn) {
+
+			leaving.clear();
+			for (int j = list.size() - 1; j >= 0; j--) {
+				int k = list.getInt(j);
+				if (stays.test(intervalPersons.get(k), containers.get(k)))
+					staying[k] = true;
+				else {
+					leaving.add(k);
+					list.removeInt(j);
+				}
+			}
+
+			// persons leaving at the same time are co-present with the ones leaving after them
+			for (int j = 0; j < leaving.size(); j++) {
+				int k = leaving.getInt(j);
+				leaveTimes.set(k, endOfDay);
+				departures.add(k);
+				edges.addAll(list);
+				edges.addAll(leaving.subList(j + 1, leaving.size()));
+				rows.add(edges.size());
+			}
+		}
+
+		this.person = intervalPersons.toArray(new EpisimPerson[0]);
+		this.container = containers.toArray(new EpisimContainer<?>[0]);
+		this.containerIndex = containerIdx.toIntArray();
+		this.numContainers = openIn.size();
+		this.enter = enterTimes.toDoubleArray();
+		this.leave = leaveTimes.toDoubleArray();
+		this.order = departures.toIntArray();
+		this.offsets = rows.toIntArray();
+		this.coPresent = edges.toIntArray();
+
+		this.position = new int[n];
+		Arrays.fill(position, -1);
+		for (int pos = 0; pos < order.length; pos++)
+			position[order[pos]] = pos;
+
+		// build the reverse index by counting first
+		this.reverseOffsets = new int[n + 1];
+		for (int k : coPresent)
+			reverseOffsets[k + 1]++;
+
+		for (int k = 0; k < n; k++)
+			reverseOffsets[k + 1] += reverseOffsets[k];
+
+		this.reverse = new int[coPresent.length];
+		int[] fill = new int[n];
+		for (int pos = 0; pos < order.length; pos++) {
+			for (int e = offsets[pos]; e < offsets[pos + 1]; e++) {
+				int k = coPresent[e];
+				reverse[reverseOffsets[k] + fill[k]++] = pos;
+			}
+		}
+	}
+
+	private static long key(EpisimPerson person, int container) {
+		return ((long) person.getPersonId().index() << 32) | (container & 0xffffffffL);
+	}
+
+	/**
+	 * Local index of a container, which is assigned on first use.
+	 */
+	private static int localIndex(EpisimContainer<?> c, Reference2IntMap<EpisimContainer<?>> index, List<IntArrayList> openIn) {
+		int local = index.getInt(c);
+		if (local == -1) {
+			local = openIn.size();
+			index.put(c, local);
+			openIn.add(new IntArrayList(4));
+		}
+		return local;
+	}
+
+	/**
+	 * Open a new interval.
+	 */
+	private static int addInterval(EpisimPerson p, EpisimContainer<?> c, double time, Reference2IntMap<EpisimContainer<?>> index,
+								   List<IntArrayList> openIn, IntArrayList openPos, List<EpisimPerson> persons, List<EpisimContainer<?>> containers,
+								   IntArrayList containerIdx, DoubleArrayList enterTimes, DoubleArrayList leaveTimes) {
+
+		int local = localIndex(c, index, openIn);
+
+		int k = persons.size();
+		persons.add(p);
+		containers.add(c);
+		containerIdx.add(local);
+		enterTimes.add(time);
+		leaveTimes.add(Double.NaN);
+
+		IntArrayList list = openIn.get(local);
+		openPos.add(list.size());
+		list.add(k);
+
+		return k;
+	}
+
+	private static void depart(int k, IntArrayList open, IntArrayList departures, IntArrayList rows, IntArrayList edges) {
+		departures.add(k);
+		edges.addAll(open);
+		rows.add(edges.size());
+	}
+
+	/**
+	 * Number of intervals, including the ones staying overnight.
+	 */
+	int getNumIntervals() {
+		return person.length;
+	}
+
+	/**
+	 * Number of departures, which excludes the intervals staying overnight.
+	 */
+	int getNumDepartures() {
+		return order.length;
+	}
+
+	/**
+	 * Number of distinct containers, see {@link #getContainerIndex(int)}.
+	 */
+	int getNumContainers() {
+		return numContainers;
+	}
+
+	/**
+	 * Total number of co-present pairs.
+	 */
+	int getNumEdges() {
+		return coPresent.length;
+	}
+
+	/**
+	 * Interval departing at a position.
+	 */
+	int getDeparture(int pos) {
+		return order[pos];
+	}
+
+	/**
+	 * Number of intervals co-present when the interval at {@code pos} departs.
+	 */
+	int getNumCoPresent(int pos) {
+		return offsets[pos + 1] - offsets[pos];
+	}
+
+	/**
+	 * The {@code j}-th interval co-present when the interval at {@code pos} departs.
+	 */
+	int getCoPresent(int pos, int j) {
+		return coPresent[offsets[pos] + j];
+	}
+
+	/**
+	 * Add the positions of all departures involving interval {@code k}, including its own.
+	 */
+	void collectDepartures(int k, BitSet out) {
+		if (position[k] >= 0)
+			out.set(position[k]);
+		for (int i = reverseOffsets[k]; i < reverseOffsets[k + 1]; i++)
+			out.set(reverse[i]);
+	}
+
+	EpisimPerson getPerson(int k) {
+		return person[k];
+	}
+
+	EpisimContainer<?> getContainer(int k) {
+		return container[k];
+	}
+
+	/**
+	 * Index of the container, in the range of {@code 0} to {@code getNumContainers() - 1}.
+	 */
+	int getContainerIndex(int k) {
+		return containerIndex[k];
+	}
+
+	/**
+	 * Whether the interval starts with an event, otherwise the person was present since the start of the day or before.
+	 */
+	boolean hasStart(int k) {
+		return !Double.isNaN(enter[k]);
+	}
+
+	/**
+	 * Original enter time, or 0 if there is no start event. The actual enter time of such intervals depends on the previous days.
+	 */
+	double getEnterTime(int k) {
+		return hasStart(k) ? enter[k] : 0;
+	}
+
+	/**
+	 * Original leave time, which can be the end of the day. NaN for staying intervals.
+	 */
+	double getLeaveTime(int k) {
+		return leave[k];
+	}
+
+	/**
+	 * Whether the person stays in the container overnight, then the interval has no departure on this day.
+	 */
+	boolean isStaying(int k) {
+		return staying[k];
+	}
+}
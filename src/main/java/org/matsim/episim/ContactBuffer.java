@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.episim;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import org.matsim.episim.events.EpisimContactEvent;
+import org.matsim.episim.events.EpisimInfectionEvent;
+import org.matsim.episim.events.EpisimPotentialInfectionEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only buffer of the results produced by one {@link TrajectoryHandler} during a day.
+ * Persons and the reporting are shared between all handlers, writing to them directly from the contact models
+ * requires locking in the hot path. Instead, all entries are collected here without any synchronization and applied
+ * by {@link #flush(EpisimReporting)} after all handlers have finished.
+ * Buffers are flushed in the order of their handlers, so the result does not depend on the scheduling of the threads.
+ */
+public final class ContactBuffer {
+
+	private final boolean writeContacts;
+
+	private final List<EpisimPerson> infected = new ArrayList<>();
+	private final List<EpisimInfectionEvent> infections = new ArrayList<>();
+
+	private final List<EpisimPerson> potentialInfected = new ArrayList<>();
+	private final List<EpisimPotentialInfectionEvent> potentialInfections = new ArrayList<>();
+
+	/**
+	 * Pairs of traced persons, stored consecutively.
+	 */
+	private final List<EpisimPerson> traced = new ArrayList<>();
+	private final DoubleArrayList tracedTimes = new DoubleArrayList();
+
+	private final List<EpisimContactEvent> contacts = new ArrayList<>();
+
+	private final List<CpuTime> cpuTimes = new ArrayList<>();
+
+	ContactBuffer(EpisimReporting reporting) {
+		this.writeContacts = reporting.isWritingContacts();
+	}
+
+	/**
+	 * Buffer a call to {@link EpisimPerson#possibleInfection(EpisimInfectionEvent)}.
+	 */
+	public void possibleInfection(EpisimPerson person, EpisimInfectionEvent event) {
+		infected.add(person);
+		infections.add(event);
+	}
+
+	/**
+	 * Buffer a call to {@link EpisimPerson#potentialInfection(EpisimPotentialInfectionEvent)}.
+	 */
+	public void potentialInfection(EpisimPerson person, EpisimPotentialInfectionEvent event) {
+		potentialInfected.add(person);
+		potentialInfections.add(event);
+	}
+
+	/**
+	 * Buffer a traced contact between two persons, which will be added to both of them.
+	 */
+	public void traceContact(EpisimPerson person, EpisimPerson contactPerson, double now) {
+		traced.add(person);
+		traced.add(contactPerson);
+		tracedTimes.add(now);
+	}
+
+	/**
+	 * Buffer a contact event, see {@link EpisimReporting#reportContact(double, EpisimPerson, EpisimPerson, EpisimContainer, CharSequence, double)}.
+	 */
+	public void reportContact(double now, EpisimPerson person, EpisimPerson contactPerson, EpisimContainer<?> container,
+	                          CharSequence actType, double duration) {
+		if (writeContacts) {
+			contacts.add(new EpisimContactEvent(now, person.getPersonId(), contactPerson.getPersonId(), container.getContainerId(),
+					actType.toString(), duration, container.getPersons().size()));
+		}
+	}
+
+	/**
+	 * Buffer the current cpu time.
+	 */
+	void reportCpuTime(int iteration, String where, String what, int taskId) {
+		cpuTimes.add(new CpuTime(iteration, where, what, taskId, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Apply all buffered entries and clear the buffer afterwards.
+	 */
+	void flush(EpisimReporting reporting) {
+
+		for (int i = 0; i < infected.size(); i++) {
+			infected.get(i).possibleInfection(infections.get(i));
+		}
+
+		for (int i = 0; i < potentialInfected.size(); i++) {
+			potentialInfected.get(i).potentialInfection(potentialInfections.get(i));
+		}
+
+		for (int i = 0; i < tracedTimes.size(); i++) {
+			EpisimPerson person = traced.get(2 * i);
+			EpisimPerson contactPerson = traced.get(2 * i + 1);
+			double now = tracedTimes.getDouble(i);
+
+			person.addTraceableContactPerson(contactPerson, now);
+			contactPerson.addTraceableContactPerson(person, now);
+		}
+
+		for (EpisimContactEvent contact : contacts) {
+			reporting.reportContact(contact);
+		}
+
+		for (CpuTime t : cpuTimes) {
+			reporting.reportCpuTime(t.iteration, t.where, t.what, t.taskId, t.time);
+		}
+
+		clear();
+	}
+
+	/**
+	 * Discard all buffered entries.
+	 */
+	void clear() {
+		infected.clear();
+		infections.clear();
+		potentialInfected.clear();
+		potentialInfections.clear();
+		traced.clear();
+		tracedTimes.clear();
+		contacts.clear();
+		cpuTimes.clear();
+	}
+
+	/**
+	 * Whether there are no buffered entries.
+	 */
+	boolean isEmpty() {
+		return infected.isEmpty() && potentialInfected.isEmpty() && tracedTimes.isEmpty() && contacts.isEmpty() && cpuTimes.isEmpty();
+	}
+
+	/**
+	 * Cpu time measured by a handler.
+	 */
+	private record CpuTime(int iteration, String where, String what, int taskId, long time) {
+	}
+
+}
@@ -0,0 +1,278 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.episim;
+
+import it.unimi.dsi.fastutil.objects.Object2DoubleLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Stores traced contacts between persons in primitive columns, one block per day.
+ * Blocks are organized as a ring and are reused as soon as their day has been cleared with {@link #clear(double)}, so
+ * that memory only depends on the number of contacts within the tracing window.
+ * Contacts of one person are looked up by binary search in each block, which are sorted lazily by person.
+ * <p>
+ * Contacts may only be added by one thread at a time.
+ */
+public final class ContactTracingStore {
+
+	private static final int DAY = 24 * 60 * 60;
+
+	/**
+	 * Known persons by their id index.
+	 */
+	private EpisimPerson[] persons = new EpisimPerson[0];
+
+	/**
+	 * Ring of day blocks, indexed by day modulo length.
+	 */
+	private Block[] ring = new Block[4];
+
+	/**
+	 * All stored blocks are at this day or later.
+	 */
+	private int minDay = Integer.MIN_VALUE;
+
+	private static int dayOf(double time) {
+		return (int) Math.floor(time / DAY);
+	}
+
+	/**
+	 * Add a directed contact from {@code person} to {@code contactPerson}.
+	 */
+	public void add(EpisimPerson person, EpisimPerson contactPerson, double now) {
+
+		register(person);
+		register(contactPerson);
+
+		int day = dayOf(now);
+		minDay = Math.min(minDay, day);
+
+		block(day).add(person.getPersonId().index(), contactPerson.getPersonId().index(), now);
+	}
+
+	/**
+	 * Get all contacts of a person that happened at or after {@code after}, sorted by person id.
+	 */
+	public List<EpisimPerson> getContactPersons(EpisimPerson person, double after) {
+		return getContacts(person, after).keySet().stream()
+				.sorted(Comparator.comparing(EpisimPerson::getPersonId))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Get all contacts of a person that happened at or after {@code after}, together with the latest time of contact.
+	 */
+	public Object2DoubleMap<EpisimPerson> getContacts(EpisimPerson person, double after) {
+
+		Object2DoubleMap<EpisimPerson> result = new Object2DoubleLinkedOpenHashMap<>();
+		int idx = person.getPersonId().index();
+
+		if (idx >= persons.length || persons[idx] == null)
+			return result;
+
+		int from = dayOf(after);
+
+		for (Block b : ring) {
+			if (b == null || b.size == 0 || b.day < from)
+				continue;
+
+			b.sort();
+
+			for (int i = b.indexOf(idx); i < b.size && b.from[i] == idx; i++) {
+				if (b.time[i] < after)
+					continue;
+
+				EpisimPerson p = persons[b.to[i]];
+				if (b.time[i] > result.getOrDefault(p, Double.NEGATIVE_INFINITY))
+					result.put(p, b.time[i]);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Remove contacts that are not needed anymore. Only complete days before {@code before} are discarded.
+	 */
+	public synchronized void clear(double before) {
+
+		int day = dayOf(before);
+		if (day <= minDay)
+			return;
+
+		minDay = day;
+		for (Block b : ring) {
+			if (b != null && b.day < minDay)
+				b.reset(b.day);
+		}
+	}
+
+	/**
+	 * Remove all contacts.
+	 */
+	public void clear() {
+		for (Block b : ring) {
+			if (b != null)
+				b.reset(b.day);
+		}
+		minDay = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Number of stored contacts.
+	 */
+	int size() {
+		int size = 0;
+		for (Block b : ring) {
+			if (b != null)
+				size += b.size;
+		}
+		return size;
+	}
+
+	private void register(EpisimPerson person) {
+		int idx = person.getPersonId().index();
+		if (idx >= persons.length)
+			persons = Arrays.copyOf(persons, Math.max(idx + 1, persons.length * 2));
+
+		persons[idx] = person;
+	}
+
+	/**
+	 * Return the block for a day, which either is empty or already contains this day.
+	 */
+	private Block block(int day) {
+
+		while (true) {
+			int slot = Math.floorMod(day, ring.length);
+			Block b = ring[slot];
+
+			if (b == null) {
+				b = ring[slot] = new Block();
+				b.reset(day);
+				return b;
+			}
+
+			if (b.day == day)
+				return b;
+
+			// block can be reused
+			if (b.size == 0) {
+				b.reset(day);
+				return b;
+			}
+
+			grow();
+		}
+	}
+
+	/**
+	 * Double the size of the ring, which is needed when the tracing window is larger than the ring.
+	 */
+	private void grow() {
+		Block[] old = ring;
+		ring = new Block[old.length * 2];
+		for (Block b : old) {
+			if (b != null && b.size > 0)
+				ring[Math.floorMod(b.day, ring.length)] = b;
+		}
+	}
+
+	/**
+	 * Contacts of a single day in columns.
+	 */
+	private static final class Block {
+
+		private int day;
+		private int size;
+		private boolean sorted = true;
+
+		private int[] from = new int[16];
+		private int[] to = new int[16];
+		private double[] time = new double[16];
+
+		private void reset(int day) {
+			this.day = day;
+			this.size = 0;
+			this.sorted = true;
+		}
+
+		private void add(int from, int to, double time) {
+			if (size == this.from.length) {
+				int n = size * 2;
+				this.from = Arrays.copyOf(this.from, n);
+				this.to = Arrays.copyOf(this.to, n);
+				this.time = Arrays.copyOf(this.time, n);
+			}
+
+			if (size > 0 && this.from[size - 1] > from)
+				sorted = false;
+
+			this.from[size] = from;
+			this.to[size] = to;
+			this.time[size] = time;
+			size++;
+		}
+
+		/**
+		 * Sort contacts by the first person.
+		 */
+		private synchronized void sort() {
+			if (sorted)
+				return;
+
+			it.unimi.dsi.fastutil.Arrays.quickSort(0, size, (a, b) -> Integer.compare(from[a], from[b]), (a, b) -> {
+				int f = from[a];
+				from[a] = from[b];
+				from[b] = f;
+				int t = to[a];
+				to[a] = to[b];
+				to[b] = t;
+				double d = time[a];
+				time[a] = time[b];
+				time[b] = d;
+			});
+
+			sorted = true;
+		}
+
+		/**
+		 * First position of a person, or {@link #size} if not present.
+		 */
+		private int indexOf(int person) {
+			int lo = 0, hi = size;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (from[mid] < person)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+	}
+
+}
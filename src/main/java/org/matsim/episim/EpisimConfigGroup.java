@@ -81,6 +81,14 @@ public final class EpisimConfigGroup extends ReflectiveConfigGroup {
 	private static final String REPORT_TIME_USE = "reportTimeUse";
 	private static final String SINGLE_EVENT_FILE = "singleEventFile";
 	private static final String END_EARLY = "endEarly";
+	private static final String TOPOLOGY_CACHE = "topologyCache";
+	private static final String REBALANCE_INTERVAL = "rebalanceInterval";
+	private static final String REPLAY_SCHEDULING = "replayScheduling";
+	private static final String SHARDS_PER_THREAD = "shardsPerThread";
+	private static final String RANDOM_STREAMS = "randomStreams";
+	private static final String CONTACT_PAIRS = "contactPairs";
+	private static final String CONTACT_ENGINE = "contactEngine";
+	private static final String PERSON_UPDATES = "personUpdates";
 
 	private static final Logger log = LogManager.getLogger(EpisimConfigGroup.class);
 	private static final String GROUPNAME = "episim";
@@ -166,6 +174,20 @@ public final class EpisimConfigGroup extends ReflectiveConfigGroup {
 	private ReportTimeUse reportTimeUse = ReportTimeUse.no;
 	private SingleEventFile singleEventFile = SingleEventFile.yes;
 	private boolean endEarly = false;
+	/**
+	 * Directory to cache container statistics derived from the events.
+	 */
+	private String topologyCache = null;
+	/**
+	 * Interval in days after which containers are redistributed to threads using their measured cost.
+	 */
+	private int rebalanceInterval = 0;
+	private ReplayScheduling replayScheduling = ReplayScheduling.fixed;
+	private int shardsPerThread = 8;
+	private RandomStreams randomStreams = RandomStreams.handler;
+	private ContactPairs contactPairs = ContactPairs.all;
+	private ContactEngine contactEngine = ContactEngine.replay;
+	private PersonUpdates personUpdates = PersonUpdates.sequential;
 	private int threads = 2;
 
 
@@ -181,6 +203,21 @@ public final class EpisimConfigGroup extends ReflectiveConfigGroup {
 		super(GROUPNAME);
 	}
 
+	/**
+	 * Checks that options which influence each other are combined in a valid way. This is also called when the simulation is initialized.
+	 *
+	 * @throws IllegalStateException if the options can not be combined
+	 */
+	@Override
+	public void checkConsistency(org.matsim.core.config.Config config) {
+		super.checkConsistency(config);
+
+		// results only do not depend on the assignment of containers to threads if random numbers are drawn per container
+		if (rebalanceInterval > 0 && randomStreams != RandomStreams.container)
+			throw new IllegalStateException("Rebalancing containers (" + REBALANCE_INTERVAL + "=" + rebalanceInterval + ") requires "
+					+ RANDOM_STREAMS + "=" + RandomStreams.container + ", otherwise results are not reproducible.");
+	}
+
 	public String getInputEventsFile() {
 		List<EventFileParams> list = Lists.newArrayList(getInputEventsFiles());
 
@@ -772,6 +809,10 @@ public final class EpisimConfigGroup extends ReflectiveConfigGroup {
 		}
 
 		super.addParameterSet(params);
+
+		int i = 0;
+		for (InfectionParams p : getInfectionParams())
+			p.index = i++;
 	}
 
 	/**
@@ -878,6 +919,107 @@ public final class EpisimConfigGroup extends ReflectiveConfigGroup {
 		this.endEarly = endEarly;
 	}
 
+	/**
+	 * Directory where container statistics derived from the events are cached. Caching is disabled if not set.
+	 */
+	@StringGetter(TOPOLOGY_CACHE)
+	public String getTopologyCache() {
+		return topologyCache;
+	}
+
+	@StringSetter(TOPOLOGY_CACHE)
+	public void setTopologyCache(String topologyCache) {
+		this.topologyCache = topologyCache;
+	}
+
+	/**
+	 * Number of days after which containers are redistributed to the threads, based on the processing time measured in the meantime.
+	 * Zero disables rebalancing, so that the initial distribution by estimated load is kept.
+	 * Because the distribution depends on measured timings, this option can only be used with {@link RandomStreams#container}.
+	 */
+	@StringGetter(REBALANCE_INTERVAL)
+	public int getRebalanceInterval() {
+		return rebalanceInterval;
+	}
+
+	@StringSetter(REBALANCE_INTERVAL)
+	public void setRebalanceInterval(int rebalanceInterval) {
+		this.rebalanceInterval = rebalanceInterval;
+	}
+
+	@StringGetter(REPLAY_SCHEDULING)
+	public ReplayScheduling getReplayScheduling() {
+		return replayScheduling;
+	}
+
+	@StringSetter(REPLAY_SCHEDULING)
+	public void setReplayScheduling(ReplayScheduling replayScheduling) {
+		this.replayScheduling = replayScheduling;
+	}
+
+	/**
+	 * Number of container shards per thread when using {@link ReplayScheduling#workStealing}.
+	 */
+	@StringGetter(SHARDS_PER_THREAD)
+	public int getShardsPerThread() {
+		return shardsPerThread;
+	}
+
+	@StringSetter(SHARDS_PER_THREAD)
+	public void setShardsPerThread(int shardsPerThread) {
+		this.shardsPerThread = shardsPerThread;
+	}
+
+	@StringGetter(RANDOM_STREAMS)
+	public RandomStreams getRandomStreams() {
+		return randomStreams;
+	}
+
+	@StringSetter(RANDOM_STREAMS)
+	public void setRandomStreams(RandomStreams randomStreams) {
+		this.randomStreams = randomStreams;
+	}
+
+	@StringGetter(CONTACT_PAIRS)
+	public ContactPairs getContactPairs() {
+		return contactPairs;
+	}
+
+	@StringSetter(CONTACT_PAIRS)
+	public void setContactPairs(ContactPairs contactPairs) {
+		this.contactPairs = contactPairs;
+	}
+
+	@StringGetter(CONTACT_ENGINE)
+	public ContactEngine getContactEngine() {
+		return contactEngine;
+	}
+
+	@StringSetter(CONTACT_ENGINE)
+	public void setContactEngine(ContactEngine contactEngine) {
+		this.contactEngine = contactEngine;
+	}
+
+	@StringGetter(PERSON_UPDATES)
+	public PersonUpdates getPersonUpdates() {
+		return personUpdates;
+	}
+
+	@StringSetter(PERSON_UPDATES)
+	public void setPersonUpdates(PersonUpdates personUpdates) {
+		this.personUpdates = personUpdates;
+	}
+
+	/**
+	 * Number of tasks the containers are distributed to when replaying events.
+	 */
+	public int getNumReplayTasks() {
+		if (threads > 1 && replayScheduling == ReplayScheduling.workStealing)
+			return threads * shardsPerThread;
+
+		return threads;
+	}
+
 	/**
 	 * Defines how facilities should be handled.
 	 */
@@ -968,7 +1110,13 @@ public final class EpisimConfigGroup extends ReflectiveConfigGroup {
      */
 	public enum ContagiousOptimization {
 		yes,
-		no
+		no,
+		/**
+		 * Containers that are not visited by a contagious person on a day are not replayed. Persons are only moved in and out of these
+		 * containers at the end of the day, time use is still reported. In all other containers infection dynamics are always executed.
+		 * Skipping is disabled on days where contacts are tracked or written, so that tracing is not affected.
+		 */
+		skipContainers
 	}
 
 	/**
@@ -989,6 +1137,85 @@ public final class EpisimConfigGroup extends ReflectiveConfigGroup {
 		no
 	}
 
+	/**
+	 * How the events of a day are distributed to the threads.
+	 */
+	public enum ReplayScheduling {
+		/**
+		 * Each thread processes one fixed partition of the containers.
+		 */
+		fixed,
+		/**
+		 * Containers are split into many more shards than threads, which are processed by a work stealing pool.
+		 * Results are the same as with the fixed scheduling and the same number of partitions.
+		 */
+		workStealing
+	}
+
+	/**
+	 * Source of random numbers used by contact and infection models while events are replayed.
+	 */
+	public enum RandomStreams {
+		/**
+		 * Each trajectory handler has one random stream, results depend on the number of threads and the distribution of containers.
+		 */
+		handler,
+		/**
+		 * Each container has its own random stream for every day, derived from the global seed.
+		 * Results are the same regardless of the number of threads and the distribution of containers.
+		 */
+		container
+	}
+
+	/**
+	 * Which contacts are evaluated by the contact model.
+	 */
+	public enum ContactPairs {
+		/**
+		 * Draw contacts among all persons in a container.
+		 */
+		all,
+		/**
+		 * Only evaluate pairs of an infectious and a susceptible person. Each pair is considered with the same probability as when drawing
+		 * contacts among all persons, so the infection probability of each pair is retained. Not used on days where contacts are tracked or written.
+		 */
+		infectious
+	}
+
+	/**
+	 * How contacts are derived from the events of a day.
+	 */
+	public enum ContactEngine {
+		/**
+		 * Replay all events and keep track of the persons in each container.
+		 */
+		replay,
+		/**
+		 * Precompute for each weekday which persons are present at the same time in a container. Only the departures that involve a
+		 * contagious person are evaluated, unless contacts are tracked or written. Containers are only filled for the duration of a
+		 * single contact evaluation. Persons start the day in their first container and leave their last container at the end of the day,
+		 * unless they stay there overnight, in which case they keep their enter time. Input events are not written.
+		 * Contact models are not notified when persons enter a container, so only the {@link org.matsim.episim.model.DefaultContactModel} is supported.
+		 */
+		coPresence
+	}
+
+	/**
+	 * How the state of all persons is updated at the start of each day.
+	 */
+	public enum PersonUpdates {
+		/**
+		 * Update all persons one after another, drawing from the global random stream.
+		 */
+		sequential,
+		/**
+		 * Update antibodies and activity participation in parallel on the configured number of threads. Each person has its own
+		 * random stream for every day, derived from the global seed, so results do not depend on the number of threads.
+		 * Disease progression, vaccination and testing are still updated sequentially because they share capacities.
+		 */
+		parallel
+	}
+
 	/**
 	 * Parameter set for one activity type.
 	 */
@@ -1021,6 +1248,11 @@ public final class EpisimConfigGroup extends ReflectiveConfigGroup {
 		 */
 		private double seasonality = 0.0;
 
+		/**
+		 * Position of this param set within the config, assigned when it is added.
+		 */
+		private int index = -1;
+
 		/**
 		 * See {@link #InfectionParams(String, String...)}. Name itself will also be used as prefix.
 		 */
@@ -1116,6 +1348,13 @@ public final class EpisimConfigGroup extends ReflectiveConfigGroup {
 			return seasonality;
 		}
 
+		/**
+		 * Ordinal of this param set in the order of {@link EpisimConfigGroup#getInfectionParams()}, or -1 if it was not added to a config yet.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
 		/**
 		 * Check whether an activity belong to this container group.
 		 */
@@ -29,10 +29,7 @@ import org.matsim.api.core.v01.population.Person;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 import static org.matsim.episim.EpisimUtils.*;
 
@@ -47,21 +44,62 @@ public class EpisimContainer<T> {
 	private static final Logger log = LogManager.getLogger(EpisimContainer.class);
 
 	/**
-	 * Persons currently in this container. Stored only as Ids.
+	 * Slot of each person currently in this container, keyed by person index.
 	 */
-	private final IntSet persons = new IntOpenHashSet(4);
+	private final Int2IntMap slots = new Int2IntOpenHashMap(4);
 
 	/**
-	 * Person list needed to draw random persons within container.
+	 * Persons currently in this container, stored densely in slots {@code 0} to {@code size - 1}.
+	 * A removed person is replaced by the person in the last slot, the entering order is kept in {@link #order}.
 	 */
-	private final List<EpisimPerson> personsAsList = new ArrayList<>();
+	private EpisimPerson[] persons = new EpisimPerson[4];
 
-	private final Int2DoubleMap containerEnterTimes = new Int2DoubleOpenHashMap(4);
+	/**
+	 * Position of each slot in {@link #order}.
+	 */
+	private int[] positions = new int[4];
+
+	/**
+	 * Slots in the order the persons entered the container, or -1 for persons that have left. The length is a power of two.
+	 */
+	private int[] order = new int[4];
+
+	/**
+	 * Fenwick tree over {@link #order}, using positions {@code 1} to {@code order.length}. Occupied positions count as one.
+	 * Used to find the n-th person in entering order after persons have left.
+	 */
+	private int[] orderTree = new int[5];
+
+	/**
+	 * Position in {@link #order} of the next person.
+	 */
+	private int nextPosition = 0;
+
+	/**
+	 * Time each person entered the container, by slot.
+	 */
+	private double[] enterTimes = new double[4];
+
+	/**
+	 * Activities of persons in the container, by slot.
+	 */
+	private EpisimPerson.PerformedActivity[] activities = new EpisimPerson.PerformedActivity[4];
 
 	/**
-	 * Activities of persons in the container.
+	 * Number of occupied slots.
 	 */
-	private final Int2ObjectMap<EpisimPerson.PerformedActivity> personActivities = new Int2ObjectArrayMap<>(4);
+	private int size = 0;
+
+	/**
+	 * Occupants that are {@link EpisimPerson#isInfectious()}. Usually there are none or very few, so this is a plain list.
+	 */
+	private EpisimPerson[] infectious = new EpisimPerson[2];
+	private int numInfectious = 0;
+
+	/**
+	 * List view of the occupied slots.
+	 */
+	private final List<EpisimPerson> personsAsList = new PersonList();
 
 	/**
 	 * The maximum number of persons simultaneously in this container. Negative if unknown.
@@ -89,6 +127,22 @@ public class EpisimContainer<T> {
 	 */
 	private int taskId = 0;
 
+	/**
+	 * Processing time in nanoseconds spent on this container since the last rebalancing.
+	 * Only the thread of the current task writes to this field.
+	 */
+	private long cost = 0;
+
+	/**
+	 * State of the random stream of this container, if random numbers are drawn per container.
+	 */
+	private long rndState;
+
+	/**
+	 * Whether events of this container are fully replayed on the current day.
+	 */
+	private boolean replayed = true;
+
 	/**
 	 * This counts the number of persons in this container
 	 * which have the DiseaseStatus contagious or showingSymptoms. 	
@@ -97,6 +151,7 @@ public class EpisimContainer<T> {
 
 	EpisimContainer(Id<T> containerId) {
 		this.containerId = containerId;
+		this.slots.defaultReturnValue(-1);
 	}
 
 	/**
@@ -104,16 +159,12 @@ public class EpisimContainer<T> {
 	 */
 	void read(ObjectInput in, Map<Id<Person>, EpisimPerson> persons) throws IOException {
 
-		this.persons.clear();
-		this.personsAsList.clear();
-		this.containerEnterTimes.clear();
+		clearPersons();
 
 		int n = in.readInt();
 		for (int i = 0; i < n; i++) {
 			Id<Person> id = Id.create(readChars(in), Person.class);
-			this.persons.add(id.index());
-			personsAsList.add(persons.get(id));
-			containerEnterTimes.put(id.index(), in.readDouble());
+			addPerson(persons.get(id), in.readDouble(), null);
 		}
 	}
 
@@ -122,28 +173,50 @@ public class EpisimContainer<T> {
 	 */
 	void write(ObjectOutput out) throws IOException {
 
-		out.writeInt(containerEnterTimes.size());
-		for (EpisimPerson p : personsAsList) {
-			writeChars(out, p.getPersonId().toString());
-			out.writeDouble(containerEnterTimes.get(p.getPersonId().index()));
+		out.writeInt(size);
+		for (int pos = 0; pos < nextPosition; pos++) {
+			int slot = order[pos];
+			if (slot == -1)
+				continue;
+
+			writeChars(out, persons[slot].getPersonId().toString());
+			out.writeDouble(enterTimes[slot]);
 		}
 	}
 
 	boolean containsPerson(EpisimPerson person) {
-		final int index = person.getPersonId().index();
-		return persons.contains(index);
+		return slots.containsKey(person.getPersonId().index());
 	}
 
 	void addPerson(EpisimPerson person, double now, EpisimPerson.PerformedActivity act) {
 		final int index = person.getPersonId().index();
 
 		//assert !persons.contains(index) : "Person already contained in this container.";
-		assert !persons.contains(index) : String.format("Person %s was already in container %s", person.getPersonId(), containerId);
+		assert !slots.containsKey(index) : String.format("Person %s was already in container %s", person.getPersonId(), containerId);
+
+		if (size == persons.length) {
+			int n = size * 2;
+			persons = Arrays.copyOf(persons, n);
+			positions = Arrays.copyOf(positions, n);
+			enterTimes = Arrays.copyOf(enterTimes, n);
+			activities = Arrays.copyOf(activities, n);
+		}
 
-		persons.add(index);
-		personsAsList.add(person);
-		containerEnterTimes.put(index, now);
-		personActivities.put(index, act);
+		if (nextPosition == order.length)
+			compactOrder();
+
+		persons[size] = person;
+		enterTimes[size] = now;
+		activities[size] = act;
+		positions[size] = nextPosition;
+		order[nextPosition] = size;
+		updateOrderTree(nextPosition, 1);
+		nextPosition++;
+		slots.put(index, size);
+		size++;
+
+		if (person.isInfectious())
+			addInfectious(person);
 	}
 
 	/**
@@ -152,30 +225,88 @@ public class EpisimContainer<T> {
 	 * @throws RuntimeException if the person was not in the container.
 	 */
 	void removePerson(EpisimPerson person) {
-		int index = person.getPersonId().index();
-
-		containerEnterTimes.remove(index);
-		personActivities.remove(index);
-		persons.remove(index);
-		boolean wasRemoved = personsAsList.remove(person);
-		if (!wasRemoved)
+		int slot = getSlot(person.getPersonId());
+		if (slot == -1) {
 			log.warn( "Person {} was not in container {}", person.getPersonId(), containerId);
+			return;
+		}
+
+		removeSlot(slot);
 
 		if (person.infectedButNotSerious())
 			contagiousCounter -= 1;
 	}
 
 	/**
-	 * Remove person using the iterator from {@link #getPersons()}.
-	 * This allows to remove persons while iterating through them.
+	 * Remove the person at a slot. The person in the last slot is moved into the free slot, the entering order of the remaining persons
+	 * is retained in {@link #getRank(int)}.
+	 * In contrast to {@link #removePerson(EpisimPerson)}, this does not update the number of contagious persons.
 	 */
-	void removePerson(EpisimPerson person, Iterator<EpisimPerson> it) {
-		int index = person.getPersonId().index();
+	void removeSlot(int slot) {
+		removeInfectious(persons[slot]);
+		slots.remove(persons[slot].getPersonId().index());
+
+		order[positions[slot]] = -1;
+		updateOrderTree(positions[slot], -1);
+
+		int last = --size;
+		if (slot != last) {
+			persons[slot] = persons[last];
+			positions[slot] = positions[last];
+			enterTimes[slot] = enterTimes[last];
+			activities[slot] = activities[last];
+			order[positions[slot]] = slot;
+			slots.put(persons[slot].getPersonId().index(), slot);
+		}
 
-		containerEnterTimes.remove(index);
-		personActivities.remove(index);
-		persons.remove(index);
-		it.remove();
+		persons[last] = null;
+		activities[last] = null;
+
+		// all counts in the tree are zero again
+		if (size == 0)
+			nextPosition = 0;
+	}
+
+	/**
+	 * Add {@code value} to the count of a position in the order tree.
+	 */
+	private void updateOrderTree(int pos, int value) {
+		for (int i = pos + 1; i < orderTree.length; i += i & -i)
+			orderTree[i] += value;
+	}
+
+	/**
+	 * Move the remaining persons to the front of {@link #order} and rebuild the tree. The order is grown if it is more than half full.
+	 */
+	private void compactOrder() {
+
+		int n = size * 2 > order.length ? order.length * 2 : order.length;
+		int[] compacted = new int[n];
+
+		int next = 0;
+		for (int pos = 0; pos < nextPosition; pos++) {
+			int slot = order[pos];
+			if (slot == -1)
+				continue;
+
+			compacted[next] = slot;
+			positions[slot] = next++;
+		}
+
+		Arrays.fill(compacted, next, n, -1);
+		order = compacted;
+		nextPosition = next;
+
+		// linear construction of the tree, every position passes its sum on to its parent
+		orderTree = new int[n + 1];
+		for (int i = 1; i <= n; i++) {
+			if (i <= next)
+				orderTree[i]++;
+
+			int parent = i + (i & -i);
+			if (parent <= n)
+				orderTree[parent] += orderTree[i];
+		}
 	}
 
 	public Id<T> getContainerId() {
@@ -238,32 +369,192 @@ public class EpisimContainer<T> {
 		return taskId;
 	}
 
+	/**
+	 * Account processing time to this container.
+	 */
+	void addCost(long nanos) {
+		cost += nanos;
+	}
+
+	long getCost() {
+		return cost;
+	}
+
+	void resetCost() {
+		cost = 0;
+	}
+
+	/**
+	 * Initialize the random stream of this container for a new day. The stream only depends on the seed and the container id.
+	 */
+	void initRandomStream(long daySeed) {
+		long id = containerId.toString().hashCode() + 31L * getClass().getSimpleName().hashCode();
+		rndState = EpisimUtils.mix64(daySeed ^ EpisimUtils.mix64(id));
+	}
+
+	long getRndState() {
+		return rndState;
+	}
+
+	void setRndState(long rndState) {
+		this.rndState = rndState;
+	}
+
+	boolean isReplayed() {
+		return replayed;
+	}
+
+	void setReplayed(boolean replayed) {
+		this.replayed = replayed;
+	}
+
 	
 	void clearPersons() {
-		this.persons.clear();
-		this.personsAsList.clear();
-		this.containerEnterTimes.clear();
+		Arrays.fill(infectious, 0, numInfectious, null);
+		this.numInfectious = 0;
+		this.slots.clear();
+		Arrays.fill(orderTree, 0);
+		this.nextPosition = 0;
+		Arrays.fill(persons, 0, size, null);
+		Arrays.fill(activities, 0, size, null);
+		this.size = 0;
 	}
 
 	/**
 	 * Returns the time the person entered the container, or {@link Double#NEGATIVE_INFINITY} if it never entered.
 	 */
 	public double getContainerEnteringTime(Id<Person> personId) {
-		return containerEnterTimes.getOrDefault(personId.index(), Double.NEGATIVE_INFINITY);
+		int slot = getSlot(personId);
+		return slot >= 0 ? enterTimes[slot] : Double.NEGATIVE_INFINITY;
 	}
 
 	/**
 	 * Return the activity that a person is performing in this container.
 	 */
 	public EpisimPerson.PerformedActivity getPerformedActivity(Id<Person> personId) {
-		return personActivities.get(personId.index());
+		int slot = getSlot(personId);
+		return slot >= 0 ? activities[slot] : null;
 	}
 
+	/**
+	 * Unmodifiable view of the persons in this container, in the order they entered.
+	 */
 	public List<EpisimPerson> getPersons() {
 		// Using Collections.unmodifiableList(...) puts huge pressure on the GC if its called hundred thousand times per second
 		return personsAsList;
 	}
 
+	/**
+	 * Number of persons in this container, which are stored in slots {@code 0} to {@code getNumPersons() - 1}.
+	 */
+	public int getNumPersons() {
+		return size;
+	}
+
+	/**
+	 * Slot of a person, or -1 if the person is not in this container. Slots are only valid until the next person is removed.
+	 */
+	public int getSlot(Id<Person> personId) {
+		return slots.get(personId.index());
+	}
+
+	/**
+	 * Number of persons in this container that entered before the person in this slot.
+	 */
+	public int getRank(int slot) {
+		int pos = positions[slot];
+
+		// no person has left, so positions are the ranks
+		if (nextPosition == size)
+			return pos;
+
+		int rank = 0;
+		for (int i = pos; i > 0; i -= i & -i)
+			rank += orderTree[i];
+
+		return rank;
+	}
+
+	/**
+	 * Slot of the person with the given {@link #getRank(int)}.
+	 */
+	public int getSlotAtRank(int rank) {
+
+		if (nextPosition == size)
+			return order[rank];
+
+		// find the position of the rank-th person by descending the tree
+		int pos = 0;
+		for (int step = order.length; step > 0; step >>= 1) {
+			int next = pos + step;
+			if (orderTree[next] <= rank) {
+				pos = next;
+				rank -= orderTree[next];
+			}
+		}
+
+		return order[pos];
+	}
+
+	public EpisimPerson getPerson(int slot) {
+		return persons[slot];
+	}
+
+	/**
+	 * Time the person in this slot entered the container.
+	 */
+	public double getEnteringTime(int slot) {
+		return enterTimes[slot];
+	}
+
+	/**
+	 * Activity performed by the person in this slot.
+	 */
+	public EpisimPerson.PerformedActivity getPerformedActivity(int slot) {
+		return activities[slot];
+	}
+
+
+	private void addInfectious(EpisimPerson person) {
+		if (numInfectious == infectious.length)
+			infectious = Arrays.copyOf(infectious, numInfectious * 2);
+
+		infectious[numInfectious++] = person;
+	}
+
+	private void removeInfectious(EpisimPerson person) {
+		for (int i = 0; i < numInfectious; i++) {
+			if (infectious[i] == person) {
+				infectious[i] = infectious[--numInfectious];
+				infectious[numInfectious] = null;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Rebuild the list of infectious occupants. Needs to be called when the disease status of persons in this container has changed.
+	 */
+	void updateInfectious() {
+		Arrays.fill(infectious, 0, numInfectious, null);
+		numInfectious = 0;
+		for (int pos = 0; pos < nextPosition; pos++) {
+			int slot = order[pos];
+			if (slot != -1 && persons[slot].isInfectious())
+				addInfectious(persons[slot]);
+		}
+	}
+
+	/**
+	 * Number of occupants that are infectious, which are stored at index {@code 0} to {@code getNumInfectious() - 1}.
+	 */
+	public int getNumInfectious() {
+		return numInfectious;
+	}
+
+	public EpisimPerson getInfectious(int i) {
+		return infectious[i];
+	}
 
 	public void countContagious(int add) {
 		contagiousCounter += add;
@@ -277,4 +568,21 @@ public class EpisimContainer<T> {
 	public boolean containsContagious() {
 		return contagiousCounter > 0;
 	}
+
+	/**
+	 * Read-only list backed by the slots of this container, in entering order.
+	 */
+	private final class PersonList extends AbstractList<EpisimPerson> implements RandomAccess {
+
+		@Override
+		public EpisimPerson get(int index) {
+			Objects.checkIndex(index, size);
+			return persons[getSlotAtRank(index)];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
 }
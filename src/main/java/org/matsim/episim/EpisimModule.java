@@ -48,6 +48,7 @@ import javax.inject.Named;
 import java.util.SplittableRandom;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Provides the default bindings needed for Episim.
@@ -169,7 +170,9 @@ public class EpisimModule extends AbstractModule {
 	@Singleton
 	public ExecutorService executorService(EpisimConfigGroup episimConfig) {
 
-		if (episimConfig.getThreads() > 1)
+		if (episimConfig.getThreads() > 1 && episimConfig.getReplayScheduling() == EpisimConfigGroup.ReplayScheduling.workStealing)
+			return new ForkJoinPool(episimConfig.getThreads());
+		else if (episimConfig.getThreads() > 1)
 			return Executors.newFixedThreadPool(episimConfig.getThreads());
 		else
 			return Executors.newSingleThreadScheduledExecutor();
@@ -25,9 +25,7 @@ import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.doubles.DoubleList;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
-import it.unimi.dsi.fastutil.objects.Object2DoubleLinkedOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
-import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.objects.*;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.episim.events.EpisimInfectionEvent;
@@ -47,7 +45,6 @@ import java.io.ObjectOutput;
 import java.time.DayOfWeek;
 import java.util.*;
 import java.util.function.BiFunction;
-import java.util.stream.Collectors;
 
 import static org.matsim.episim.EpisimUtils.*;
 
@@ -96,9 +93,9 @@ public final class EpisimPerson implements Immunizable, Attributable {
 	private final boolean[] staysInContainer = new boolean[7];
 
 	/**
-	 * Traced contacts with other persons.
+	 * Store of traced contacts, usually shared with all other persons.
 	 */
-	private final Object2DoubleMap<EpisimPerson> traceableContactPersons = new Object2DoubleLinkedOpenHashMap<>(4);
+	private final ContactTracingStore tracingStore;
 
 	/**
 	 * Stores first time of status changes to specific type.
@@ -202,15 +199,53 @@ public final class EpisimPerson implements Immunizable, Attributable {
 	 */
 	private final List<VirusStrain> virusStrains = new ArrayList<>();
 
+	private static final VirusStrain[] STRAINS = VirusStrain.values();
+
+	/**
+	 * Shared values of persons that have no antibodies or maximum antibodies, must never be written.
+	 */
+	private static final double[] NO_ANTIBODIES = new double[STRAINS.length];
+
+	/**
+	 * Immunity cache of persons that have not used it yet.
+	 */
+	private static final double[] EMPTY_CACHE = new double[0];
+
+	/**
+	 * Antibody level for each virus strain by {@link VirusStrain#ordinal()}, as of {@link #antibodyReferenceDay}.
+	 * Only allocated once a level is positive.
+	 */
+	private double[] antibodies = NO_ANTIBODIES;
+
+	/**
+	 * Whether antibodies have been set or updated, {@link #getAntibodies()} contains all strains from then on.
+	 */
+	private boolean antibodiesPresent;
+
+	/**
+	 * Day at which the stored {@link #antibodies} were valid.
+	 */
+	private int antibodyReferenceDay;
+
+	/**
+	 * Current day of the antibody levels, see {@link #decayAntibodies(int, double)}.
+	 */
+	private int antibodyDay;
+
+	/**
+	 * Daily decay of antibodies since {@link #antibodyReferenceDay}.
+	 */
+	private double antibodyDecay = 1;
+
 	/**
-	 * Antibody level for each virus strain.
+	 * Factor by which the stored antibodies have decayed until {@link #antibodyDay}.
 	 */
-	private final Object2DoubleMap<VirusStrain> antibodies = new Object2DoubleOpenHashMap<>();
+	private double antibodyFactor = 1;
 
 	/**
 	 * Maximal antibody level reached by agent w/ respect to each strain
 	 */
-	private final Object2DoubleMap<VirusStrain> maxAntibodies = new Object2DoubleOpenHashMap<>();
+	private double[] maxAntibodies = NO_ANTIBODIES;
 
 	/**
 	 * Antibody level at last infection.
@@ -222,6 +257,16 @@ public final class EpisimPerson implements Immunizable, Attributable {
 	 */
 	private double immuneResponseMultiplier = 1.0;
 
+	/**
+	 * Values derived from the immunity of this person, which are only valid for {@link #immunityCacheDay}. See {@link #getImmunityCache(int, int)}.
+	 */
+	private double[] immunityCache = EMPTY_CACHE;
+
+	/**
+	 * Day of the values in {@link #immunityCache}. Written after the values are reset, so that readers of this day see the reset values.
+	 */
+	private volatile int immunityCacheDay = Integer.MIN_VALUE;
+
 	/**
 	 * Lookup age from attributes.
 	 */
@@ -246,8 +291,16 @@ public final class EpisimPerson implements Immunizable, Attributable {
 		this(personId, attrs, true, reporting);
 	}
 
+	/**
+	 * Creates a person with its own {@link ContactTracingStore}.
+	 */
 	EpisimPerson(Id<Person> personId, Attributes attrs, boolean traceable, EpisimReporting reporting) {
+		this(personId, attrs, traceable, reporting, new ContactTracingStore());
+	}
+
+	EpisimPerson(Id<Person> personId, Attributes attrs, boolean traceable, EpisimReporting reporting, ContactTracingStore tracingStore) {
 		this.personId = personId;
+		this.tracingStore = tracingStore;
 		this.attributes = attrs;
 		this.traceable = traceable;
 		this.age = getAge(attrs);
@@ -261,11 +314,13 @@ public final class EpisimPerson implements Immunizable, Attributable {
 	 */
 	void read(ObjectInput in, Map<Id<Person>, EpisimPerson> persons) throws IOException {
 
+		// the store itself needs to be cleared beforehand
 		int n = in.readInt();
-		traceableContactPersons.clear();
 		for (int i = 0; i < n; i++) {
 			Id<Person> id = Id.create(readChars(in), Person.class);
-			traceableContactPersons.put(persons.get(id), in.readDouble());
+			double time = in.readDouble();
+			if (persons.containsKey(id))
+				tracingStore.add(this, persons.get(id), time);
 		}
 
 		n = in.readInt();
@@ -305,13 +360,17 @@ public final class EpisimPerson implements Immunizable, Attributable {
 		n = in.readInt();
 		for (int i = 0; i < n; i++) {
 			VirusStrain strain = VirusStrain.values()[in.readInt()];
-			antibodies.put(strain, in.readDouble());
+			setAntibodies(strain, in.readDouble());
 		}
 
+		// the decay is set again with the next update
+		antibodyDecay = 1;
+		antibodyFactor = 1;
+
 		n = in.readInt();
 		for (int i = 0; i < n; i++) {
 			VirusStrain strain = VirusStrain.values()[in.readInt()];
-			maxAntibodies.put(strain, in.readDouble());
+			updateMaxAntibodies(strain, in.readDouble());
 		}
 
 		status = DiseaseStatus.values()[in.readInt()];
@@ -327,6 +386,7 @@ public final class EpisimPerson implements Immunizable, Attributable {
 		susceptibility = in.readDouble();
 		antibodyLevelAtInfection = in.readDouble();
 		immuneResponseMultiplier = in.readDouble();
+		invalidateImmunityCache();
 
 	}
 
@@ -335,6 +395,7 @@ public final class EpisimPerson implements Immunizable, Attributable {
 	 */
 	void write(ObjectOutput out) throws IOException {
 
+		Object2DoubleMap<EpisimPerson> traceableContactPersons = tracingStore.getContacts(this, Double.NEGATIVE_INFINITY);
 		out.writeInt(traceableContactPersons.size());
 		for (Object2DoubleMap.Entry<EpisimPerson> kv : traceableContactPersons.object2DoubleEntrySet()) {
 			writeChars(out, kv.getKey().getPersonId().toString());
@@ -375,16 +436,17 @@ public final class EpisimPerson implements Immunizable, Attributable {
 			out.writeInt(virusStrains.get(i).ordinal());
 		}
 
-		out.writeInt(antibodies.size());
-		for (Object2DoubleMap.Entry<VirusStrain> kv : antibodies.object2DoubleEntrySet()) {
-			out.writeInt(kv.getKey().ordinal());
-			out.writeDouble(kv.getDoubleValue());
+		// same format as a map of all strains
+		out.writeInt(antibodiesPresent ? antibodies.length : 0);
+		for (int i = 0; antibodiesPresent && i < antibodies.length; i++) {
+			out.writeInt(i);
+			out.writeDouble(antibodies[i] * antibodyFactor);
 		}
 
-		out.writeInt(maxAntibodies.size());
-		for (Object2DoubleMap.Entry<VirusStrain> kv : maxAntibodies.object2DoubleEntrySet()) {
-			out.writeInt(kv.getKey().ordinal());
-			out.writeDouble(kv.getDoubleValue());
+		out.writeInt(maxAntibodies != NO_ANTIBODIES ? maxAntibodies.length : 0);
+		for (int i = 0; maxAntibodies != NO_ANTIBODIES && i < maxAntibodies.length; i++) {
+			out.writeInt(i);
+			out.writeDouble(maxAntibodies[i]);
 		}
 
 		out.writeInt(status.ordinal());
@@ -427,13 +489,14 @@ public final class EpisimPerson implements Immunizable, Attributable {
 	 */
 	public void setInitialInfection(double now, VirusStrain strain) {
 
-		reporting.reportInfection(new EpisimInitialInfectionEvent(now, getPersonId(), strain, antibodies.getDouble(strain), maxAntibodies.getDouble(strain),getNumInfections()));
+		reporting.reportInfection(new EpisimInitialInfectionEvent(now, getPersonId(), strain, getAntibodies(strain), getMaxAntibodies(strain),getNumInfections()));
 
 		virusStrains.add(strain);
 		setDiseaseStatus(now, EpisimPerson.DiseaseStatus.infectedButNotContagious);
 		infectionDates.add(now);
 
-		antibodyLevelAtInfection = antibodies.getDouble(strain);
+		antibodyLevelAtInfection = getAntibodies(strain);
+		invalidateImmunityCache();
 
 		// TODO: add max antibodies
 	}
@@ -441,7 +504,7 @@ public final class EpisimPerson implements Immunizable, Attributable {
 	/**
 	 * Adds an infection possibility to this person. Will be executed in {@link #checkInfection()}
 	 */
-	synchronized public void possibleInfection(EpisimInfectionEvent event) {
+	public void possibleInfection(EpisimInfectionEvent event) {
 		if (earliestInfection == null || event.compareTo(earliestInfection) < 0) {
 			earliestInfection = event;
 		}
@@ -450,7 +513,7 @@ public final class EpisimPerson implements Immunizable, Attributable {
 	/**
 	 * Adds a potential infection to the list.
 	 */
-	synchronized public void potentialInfection(EpisimPotentialInfectionEvent event) {
+	public void potentialInfection(EpisimPotentialInfectionEvent event) {
 		potentialInfectionEvents.add(event);
 	}
 
@@ -472,7 +535,8 @@ public final class EpisimPerson implements Immunizable, Attributable {
 			infectionDates.add(event.getTime());
 
 			earliestInfection = null;
-			antibodyLevelAtInfection = antibodies.getDouble(event.getVirusStrain());
+			antibodyLevelAtInfection = getAntibodies(event.getVirusStrain());
+			invalidateImmunityCache();
 			return event;
 		}
 
@@ -565,6 +629,7 @@ public final class EpisimPerson implements Immunizable, Attributable {
 
 		vaccinations.add(type);
 		vaccinationDates.add(iteration);
+		invalidateImmunityCache();
 
 		reporting.reportVaccination(personId, iteration, type, vaccinations.size());
 	}
@@ -597,14 +662,14 @@ public final class EpisimPerson implements Immunizable, Attributable {
 	 * get map with max antibodies reached per strain (before current infection)
 	 */
 	public Object2DoubleMap<VirusStrain> getMaxAntibodies() {
-		return maxAntibodies;
+		return new StrainView(true);
 	}
 
 	/**
 	 * Get max antibodies reached for a particular strain (before current infection)
 	 */
 	public double getMaxAntibodies(VirusStrain virusStrain) {
-		return maxAntibodies.getDouble(virusStrain);
+		return maxAntibodies[virusStrain.ordinal()];
 	}
 
 	/**
@@ -613,24 +678,130 @@ public final class EpisimPerson implements Immunizable, Attributable {
 	 */
 	public void updateMaxAntibodies(VirusStrain strain, double maxAb) {
 
-		if (!this.maxAntibodies.containsKey(strain) || maxAb > this.maxAntibodies.getDouble(strain)) {
-			this.maxAntibodies.put(strain, maxAb);
+		if (maxAntibodies == NO_ANTIBODIES)
+			maxAntibodies = new double[NO_ANTIBODIES.length];
+
+		if (maxAb > maxAntibodies[strain.ordinal()]) {
+			maxAntibodies[strain.ordinal()] = maxAb;
 		}
 
 	}
 
 	public double getAntibodies(VirusStrain strain) {
-		return antibodies.getDouble(strain);
+		return antibodies[strain.ordinal()] * antibodyFactor;
 	}
 
+	/**
+	 * Whether any antibody level of this person has been positive, otherwise {@link #getAntibodies(VirusStrain)} is zero for all strains.
+	 */
+	public boolean hasAntibodies() {
+		return antibodies != NO_ANTIBODIES;
+	}
+
+	/**
+	 * Antibody levels of the current day as map view. The map is empty until antibodies have been set or updated.
+	 */
 	public Object2DoubleMap<VirusStrain> getAntibodies() {
-		return antibodies;
+		return new StrainView(false);
 	}
 
 	public double setAntibodies(VirusStrain strain, double value) {
 
-		return antibodies.put(strain, value);
+		applyAntibodyDecay();
+		invalidateImmunityCache();
+		antibodiesPresent = true;
+
+		// persons without antibodies share the same array
+		if (antibodies == NO_ANTIBODIES) {
+			if (value == 0)
+				return 0;
+
+			antibodies = new double[NO_ANTIBODIES.length];
+		}
+
+		double previous = antibodies[strain.ordinal()];
+		antibodies[strain.ordinal()] = value;
+		return previous;
+
+	}
+
+	/**
+	 * Advance the antibody levels to {@code day}, where they have decayed by {@code dailyDecay} for each day since they were last set.
+	 * The decay is only evaluated in closed form and not applied to each strain, so that this method is cheap to call every day.
+	 * A different daily decay applies from the previous day on, which needs to be the last day this method was called with.
+	 *
+	 * @param day        current day
+	 * @param dailyDecay factor applied to the antibodies for each day, 1 means no decay
+	 */
+	public void decayAntibodies(int day, double dailyDecay) {
+
+		if (dailyDecay != antibodyDecay) {
+			applyAntibodyDecay();
+			antibodyReferenceDay = day - 1;
+			antibodyDecay = dailyDecay;
+		}
+
+		antibodyDay = day;
+		antibodiesPresent = true;
+
+		if (antibodyDecay == 1 || antibodies == NO_ANTIBODIES)
+			antibodyFactor = 1;
+		else
+			antibodyFactor = Math.pow(antibodyDecay, antibodyDay - antibodyReferenceDay);
 
+		invalidateImmunityCache();
+	}
+
+	/**
+	 * Write the decay until the current day into the stored antibodies.
+	 */
+	private void applyAntibodyDecay() {
+		if (antibodyFactor != 1) {
+			for (int i = 0; i < antibodies.length; i++) {
+				antibodies[i] *= antibodyFactor;
+			}
+			antibodyFactor = 1;
+		}
+
+		antibodyReferenceDay = antibodyDay;
+	}
+
+	/**
+	 * Buffer for values that are derived from the immunity of this person and can be re-used for the rest of the day.
+	 * All entries are {@link Double#NaN} until they are computed by the caller.
+	 * The cache is cleared on each new day and whenever infections, vaccinations or antibodies of this person change.
+	 * <p>
+	 * The array is reused, it is only allocated again if more entries are needed.
+	 * Concurrent callers may compute the same entry more than once, which is harmless because entries only depend on the state of this person.
+	 * The values are reset before the day is published, so a caller that sees the current day never sees values of another day.
+	 * The state of this person, and thereby the cache, is only invalidated between the phases where persons are processed concurrently.
+	 *
+	 * @param iteration current iteration
+	 * @param size      required number of entries
+	 */
+	public double[] getImmunityCache(int iteration, int size) {
+		if (immunityCacheDay == iteration) {
+			double[] values = immunityCache;
+			if (values.length >= size)
+				return values;
+		}
+
+		double[] values = immunityCache;
+		if (values.length < size)
+			values = new double[size];
+
+		Arrays.fill(values, Double.NaN);
+		immunityCache = values;
+		immunityCacheDay = iteration;
+
+		return values;
+	}
+
+	/**
+	 * Discard all values of {@link #getImmunityCache(int, int)}.
+	 */
+	void invalidateImmunityCache() {
+		immunityCacheDay = Integer.MIN_VALUE;
 	}
 
 	/**
@@ -760,11 +931,11 @@ public final class EpisimPerson implements Immunizable, Attributable {
 		return status == DiseaseStatus.recovered || (status == DiseaseStatus.susceptible && infectionDates.size() >= 1 && daysSince(DiseaseStatus.recovered, currentDay) <= threshold);
 	}
 
-	public synchronized void addTraceableContactPerson(EpisimPerson personWrapper, double now) {
+	public void addTraceableContactPerson(EpisimPerson personWrapper, double now) {
 		// check if both persons have tracing capability
 		if (isTraceable() && personWrapper.isTraceable()) {
 			// Always use the latest tracking date
-			traceableContactPersons.put(personWrapper, now);
+			tracingStore.add(this, personWrapper, now);
 			reporting.reportTracing(now, this, personWrapper);
 		}
 	}
@@ -772,29 +943,26 @@ public final class EpisimPerson implements Immunizable, Attributable {
 	/**
 	 * Get all traced contacts that happened after certain time.
 	 */
-	public synchronized List<EpisimPerson> getTraceableContactPersons(double after) {
-		// needs to be sorted or results will be non deterministic with multithreading
-		return traceableContactPersons.object2DoubleEntrySet()
-				.stream().filter(p -> p.getDoubleValue() >= after)
-				.map(Map.Entry::getKey)
-				.sorted(Comparator.comparing(EpisimPerson::getPersonId))
-				.collect(Collectors.toList());
-
-		// yyyy if the computationally intensive operation is to search by time, we should sort traceableContactPersons by time.  To simplify this, I
-		// would argue that it is not a problem to have a person in there multiple times.  kai, may'20
+	public List<EpisimPerson> getTraceableContactPersons(double after) {
+		// sorted by id, otherwise results will be non deterministic with multithreading
+		return tracingStore.getContactPersons(this, after);
+	}
 
+	/**
+	 * Store of the traced contacts, which is usually shared by all persons of a simulation.
+	 */
+	public ContactTracingStore getTracingStore() {
+		return tracingStore;
 	}
 
 	/**
 	 * Remove old contact tracing data before a certain date.
+	 *
+	 * @deprecated this clears the contacts of all persons sharing the same store, use {@link ContactTracingStore#clear(double)} of {@link #getTracingStore()}
 	 */
+	@Deprecated
 	public void clearTraceableContractPersons(double before) {
-
-		int oldSize = traceableContactPersons.size();
-
-		if (oldSize == 0) return;
-
-		traceableContactPersons.keySet().removeIf(k -> traceableContactPersons.getDouble(k) < before);
+		tracingStore.clear(before);
 	}
 
 	/**
@@ -1096,6 +1264,81 @@ public final class EpisimPerson implements Immunizable, Attributable {
 		return null;
 	}
 
+	/**
+	 * Map view of the antibodies or maximum antibodies of this person, which contains either no or all strains.
+	 */
+	private final class StrainView extends AbstractObject2DoubleMap<VirusStrain> {
+
+		private final boolean max;
+
+		private StrainView(boolean max) {
+			this.max = max;
+		}
+
+		@Override
+		public int size() {
+			boolean present = max ? maxAntibodies != NO_ANTIBODIES : antibodiesPresent;
+			return present ? STRAINS.length : 0;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof VirusStrain && size() > 0;
+		}
+
+		@Override
+		public double getDouble(Object key) {
+			if (!containsKey(key))
+				return defRetValue;
+
+			VirusStrain strain = (VirusStrain) key;
+			return max ? getMaxAntibodies(strain) : getAntibodies(strain);
+		}
+
+		@Override
+		public double put(VirusStrain key, double value) {
+			if (!max)
+				return setAntibodies(key, value);
+
+			if (maxAntibodies == NO_ANTIBODIES)
+				maxAntibodies = new double[STRAINS.length];
+
+			double previous = maxAntibodies[key.ordinal()];
+			maxAntibodies[key.ordinal()] = value;
+			return previous;
+		}
+
+		@Override
+		public ObjectSet<Object2DoubleMap.Entry<VirusStrain>> object2DoubleEntrySet() {
+			return new AbstractObjectSet<>() {
+				@Override
+				public int size() {
+					return StrainView.this.size();
+				}
+
+				@Override
+				public ObjectIterator<Object2DoubleMap.Entry<VirusStrain>> iterator() {
+					return new ObjectIterator<>() {
+						private int i = 0;
+
+						@Override
+						public boolean hasNext() {
+							return i < size();
+						}
+
+						@Override
+						public Object2DoubleMap.Entry<VirusStrain> next() {
+							if (!hasNext())
+								throw new NoSuchElementException();
+
+							VirusStrain strain = STRAINS[i++];
+							return new AbstractObject2DoubleMap.BasicEntry<>(strain, getDouble(strain));
+						}
+					};
+				}
+			};
+		}
+	}
 
 	/**
 	 * Disease status of a person.
@@ -1185,4 +1428,11 @@ public final class EpisimPerson implements Immunizable, Attributable {
 				status == DiseaseStatus.contagious ||
 				status == DiseaseStatus.showingSymptoms);
 	}
+
+	/**
+	 * Whether this person can infect others in its current disease status. The status only changes between days.
+	 */
+	public boolean isInfectious() {
+		return status == DiseaseStatus.contagious || status == DiseaseStatus.showingSymptoms;
+	}
 }
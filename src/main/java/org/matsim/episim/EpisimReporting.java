@@ -20,10 +20,10 @@
  */
 package org.matsim.episim;
 
-import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.typesafe.config.ConfigRenderOptions;
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectIntPair;
@@ -54,9 +54,9 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 import java.util.zip.GZIPOutputStream;
 
 import static org.matsim.episim.EpisimUtils.readChars;
@@ -148,6 +148,22 @@ public final class EpisimReporting implements BasicEventHandler, Closeable, Exte
 	private final ByteArrayOutputStream os;
 
 
+	/**
+	 * Number of persons counted together by one task in {@link #createReports(Collection, int, Object2DoubleMap)}.
+	 */
+	private static final int REPORT_BLOCK_SIZE = 16384;
+
+	/**
+	 * Layout of the count array of each district: counts by disease status, counts by disease status of vaccinated persons and other counters.
+	 */
+	private static final int VACCINATED = EpisimPerson.DiseaseStatus.values().length;
+	private static final int QUARANTINE_HOME = 2 * VACCINATED;
+	private static final int QUARANTINE_FULL = QUARANTINE_HOME + 1;
+	private static final int N_VACCINATED = QUARANTINE_HOME + 2;
+	private static final int N_REVACCINATED = QUARANTINE_HOME + 3;
+	private static final int N_TESTED = QUARANTINE_HOME + 4;
+	private static final int NUM_COUNTS = QUARANTINE_HOME + 5;
+
 	private final Config config;
 	private final EpisimConfigGroup episimConfig;
 	private final VaccinationConfigGroup vaccinationConfig;
@@ -170,6 +186,13 @@ public final class EpisimReporting implements BasicEventHandler, Closeable, Exte
 
 	private final Map<String, BufferedWriter> externalWriters = new HashMap<>();
 
+	/**
+	 * Persons of the last report and the index of their district in {@link #districts}.
+	 */
+	private EpisimPerson[] reportPersons = new EpisimPerson[0];
+	private int[] reportDistricts = new int[0];
+	private final List<String> districts = new ArrayList<>();
+
 	private String memorizedDate = null;
 
 	/**
@@ -356,151 +379,174 @@ public final class EpisimReporting implements BasicEventHandler, Closeable, Exte
 	}
 
 	/**
-	 * Creates infections reports for the day. Grouped by district, but always containing a "total" entry.
+	 * Rebuilds the person array and district index used by {@link #createReports(Collection, int, Object2DoubleMap)}, if the persons have changed.
 	 */
-	Map<String, InfectionReport> createReports(Collection<EpisimPerson> persons, int iteration) {
+	private void updateDistricts(Collection<EpisimPerson> persons) {
 
-		Map<String, InfectionReport> reports = new LinkedHashMap<>();
+		if (persons.size() == reportPersons.length) {
+			int i = 0;
+			boolean same = true;
+			for (EpisimPerson person : persons) {
+				if (reportPersons[i++] != person) {
+					same = false;
+					break;
+				}
+			}
+
+			if (same)
+				return;
+		}
+
+		reportPersons = persons.toArray(new EpisimPerson[0]);
+		reportDistricts = new int[reportPersons.length];
+		districts.clear();
+
+		Object2IntMap<String> index = new Object2IntOpenHashMap<>();
+		for (int i = 0; i < reportPersons.length; i++) {
+			String districtName = (String) reportPersons[i].getAttributes().getAttribute("district");
+			reportDistricts[i] = index.computeIfAbsent(districtName == null ? "unknown" : districtName, (String name) -> {
+				districts.add(name);
+				return districts.size() - 1;
+			});
+		}
+	}
+
+	/**
+	 * Counts the state of one person into the count array of its district.
+	 */
+	private void countPerson(EpisimPerson person, long[] counts, int iteration) {
+
+		EpisimPerson.DiseaseStatus status = person.getDiseaseStatus();
+		if (status == EpisimPerson.DiseaseStatus.deceased)
+			throw new IllegalStateException("Unexpected value: " + status);
+
+		counts[status.ordinal()]++;
+		if (isVaccinated(person))
+			counts[VACCINATED + status.ordinal()]++;
+
+		// For now there is no separation in the report between full and home
+		if (person.getQuarantineStatus() == EpisimPerson.QuarantineStatus.atHome)
+			counts[QUARANTINE_HOME]++;
+		else if (person.getQuarantineStatus() == EpisimPerson.QuarantineStatus.full)
+			counts[QUARANTINE_FULL]++;
+
+		if (person.getVaccinationStatus() == VaccinationStatus.yes)
+			counts[N_VACCINATED]++;
+
+		if (person.getReVaccinationStatus() == VaccinationStatus.yes)
+			counts[N_REVACCINATED]++;
+
+		// stats are collected one day after the test has been performed
+		if (person.daysSinceTest(iteration) == 1 && person.getTestStatus() != EpisimPerson.TestStatus.untested)
+			counts[N_TESTED]++;
+	}
+
+	/**
+	 * Creates a report from the reduced counts of {@link #countPerson(EpisimPerson, long[], int)}.
+	 */
+	private static InfectionReport createReport(String name, long[] counts, double time, String date, int iteration) {
+
+		InfectionReport report = new InfectionReport(name, time, date, iteration);
+
+		report.nSusceptible = counts[EpisimPerson.DiseaseStatus.susceptible.ordinal()];
+		report.nInfectedButNotContagious = counts[EpisimPerson.DiseaseStatus.infectedButNotContagious.ordinal()];
+		report.nContagious = counts[EpisimPerson.DiseaseStatus.contagious.ordinal()];
+		report.nShowingSymptoms = counts[EpisimPerson.DiseaseStatus.showingSymptoms.ordinal()];
+		report.nSeriouslySick = counts[EpisimPerson.DiseaseStatus.seriouslySick.ordinal()]
+				+ counts[EpisimPerson.DiseaseStatus.seriouslySickAfterCritical.ordinal()];
+		report.nCritical = counts[EpisimPerson.DiseaseStatus.critical.ordinal()];
+		report.nRecovered = counts[EpisimPerson.DiseaseStatus.recovered.ordinal()];
+		report.nTotalInfected = report.nInfectedButNotContagious + report.nContagious + report.nShowingSymptoms
+				+ report.nSeriouslySick + report.nCritical;
+
+		report.nSusceptibleVaccinated = counts[VACCINATED + EpisimPerson.DiseaseStatus.susceptible.ordinal()];
+		report.nInfectedButNotContagiousVaccinated = counts[VACCINATED + EpisimPerson.DiseaseStatus.infectedButNotContagious.ordinal()];
+		report.nContagiousVaccinated = counts[VACCINATED + EpisimPerson.DiseaseStatus.contagious.ordinal()];
+		report.nShowingSymptomsVaccinated = counts[VACCINATED + EpisimPerson.DiseaseStatus.showingSymptoms.ordinal()];
+		report.nSeriouslySickVaccinated = counts[VACCINATED + EpisimPerson.DiseaseStatus.seriouslySick.ordinal()]
+				+ counts[VACCINATED + EpisimPerson.DiseaseStatus.seriouslySickAfterCritical.ordinal()];
+		report.nCriticalVaccinated = counts[VACCINATED + EpisimPerson.DiseaseStatus.critical.ordinal()];
+		report.nRecoveredVaccinated = counts[VACCINATED + EpisimPerson.DiseaseStatus.recovered.ordinal()];
+		report.nTotalInfectedVaccinated = report.nInfectedButNotContagiousVaccinated + report.nContagiousVaccinated
+				+ report.nShowingSymptomsVaccinated + report.nSeriouslySickVaccinated + report.nCriticalVaccinated;
+
+		report.nInQuarantineHome = counts[QUARANTINE_HOME];
+		report.nInQuarantineFull = counts[QUARANTINE_FULL];
+		report.nVaccinated = counts[N_VACCINATED];
+		report.nReVaccinated = counts[N_REVACCINATED];
+		report.nTested = counts[N_TESTED];
+
+		return report;
+	}
+
+	/**
+	 * Creates infections reports for the day. Grouped by district, but always containing a "total" entry.
+	 * If time use is reported, the time spent by each person is added to {@code timeUseSum} in the same pass and then cleared.
+	 *
+	 * @param timeUseSum receives the time use summed over all persons by activity, may be null
+	 */
+	Map<String, InfectionReport> createReports(Collection<EpisimPerson> persons, int iteration, Object2DoubleMap<String> timeUseSum) {
 
 		double time = EpisimUtils.getCorrectedTime(EpisimUtils.getStartOffset(episimConfig.getStartDate()), 0., iteration);
 		String date = episimConfig.getStartDate().plusDays(iteration - 1).toString();
 
-		InfectionReport report = new InfectionReport("total", time, date, iteration);
-		reports.put("total", report);
+		updateDistricts(persons);
 
-		for (EpisimPerson person : persons) {
-			String districtName = (String) person.getAttributes().getAttribute("district");
+		int n = reportPersons.length;
+		int blocks = (n + REPORT_BLOCK_SIZE - 1) / REPORT_BLOCK_SIZE;
+		boolean collectTimeUse = timeUseSum != null && iteration > 0 && episimConfig.getReportTimeUse() != EpisimConfigGroup.ReportTimeUse.no;
 
-			boolean isVaccinated = isVaccinated(person);
-
-			// Also aggregate by district
-			InfectionReport district = reports.computeIfAbsent(districtName == null ? "unknown"
-					: districtName, name -> new InfectionReport(name, report.time, report.date, report.day));
-			switch (person.getDiseaseStatus()) {
-				case susceptible:
-					report.nSusceptible++;
-					district.nSusceptible++;
-					if (isVaccinated) {
-						report.nSusceptibleVaccinated++;
-						district.nSusceptibleVaccinated++;
-					}
-					break;
-				case infectedButNotContagious:
-					report.nInfectedButNotContagious++;
-					district.nInfectedButNotContagious++;
-					report.nTotalInfected++;
-					district.nTotalInfected++;
-					if (isVaccinated) {
-						report.nInfectedButNotContagiousVaccinated++;
-						district.nInfectedButNotContagiousVaccinated++;
-						report.nTotalInfectedVaccinated++;
-						district.nTotalInfectedVaccinated++;
-					}
-					break;
-				case contagious:
-					report.nContagious++;
-					district.nContagious++;
-					report.nTotalInfected++;
-					district.nTotalInfected++;
-					if (isVaccinated) {
-						report.nContagiousVaccinated++;
-						district.nContagiousVaccinated++;
-						report.nTotalInfectedVaccinated++;
-						district.nTotalInfectedVaccinated++;
-					}
-					break;
-				case showingSymptoms:
-					report.nShowingSymptoms++;
-					district.nShowingSymptoms++;
-					report.nTotalInfected++;
-					district.nTotalInfected++;
-					if (isVaccinated) {
-						report.nShowingSymptomsVaccinated++;
-						district.nShowingSymptomsVaccinated++;
-						report.nTotalInfectedVaccinated++;
-						district.nTotalInfectedVaccinated++;
-					}
-					break;
-				case seriouslySick:
-				case seriouslySickAfterCritical:
-					report.nSeriouslySick++;
-					district.nSeriouslySick++;
-					report.nTotalInfected++;
-					district.nTotalInfected++;
-					if (isVaccinated) {
-						report.nSeriouslySickVaccinated++;
-						district.nSeriouslySickVaccinated++;
-						report.nTotalInfectedVaccinated++;
-						district.nTotalInfectedVaccinated++;
-					}
-					break;
-				case critical:
-					report.nCritical++;
-					district.nCritical++;
-					report.nTotalInfected++;
-					district.nTotalInfected++;
-					if (isVaccinated) {
-						report.nCriticalVaccinated++;
-						district.nCriticalVaccinated++;
-						report.nTotalInfectedVaccinated++;
-						district.nTotalInfectedVaccinated++;
-					}
-					break;
-				case recovered:
-					report.nRecovered++;
-					district.nRecovered++;
-					if (isVaccinated) {
-						report.nRecoveredVaccinated++;
-						district.nRecoveredVaccinated++;
-					}
-					break;
-				default:
-					throw new IllegalStateException("Unexpected value: " + person.getDiseaseStatus());
-			}
-			switch (person.getQuarantineStatus()) {
-				// For now there is no separation in the report between full and home
-				case atHome:
-					report.nInQuarantineHome++;
-					district.nInQuarantineHome++;
-					break;
-				case full:
-					report.nInQuarantineFull++;
-					district.nInQuarantineFull++;
-					break;
-				case testing:
-				case no:
-					break;
-				default:
-					throw new IllegalStateException("Unexpected value: " + person.getQuarantineStatus());
-			}
+		// every block is counted into its own arrays, which are reduced in block order afterwards
+		long[][][] blockCounts = new long[blocks][][];
+		List<Object2DoubleMap<String>> blockTimeUse = new ArrayList<>(Collections.nCopies(blocks, null));
 
-			switch (person.getVaccinationStatus()) {
-				case yes:
-					report.nVaccinated++;
-					district.nVaccinated++;
-				case no:
-					break;
-				default:
-					throw new IllegalArgumentException("Unexpected value: " + person.getVaccinationStatus());
+		IntStream.range(0, blocks).parallel().forEach(b -> {
+			long[][] counts = new long[districts.size()][NUM_COUNTS];
+			Object2DoubleMap<String> spent = new Object2DoubleOpenHashMap<>();
+
+			for (int i = b * REPORT_BLOCK_SIZE; i < Math.min(n, (b + 1) * REPORT_BLOCK_SIZE); i++) {
+				EpisimPerson person = reportPersons[i];
+				countPerson(person, counts[reportDistricts[i]], iteration);
+
+				if (collectTimeUse) {
+					for (Object2DoubleMap.Entry<String> kv : person.getSpentTime().object2DoubleEntrySet())
+						spent.mergeDouble(kv.getKey(), kv.getDoubleValue(), Double::sum);
+
+					person.getSpentTime().clear();
+				}
 			}
 
-			switch (person.getReVaccinationStatus()) {
-				case yes:
-					report.nReVaccinated++;
-					district.nReVaccinated++;
-				case no:
-					break;
-				default:
-					throw new IllegalArgumentException("Unexpected value: " + person.getReVaccinationStatus());
+			blockCounts[b] = counts;
+			blockTimeUse.set(b, spent);
+		});
+
+		long[][] counts = new long[districts.size()][NUM_COUNTS];
+		long[] totalCounts = new long[NUM_COUNTS];
+
+		for (int b = 0; b < blocks; b++) {
+			for (int d = 0; d < counts.length; d++) {
+				for (int j = 0; j < NUM_COUNTS; j++) {
+					counts[d][j] += blockCounts[b][d][j];
+					totalCounts[j] += blockCounts[b][d][j];
+				}
 			}
 
-			// stats are collected one day after the test has been performed
-			if (person.daysSinceTest(iteration) == 1 && person.getTestStatus() != EpisimPerson.TestStatus.untested) {
-				report.nTested++;
-				district.nTested++;
+			if (collectTimeUse) {
+				for (Object2DoubleMap.Entry<String> kv : blockTimeUse.get(b).object2DoubleEntrySet())
+					timeUseSum.mergeDouble(kv.getKey(), kv.getDoubleValue(), Double::sum);
 			}
 		}
 
+		Map<String, InfectionReport> reports = new LinkedHashMap<>();
+
+		InfectionReport report = createReport("total", totalCounts, time, date, iteration);
+		reports.put("total", report);
+
+		for (int d = 0; d < counts.length; d++) {
+			String name = districts.get(d);
+			reports.put(name, createReport(name, counts[d], time, date, iteration));
+		}
+
 		for (String district : reports.keySet()) {
 
 			int nInfected = cumulativeCases.get(EpisimPerson.DiseaseStatus.infectedButNotContagious).getOrDefault(district, 0);
@@ -713,15 +759,29 @@ public final class EpisimReporting implements BasicEventHandler, Closeable, Exte
 	 * @see EpisimContactEvent
 	 */
 	public synchronized void reportContact(double now, EpisimPerson person, EpisimPerson contactPerson, EpisimContainer<?> container,
-	                                       StringBuilder actType, double duration) {
+	                                       CharSequence actType, double duration) {
 
-		if (writeEvents == EpisimConfigGroup.WriteEvents.tracing || writeEvents == EpisimConfigGroup.WriteEvents.all) {
+		if (isWritingContacts()) {
 			manager.processEvent(new EpisimContactEvent(now, person.getPersonId(), contactPerson.getPersonId(), container.getContainerId(),
 					actType.toString(), duration, container.getPersons().size()));
 		}
 
 	}
 
+	/**
+	 * Report a contact event that has been created beforehand, see {@link ContactBuffer}.
+	 */
+	synchronized void reportContact(EpisimContactEvent event) {
+		manager.processEvent(event);
+	}
+
+	/**
+	 * Whether contact and tracing events are written.
+	 */
+	boolean isWritingContacts() {
+		return writeEvents == EpisimConfigGroup.WriteEvents.tracing || writeEvents == EpisimConfigGroup.WriteEvents.all;
+	}
+
 	/**
 	 * Set number of total contacts.
 	 * @param totalContacts
@@ -739,7 +799,7 @@ public final class EpisimReporting implements BasicEventHandler, Closeable, Exte
 	 */
 	void reportTracing(double now, EpisimPerson person, EpisimPerson contactPerson) {
 
-		if (writeEvents == EpisimConfigGroup.WriteEvents.tracing || writeEvents == EpisimConfigGroup.WriteEvents.all) {
+		if (isWritingContacts()) {
 			manager.processEvent(new EpisimTracingEvent(now, person.getPersonId(), contactPerson.getPersonId()));
 		}
 	}
@@ -751,31 +811,23 @@ public final class EpisimReporting implements BasicEventHandler, Closeable, Exte
 		writer.append(restrictionReport, "\n");
 	}
 
-	void reportTimeUse(Set<String> activities, Collection<EpisimPerson> persons, long iteration, String date) {
+	/**
+	 * Write the average time use per person.
+	 *
+	 * @param timeUseSum time use summed over all persons, as collected by {@link #createReports(Collection, int, Object2DoubleMap)}
+	 * @param persons number of persons
+	 */
+	void reportTimeUse(Set<String> activities, Object2DoubleMap<String> timeUseSum, int persons, long iteration, String date) {
 		if (iteration == 0 || episimConfig.getReportTimeUse() == EpisimConfigGroup.ReportTimeUse.no) return;
 
-		Map<String, Double> avg = new ConcurrentHashMap<>();
-
-		activities.parallelStream().forEach(act -> {
-			int i = 1;
-			double timeSpent = 0;
-			for (EpisimPerson person : persons) {
-				timeSpent += (person.getSpentTime().getDouble(act) - timeSpent) / i;
-				i++;
-			}
-			avg.put(act, timeSpent);
-		});
-
-		for (EpisimPerson person : persons) {
-			person.getSpentTime().clear();
-		}
-
-		List<String> order = Lists.newArrayList(activities);
-		Object[] array = new String[order.size()];
-		Arrays.fill(array, "");
+		Object[] array = new String[activities.size()];
 
 		// report minutes
-		avg.forEach((k, v) -> array[order.indexOf(k)] = String.valueOf(v / 60d));
+		int i = 0;
+		for (String act : activities) {
+			double avg = persons == 0 ? 0 : timeUseSum.getDouble(act) / persons;
+			array[i++] = String.valueOf(avg / 60d);
+		}
 
 		writer.append(timeUse, EpisimWriter.JOINER.join(iteration, date, array));
 		writer.append(timeUse, "\n");
@@ -851,9 +903,9 @@ public final class EpisimReporting implements BasicEventHandler, Closeable, Exte
 	}
 
 	/**
-	 * Write average antibody level.
+	 * Write average antibody level, {@code antibodies} contains the sum over all persons by {@link VirusStrain#ordinal()}.
 	 */
-	void reportAntibodyLevel(Object2DoubleMap<VirusStrain> antibodies, int n, int iteration) {
+	void reportAntibodyLevel(double[] antibodies, int n, int iteration) {
 		String date = episimConfig.getStartDate().plusDays(iteration - 1).toString();
 
 		String[] out = new String[VirusStrain.values().length + 2];
@@ -861,7 +913,7 @@ public final class EpisimReporting implements BasicEventHandler, Closeable, Exte
 		out[1] = date;
 
 		for (int i = 0; i < VirusStrain.values().length; i++) {
-			out[i + 2] = String.valueOf(antibodies.getDouble(VirusStrain.values()[i]) / n);
+			out[i + 2] = String.valueOf(antibodies[i] / n);
 		}
 
 		writer.append(antibodiesPerPerson, out);
@@ -926,11 +978,18 @@ public final class EpisimReporting implements BasicEventHandler, Closeable, Exte
 	/**
 	 * Report current cpu time.
 	 */
-	synchronized void reportCpuTime(int iteration, String where, String what, int taskId) {
+	void reportCpuTime(int iteration, String where, String what, int taskId) {
+		reportCpuTime(iteration, where, what, taskId, System.currentTimeMillis());
+	}
+
+	/**
+	 * Report cpu time that has been measured at {@code time}.
+	 */
+	synchronized void reportCpuTime(int iteration, String where, String what, int taskId, long time) {
 		writer.append(cpuTime, new String[]{String.valueOf(iteration),
 				where,
 				what,
-				String.valueOf(System.currentTimeMillis()),
+				String.valueOf(time),
 				String.valueOf(taskId)});
 	}
 
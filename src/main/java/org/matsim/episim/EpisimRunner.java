@@ -97,6 +97,9 @@ public final class EpisimRunner {
 
 		handler.init(replay.getEvents());
 
+		// events are held in compact form by the handler from now on
+		replay.clearEvents();
+
 		Path output = Path.of(config.controler().getOutputDirectory());
 
 		int iteration = 1;
@@ -159,10 +162,6 @@ public final class EpisimRunner {
 	 */
 	public void updateEvents(Map<DayOfWeek, List<Event>> events) {
 
-		ReplayHandler replay = replayProvider.get();
-
-		replay.setEvents(events);
-
 		InfectionEventHandler handler = handlerProvider.get();
 		handler.updateEvents(events);
 	}
@@ -149,9 +149,7 @@ public final class EpisimUtils {
 	 */
 	public static long getSeed(SplittableRandom rnd) {
 		try {
-			Field field = rnd.getClass().getDeclaredField("seed");
-			field.setAccessible(true);
-			return (long) field.get(rnd);
+			return (long) SeedField.get().get(rnd);
 		} catch (ReflectiveOperationException e) {
 			throw new IllegalStateException("Could not extract seed", e);
 		}
@@ -162,14 +160,47 @@ public final class EpisimUtils {
 	 */
 	public static void setSeed(SplittableRandom rnd, long seed) {
 		try {
-			Field field = rnd.getClass().getDeclaredField("seed");
-			field.setAccessible(true);
-			field.set(rnd, seed);
+			SeedField.get().set(rnd, seed);
 		} catch (ReflectiveOperationException e) {
 			throw new IllegalStateException("Could not extract seed", e);
 		}
 	}
 
+	/**
+	 * Holds the seed field, which is looked up only once because seeds are exchanged frequently.
+	 */
+	private static final class SeedField {
+
+		private static final Field FIELD = lookup();
+
+		private static Field lookup() {
+			try {
+				Field field = SplittableRandom.class.getDeclaredField("seed");
+				field.setAccessible(true);
+				return field;
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return null;
+			}
+		}
+
+		private static Field get() throws NoSuchFieldException {
+			if (FIELD == null)
+				throw new NoSuchFieldException("seed");
+
+			return FIELD;
+		}
+	}
+
+	/**
+	 * Mixes the bits of a long value, as done by the finalizer of {@link SplittableRandom}.
+	 * Can be used to derive independent seeds.
+	 */
+	public static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
 	/**
 	 * Find the current valid entry from a map of dates and values.
 	 *
@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.episim;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.vehicles.Vehicle;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Events of one file, with all ids and activity types stored as indices into string tables. Event types are the codes of {@link EventStore}.
+ * <p>
+ * Creating a buffer does not create any {@link Id}. Ids are only interned in {@link #toEvents(Scenario)}, so that
+ * files can be read concurrently while the id indices still only depend on the order in which buffers are converted.
+ * Instances are not thread-safe.
+ */
+final class EventBuffer {
+
+	private String[] persons = new String[0];
+	private String[] containers = new String[0];
+	private String[] links = new String[0];
+	private String[] actTypes = new String[0];
+
+	private final ByteArrayList types = new ByteArrayList();
+	private final DoubleArrayList times = new DoubleArrayList();
+	private final IntArrayList personIdx = new IntArrayList();
+	private final IntArrayList containerIdx = new IntArrayList();
+	private final IntArrayList linkIdx = new IntArrayList();
+	private final IntArrayList actTypeIdx = new IntArrayList();
+	private final DoubleArrayList xs = new DoubleArrayList();
+	private final DoubleArrayList ys = new DoubleArrayList();
+
+	/**
+	 * Add an event with indices into the tables, -1 if an attribute is not present.
+	 *
+	 * @param x x coordinate, {@link Double#NaN} if not present
+	 */
+	void add(byte type, double time, int person, int container, int link, int actType, double x, double y) {
+		types.add(type);
+		times.add(time);
+		personIdx.add(person);
+		containerIdx.add(container);
+		linkIdx.add(link);
+		actTypeIdx.add(actType);
+		xs.add(x);
+		ys.add(y);
+	}
+
+	/**
+	 * Set the string tables the indices of the events refer to.
+	 */
+	void setTables(String[] persons, String[] containers, String[] links, String[] actTypes) {
+		this.persons = persons;
+		this.containers = containers;
+		this.links = links;
+		this.actTypes = actTypes;
+	}
+
+	int size() {
+		return times.size();
+	}
+
+	/**
+	 * Create the event objects. Ids are interned in order of the events.
+	 *
+	 * @param scenario optional scenario, used to add missing coordinates of activities the same way as {@link ReplayHandler}
+	 */
+	List<Event> toEvents(@Nullable Scenario scenario) {
+
+		List<Id<Person>> personIds = nulls(persons.length);
+		List<Id<Link>> linkIds = nulls(links.length);
+		// Facility and vehicle ids share one table, the id type is only known from the event type
+		List<Id<ActivityFacility>> facilities = nulls(containers.length);
+		List<Id<Vehicle>> vehicles = nulls(containers.length);
+
+		String[] acts = actTypes.clone();
+		for (int i = 0; i < acts.length; i++)
+			acts[i] = acts[i].intern();
+
+		List<Event> events = new ArrayList<>(size());
+
+		for (int i = 0; i < size(); i++) {
+
+			double time = times.getDouble(i);
+			Id<Person> person = getId(personIds, persons, personIdx.getInt(i), Person.class);
+
+			switch (types.getByte(i)) {
+				case EventStore.ACTIVITY_START: {
+					Id<Link> linkId = getId(linkIds, links, linkIdx.getInt(i), Link.class);
+					Id<ActivityFacility> facility = getId(facilities, containers, containerIdx.getInt(i), ActivityFacility.class);
+
+					Coord coord = Double.isNaN(xs.getDouble(i)) ? null : new Coord(xs.getDouble(i), ys.getDouble(i));
+					if (coord == null && scenario != null && scenario.getNetwork().getLinks().containsKey(linkId)) {
+						coord = scenario.getNetwork().getLinks().get(linkId).getToNode().getCoord();
+					}
+
+					events.add(new ActivityStartEvent(time, person, linkId, facility, acts[actTypeIdx.getInt(i)], coord));
+					break;
+				}
+				case EventStore.ACTIVITY_END: {
+					Id<Link> linkId = getId(linkIds, links, linkIdx.getInt(i), Link.class);
+					Id<ActivityFacility> facility = getId(facilities, containers, containerIdx.getInt(i), ActivityFacility.class);
+					events.add(new ActivityEndEvent(time, person, linkId, facility, acts[actTypeIdx.getInt(i)]));
+					break;
+				}
+				case EventStore.ENTERS_VEHICLE:
+					events.add(new PersonEntersVehicleEvent(time, person, getId(vehicles, containers, containerIdx.getInt(i), Vehicle.class)));
+					break;
+				case EventStore.LEAVES_VEHICLE:
+					events.add(new PersonLeavesVehicleEvent(time, person, getId(vehicles, containers, containerIdx.getInt(i), Vehicle.class)));
+					break;
+				default:
+					throw new IllegalStateException("Unknown event type " + types.getByte(i));
+			}
+		}
+
+		return events;
+	}
+
+	private static <T> List<Id<T>> nulls(int n) {
+		return new ArrayList<>(Collections.nCopies(n, null));
+	}
+
+	private static <T> Id<T> getId(List<Id<T>> ids, String[] table, int idx, Class<T> type) {
+		if (idx < 0)
+			return null;
+
+		Id<T> id = ids.get(idx);
+		if (id == null) {
+			id = Id.create(table[idx], type);
+			ids.set(idx, id);
+		}
+		return id;
+	}
+}
@@ -0,0 +1,404 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.episim;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.*;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary cache for the preprocessed input events of {@link ReplayHandler}.
+ * <p>
+ * The cache stores the events after filtering, interning and facility id resolution, so that reading them back
+ * only requires to memory-map the file and to reconstruct the event objects. Ids and activity types are stored once
+ * in string tables, events are stored as fixed size records referencing these tables.
+ * <p>
+ * A cache is only valid for the {@link EpisimConfigGroup.FacilitiesHandling} it was created with and will be ignored
+ * when the source file has been changed afterwards.
+ */
+public final class EventCache {
+
+	/**
+	 * File ending appended to the path of the original event file.
+	 */
+	public static final String SUFFIX = ".cache";
+
+	private static final Logger log = LogManager.getLogger(EventCache.class);
+
+	private static final int MAGIC = 0x45504543;
+	private static final int VERSION = 1;
+
+	/**
+	 * type, time, person, container, link, activity type, x, y
+	 */
+	private static final int RECORD_SIZE = 1 + 8 + 4 + 4 + 4 + 4 + 8 + 8;
+
+	private EventCache() {
+	}
+
+	/**
+	 * Path of the cache file belonging to an event file. Returns null if the input is not a local path.
+	 */
+	@Nullable
+	public static Path getCachePath(String eventFile) {
+		try {
+			return Path.of(eventFile + SUFFIX);
+		} catch (InvalidPathException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Check whether {@code cache} can be used in place of {@code eventFile}.
+	 */
+	public static boolean isValid(Path cache, String eventFile, EpisimConfigGroup.FacilitiesHandling handling) throws IOException {
+
+		if (!Files.exists(cache))
+			return false;
+
+		try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 32));
+			Header header = Header.read(buf);
+
+			if (header == null) {
+				log.warn("Event cache {} has unknown format, it will be ignored.", cache);
+				return false;
+			}
+
+			if (header.handling != handling.ordinal()) {
+				log.warn("Event cache {} was created with different facilities handling, it will be ignored.", cache);
+				return false;
+			}
+
+			Path source = getSourcePath(eventFile);
+			if (source != null && Files.exists(source) &&
+					(Files.size(source) != header.sourceSize || Files.getLastModifiedTime(source).toMillis() != header.sourceModified)) {
+				log.warn("Event cache {} is outdated, it will be ignored.", cache);
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Write preprocessed events to the cache.
+	 *
+	 * @param events    events as returned by {@link ReplayHandler#parseEvents(EpisimConfigGroup, Scenario, String)}
+	 * @param eventFile source file of the events, used for staleness check
+	 */
+	public static void write(Path cache, List<Event> events, EpisimConfigGroup.FacilitiesHandling handling, String eventFile) throws IOException {
+
+		StringTable persons = new StringTable();
+		StringTable containers = new StringTable();
+		StringTable links = new StringTable();
+		StringTable actTypes = new StringTable();
+
+		for (Event event : events) {
+			if (event instanceof ActivityStartEvent) {
+				ActivityStartEvent e = (ActivityStartEvent) event;
+				persons.add(e.getPersonId());
+				containers.add(e.getFacilityId());
+				links.add(e.getLinkId());
+				actTypes.add(e.getActType());
+			} else if (event instanceof ActivityEndEvent) {
+				ActivityEndEvent e = (ActivityEndEvent) event;
+				persons.add(e.getPersonId());
+				containers.add(e.getFacilityId());
+				links.add(e.getLinkId());
+				actTypes.add(e.getActType());
+			} else if (event instanceof PersonEntersVehicleEvent) {
+				persons.add(((PersonEntersVehicleEvent) event).getPersonId());
+				containers.add(((PersonEntersVehicleEvent) event).getVehicleId());
+			} else if (event instanceof PersonLeavesVehicleEvent) {
+				persons.add(((PersonLeavesVehicleEvent) event).getPersonId());
+				containers.add(((PersonLeavesVehicleEvent) event).getVehicleId());
+			}
+		}
+
+		long sourceSize = -1;
+		long sourceModified = -1;
+		Path source = getSourcePath(eventFile);
+		if (source != null && Files.exists(source)) {
+			sourceSize = Files.size(source);
+			sourceModified = Files.getLastModifiedTime(source).toMillis();
+		}
+
+		// write to temporary file first, so that an interrupted run does not leave a truncated cache behind
+		Path tmp = Files.createTempFile(cache.toAbsolutePath().getParent(), "events", ".tmp");
+
+		int n = 0;
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1024 * 1024))) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(handling.ordinal());
+			out.writeLong(sourceSize);
+			out.writeLong(sourceModified);
+
+			persons.write(out);
+			containers.write(out);
+			links.write(out);
+			actTypes.write(out);
+
+			out.writeInt((int) events.stream().filter(EventCache::isSupported).count());
+
+			for (Event event : events) {
+				if (event instanceof ActivityStartEvent) {
+					ActivityStartEvent e = (ActivityStartEvent) event;
+					Coord coord = e.getCoord();
+					writeRecord(out, EventStore.ACTIVITY_START, e.getTime(), persons.get(e.getPersonId()), containers.get(e.getFacilityId()),
+							links.get(e.getLinkId()), actTypes.get(e.getActType()),
+							coord != null ? coord.getX() : Double.NaN, coord != null ? coord.getY() : Double.NaN);
+				} else if (event instanceof ActivityEndEvent) {
+					ActivityEndEvent e = (ActivityEndEvent) event;
+					writeRecord(out, EventStore.ACTIVITY_END, e.getTime(), persons.get(e.getPersonId()), containers.get(e.getFacilityId()),
+							links.get(e.getLinkId()), actTypes.get(e.getActType()), Double.NaN, Double.NaN);
+				} else if (event instanceof PersonEntersVehicleEvent) {
+					PersonEntersVehicleEvent e = (PersonEntersVehicleEvent) event;
+					writeRecord(out, EventStore.ENTERS_VEHICLE, e.getTime(), persons.get(e.getPersonId()), containers.get(e.getVehicleId()),
+							-1, -1, Double.NaN, Double.NaN);
+				} else if (event instanceof PersonLeavesVehicleEvent) {
+					PersonLeavesVehicleEvent e = (PersonLeavesVehicleEvent) event;
+					writeRecord(out, EventStore.LEAVES_VEHICLE, e.getTime(), persons.get(e.getPersonId()), containers.get(e.getVehicleId()),
+							-1, -1, Double.NaN, Double.NaN);
+				} else
+					continue;
+
+				n++;
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+
+		Files.move(tmp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		if (n != events.size())
+			log.warn("Skipped {} events of unsupported type while writing {}", events.size() - n, cache);
+
+		log.info("Wrote {} events to cache {}", n, cache);
+	}
+
+	/**
+	 * Read all events from the cache file.
+	 *
+	 * @param scenario optional scenario, used to add missing coordinates of activities the same way as {@link ReplayHandler}
+	 * @throws IOException if the cache can not be read or is malformed
+	 */
+	public static List<Event> read(Path cache, @Nullable Scenario scenario) throws IOException {
+		return readBuffer(cache).toEvents(scenario);
+	}
+
+	/**
+	 * Read the cache file without creating any ids.
+	 *
+	 * @throws IOException if the cache can not be read or is malformed
+	 */
+	static EventBuffer readBuffer(Path cache) throws IOException {
+		try {
+			return readEvents(cache);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new IOException("Malformed event cache: " + cache, e);
+		}
+	}
+
+	private static EventBuffer readEvents(Path cache) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+
+			long size = channel.size();
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+
+			Header header = Header.read(buf);
+			if (header == null)
+				throw new IOException("Unknown event cache format: " + cache);
+
+			String[] persons = readStrings(buf);
+			String[] containers = readStrings(buf);
+			String[] links = readStrings(buf);
+			String[] actTypes = readStrings(buf);
+
+			int numEvents = buf.getInt();
+			long offset = buf.position();
+			long recordsPerChunk = Integer.MAX_VALUE / RECORD_SIZE;
+
+			if (numEvents < 0 || offset + (long) numEvents * RECORD_SIZE != size)
+				throw new IOException("Event cache has wrong size: " + cache);
+
+			EventBuffer events = new EventBuffer();
+			events.setTables(persons, containers, links, actTypes);
+
+			for (long start = 0; start < numEvents; start += recordsPerChunk) {
+
+				int records = (int) Math.min(recordsPerChunk, numEvents - start);
+				MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset + start * RECORD_SIZE, (long) records * RECORD_SIZE);
+
+				for (int i = 0; i < records; i++) {
+
+					byte type = chunk.get();
+					double time = chunk.getDouble();
+					int person = chunk.getInt();
+					int container = chunk.getInt();
+					int link = chunk.getInt();
+					int actType = chunk.getInt();
+					double x = chunk.getDouble();
+					double y = chunk.getDouble();
+
+					if (type < EventStore.ACTIVITY_START || type > EventStore.LEAVES_VEHICLE)
+						throw new IOException("Unknown event type " + type + " in cache " + cache);
+
+					boolean activity = type == EventStore.ACTIVITY_START || type == EventStore.ACTIVITY_END;
+					if (person < 0 || person >= persons.length || container < -1 || container >= containers.length ||
+							link < -1 || link >= links.length || actType >= actTypes.length || (activity && actType < 0))
+						throw new IOException("Invalid record " + (start + i) + " in cache " + cache);
+
+					events.add(type, time, person, container, link, actType, x, y);
+				}
+			}
+
+			return events;
+		}
+	}
+
+	private static boolean isSupported(Event event) {
+		return event instanceof ActivityStartEvent || event instanceof ActivityEndEvent ||
+				event instanceof PersonEntersVehicleEvent || event instanceof PersonLeavesVehicleEvent;
+	}
+
+	@Nullable
+	private static Path getSourcePath(String eventFile) {
+		try {
+			return Path.of(eventFile);
+		} catch (InvalidPathException e) {
+			return null;
+		}
+	}
+
+	private static void writeRecord(DataOutputStream out, byte type, double time, int person, int container, int link, int actType,
+									double x, double y) throws IOException {
+		out.writeByte(type);
+		out.writeDouble(time);
+		out.writeInt(person);
+		out.writeInt(container);
+		out.writeInt(link);
+		out.writeInt(actType);
+		out.writeDouble(x);
+		out.writeDouble(y);
+	}
+
+	private static String[] readStrings(MappedByteBuffer buf) {
+		int n = buf.getInt();
+		if (n < 0 || n > buf.remaining() / 4)
+			throw new BufferUnderflowException();
+
+		String[] strings = new String[n];
+		for (int i = 0; i < n; i++) {
+			int length = buf.getInt();
+			if (length < 0 || length > buf.remaining())
+				throw new BufferUnderflowException();
+
+			byte[] bytes = new byte[length];
+			buf.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return strings;
+	}
+
+	/**
+	 * Meta information at the start of the cache file.
+	 */
+	private static final class Header {
+
+		private int handling;
+		private long sourceSize;
+		private long sourceModified;
+
+		@Nullable
+		private static Header read(MappedByteBuffer buf) {
+			if (buf.remaining() < 28 || buf.getInt() != MAGIC || buf.getInt() != VERSION)
+				return null;
+
+			Header header = new Header();
+			header.handling = buf.getInt();
+			header.sourceSize = buf.getLong();
+			header.sourceModified = buf.getLong();
+			return header;
+		}
+	}
+
+	/**
+	 * Assigns consecutive indices to strings and keeps their insertion order.
+	 */
+	private static final class StringTable {
+
+		private final Object2IntMap<String> index = new Object2IntOpenHashMap<>();
+		private final List<String> strings = new ArrayList<>();
+
+		private StringTable() {
+			index.defaultReturnValue(-1);
+		}
+
+		private void add(@Nullable Object value) {
+			if (value == null)
+				return;
+
+			String s = value.toString();
+			if (!index.containsKey(s)) {
+				index.put(s, strings.size());
+				strings.add(s);
+			}
+		}
+
+		private int get(@Nullable Object value) {
+			return value == null ? -1 : index.getInt(value.toString());
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeInt(strings.size());
+			for (String s : strings) {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+	}
+}
@@ -0,0 +1,389 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.episim;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+import org.matsim.api.core.v01.events.Event;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compact, column-wise storage of the events of one day as they are replayed by the {@link TrajectoryHandler}.
+ * Persons, containers and activity types are referenced by their index into tables of this store.
+ * <p>
+ * The original {@link Event} objects are only retained if they are needed for writing the input events.
+ */
+final class EventStore {
+
+	/**
+	 * Event types, which are also used by {@link EventBuffer} and written to {@link EventCache} files.
+	 */
+	static final byte ACTIVITY_START = 0;
+	static final byte ACTIVITY_END = 1;
+	static final byte ENTERS_VEHICLE = 2;
+	static final byte LEAVES_VEHICLE = 3;
+
+	private final byte[] type;
+	private final int[] person;
+	private final int[] container;
+	private final double[] time;
+	private final short[] activity;
+
+	private final EpisimPerson[] persons;
+	private final EpisimContainer<?>[] containers;
+	private final String[] actTypes;
+
+	@Nullable
+	private final Event[] events;
+
+	/**
+	 * Index of the matching start or end event of the same person in the same container, only present after {@link #linkEvents()}.
+	 */
+	@Nullable
+	private int[] match;
+
+	private EventStore(Builder builder) {
+		this.type = builder.type.toByteArray();
+		this.person = builder.person.toIntArray();
+		this.container = builder.container.toIntArray();
+		this.time = builder.time.toDoubleArray();
+		this.activity = builder.activity.toShortArray();
+		this.persons = builder.persons.toArray(new EpisimPerson[0]);
+		this.containers = builder.containers.toArray(new EpisimContainer<?>[0]);
+		this.actTypes = builder.actTypes.toArray(new String[0]);
+		this.events = builder.events != null ? builder.events.toArray(new Event[0]) : null;
+	}
+
+	/**
+	 * @param localIndex position of each parent event within its partition, only needed if events are linked
+	 */
+	private EventStore(EventStore parent, int[] indices, @Nullable int[] localIndex) {
+		int n = indices.length;
+		this.type = new byte[n];
+		this.person = new int[n];
+		this.container = new int[n];
+		this.time = new double[n];
+		this.activity = new short[n];
+		this.events = parent.events != null ? new Event[n] : null;
+
+		for (int i = 0; i < n; i++) {
+			int idx = indices[i];
+			type[i] = parent.type[idx];
+			person[i] = parent.person[idx];
+			container[i] = parent.container[idx];
+			time[i] = parent.time[idx];
+			activity[i] = parent.activity[idx];
+			if (events != null)
+				events[i] = parent.events[idx];
+		}
+
+		// matching events always belong to the same container and therefore the same partition
+		if (parent.match != null) {
+			this.match = new int[n];
+			for (int i = 0; i < n; i++) {
+				int m = parent.match[indices[i]];
+				match[i] = m >= 0 ? localIndex[m] : -1;
+			}
+		}
+
+		// tables are shared with the parent
+		this.persons = parent.persons;
+		this.containers = parent.containers;
+		this.actTypes = parent.actTypes;
+	}
+
+	/**
+	 * Split the events by the task id of their container. The order of events is retained within each partition.
+	 * This needs to be called again whenever task ids are changed.
+	 *
+	 * @param numTasks number of tasks, all task ids of the containers must be smaller
+	 * @return array with the events for each task id
+	 */
+	EventStore[] partition(int numTasks) {
+		return partition(numTasks, EpisimContainer::getTaskId);
+	}
+
+	/**
+	 * Split the events by an arbitrary assignment of their containers. The order of events is retained within each partition.
+	 *
+	 * @param n          number of partitions
+	 * @param assignment partition of a container, must be smaller than {@code n}
+	 */
+	EventStore[] partition(int n, ToIntFunction<EpisimContainer<?>> assignment) {
+
+		if (n == 1)
+			return new EventStore[]{this};
+
+		int[][] indices = split(n, i -> assignment.applyAsInt(containers[container[i]]));
+
+		int[] localIndex = null;
+		if (match != null) {
+			localIndex = new int[size()];
+			for (int[] partition : indices) {
+				for (int i = 0; i < partition.length; i++)
+					localIndex[partition[i]] = i;
+			}
+		}
+
+		EventStore[] result = new EventStore[n];
+		for (int i = 0; i < n; i++) {
+			result[i] = new EventStore(this, indices[i], localIndex);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Indices of the events grouped by their person, in the same order as they are stored.
+	 *
+	 * @param n          number of groups
+	 * @param assignment group of a person, must be smaller than {@code n}
+	 */
+	int[][] groupByPerson(int n, ToIntFunction<EpisimPerson> assignment) {
+		return split(n, i -> assignment.applyAsInt(persons[person[i]]));
+	}
+
+	private int[][] split(int n, IntUnaryOperator group) {
+
+		int size = size();
+		int[] groups = new int[size];
+		int[] counts = new int[n];
+		for (int i = 0; i < size; i++) {
+			groups[i] = group.applyAsInt(i);
+			counts[groups[i]]++;
+		}
+
+		int[][] indices = new int[n][];
+		for (int i = 0; i < n; i++) {
+			indices[i] = new int[counts[i]];
+			counts[i] = 0;
+		}
+
+		for (int i = 0; i < size; i++) {
+			int g = groups[i];
+			indices[g][counts[g]++] = i;
+		}
+
+		return indices;
+	}
+
+	/**
+	 * Link each activity start or vehicle enter event with the following end or leave event of the same person in the same container.
+	 * Partitions created afterwards retain these links.
+	 */
+	void linkEvents() {
+
+		int[] m = new int[size()];
+		Arrays.fill(m, -1);
+
+		Long2IntMap open = new Long2IntOpenHashMap();
+		open.defaultReturnValue(-1);
+
+		for (int i = 0; i < size(); i++) {
+			long key = ((long) person[i] << 32) | container[i];
+			if (type[i] == ACTIVITY_START || type[i] == ENTERS_VEHICLE) {
+				open.put(key, i);
+			} else {
+				int j = open.remove(key);
+				if (j >= 0) {
+					m[i] = j;
+					m[j] = i;
+				}
+			}
+		}
+
+		this.match = m;
+	}
+
+	/**
+	 * Index of the matching event of the same person and container, or -1 if the person entered before or leaves after this day.
+	 *
+	 * @see #linkEvents()
+	 */
+	int getMatch(int i) {
+		if (match == null)
+			throw new IllegalStateException("Events are not linked.");
+
+		return match[i];
+	}
+
+	/**
+	 * Number of stored events.
+	 */
+	int size() {
+		return type.length;
+	}
+
+	/**
+	 * Type of the event, one of the constants of this class.
+	 */
+	byte getType(int i) {
+		return type[i];
+	}
+
+	/**
+	 * Original (uncorrected) time of the event.
+	 */
+	double getTime(int i) {
+		return time[i];
+	}
+
+	EpisimPerson getPerson(int i) {
+		return persons[person[i]];
+	}
+
+	/**
+	 * Index of the person into the table of this store.
+	 */
+	int getPersonIndex(int i) {
+		return person[i];
+	}
+
+	/**
+	 * Index of the container into the table of this store.
+	 */
+	int getContainerIndex(int i) {
+		return container[i];
+	}
+
+	/**
+	 * Size of the container table, which is shared with all partitions.
+	 */
+	int getNumContainers() {
+		return containers.length;
+	}
+
+	/**
+	 * Facility or vehicle, depending on the event type.
+	 */
+	EpisimContainer<?> getContainer(int i) {
+		return containers[container[i]];
+	}
+
+	InfectionEventHandler.EpisimFacility getFacility(int i) {
+		return (InfectionEventHandler.EpisimFacility) containers[container[i]];
+	}
+
+	InfectionEventHandler.EpisimVehicle getVehicle(int i) {
+		return (InfectionEventHandler.EpisimVehicle) containers[container[i]];
+	}
+
+	/**
+	 * Activity type of activity events, null otherwise.
+	 */
+	@Nullable
+	String getActType(int i) {
+		short idx = activity[i];
+		return idx >= 0 ? actTypes[idx] : null;
+	}
+
+	/**
+	 * Original event object, only available when events are retained.
+	 */
+	@Nullable
+	Event getEvent(int i) {
+		return events != null ? events[i] : null;
+	}
+
+	/**
+	 * Builds an {@link EventStore} event by event.
+	 */
+	static final class Builder {
+
+		private final ByteArrayList type = new ByteArrayList();
+		private final IntArrayList person = new IntArrayList();
+		private final IntArrayList container = new IntArrayList();
+		private final DoubleArrayList time = new DoubleArrayList();
+		private final ShortArrayList activity = new ShortArrayList();
+
+		private final Reference2IntMap<EpisimPerson> personIndex = new Reference2IntOpenHashMap<>();
+		private final Reference2IntMap<EpisimContainer<?>> containerIndex = new Reference2IntOpenHashMap<>();
+		private final Object2IntMap<String> actTypeIndex = new Object2IntOpenHashMap<>();
+
+		private final List<EpisimPerson> persons = new ArrayList<>();
+		private final List<EpisimContainer<?>> containers = new ArrayList<>();
+		private final List<String> actTypes = new ArrayList<>();
+
+		@Nullable
+		private final List<Event> events;
+
+		/**
+		 * @param retainEvents whether the original event objects should be kept
+		 */
+		Builder(boolean retainEvents) {
+			this.events = retainEvents ? new ArrayList<>() : null;
+		}
+
+		/**
+		 * Add an event, events need to be added in order of time.
+		 *
+		 * @param actType activity type for activity events, otherwise null
+		 */
+		Builder add(Event event, byte eventType, EpisimPerson p, EpisimContainer<?> c, @Nullable String actType) {
+
+			type.add(eventType);
+			person.add(personIndex.computeIfAbsent(p, k -> {
+				persons.add(p);
+				return persons.size() - 1;
+			}));
+			container.add(containerIndex.computeIfAbsent(c, k -> {
+				containers.add(c);
+				return containers.size() - 1;
+			}));
+			time.add(event.getTime());
+
+			if (actType != null) {
+				int idx = actTypeIndex.computeIfAbsent(actType, k -> {
+					if (actTypes.size() > Short.MAX_VALUE)
+						throw new IllegalStateException("Too many distinct activity types. Activity types may not be .intern() Strings");
+
+					actTypes.add(actType);
+					return actTypes.size() - 1;
+				});
+				activity.add((short) idx);
+			} else
+				activity.add((short) -1);
+
+			if (events != null)
+				events.add(event);
+
+			return this;
+		}
+
+		EventStore build() {
+			return new EventStore(this);
+		}
+	}
+}
@@ -21,10 +21,13 @@
 package org.matsim.episim;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.inject.*;
 import com.google.inject.name.Names;
 import com.google.inject.util.Types;
 import com.typesafe.config.ConfigFactory;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -57,7 +60,11 @@ import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.matsim.episim.EpisimUtils.*;
 
@@ -88,6 +95,11 @@ public final class InfectionEventHandler implements Externalizable {
 
 	private static final Logger log = LogManager.getLogger(InfectionEventHandler.class);
 
+	/**
+	 * Number of persons that are updated together with {@link EpisimConfigGroup.PersonUpdates#parallel}.
+	 */
+	private static final int PERSON_BLOCK_SIZE = 4096;
+
 	/**
 	 * Injector instance.
 	 */
@@ -98,18 +110,48 @@ public final class InfectionEventHandler implements Externalizable {
 	 */
 	private final List<TrajectoryHandler> handlers = new ArrayList<>();
 
+	/**
+	 * Workers that update persons in parallel, only used with {@link EpisimConfigGroup.PersonUpdates#parallel}.
+	 */
+	private final List<PersonWorker> personWorkers = new ArrayList<>();
+
+	/**
+	 * All persons in fixed order, which are distributed in blocks to the {@link #personWorkers}. Updated whenever persons are added.
+	 */
+	private EpisimPerson[] persons;
+
 	private final Map<Id<Person>, EpisimPerson> personMap = new IdMap<>(Person.class);
 	private final Map<Id<Vehicle>, EpisimVehicle> vehicleMap = new IdMap<>(Vehicle.class);
 	private final Map<Id<ActivityFacility>, EpisimFacility> pseudoFacilityMap = new IdMap<>(ActivityFacility.class,
 			// the number of facility ids is not known beforehand, so we use this as initial estimate
 			(int) (Id.getNumberOfIds(Vehicle.class) * 1.3));
 
+	/**
+	 * Traced contacts of all persons.
+	 */
+	private final ContactTracingStore tracingStore = new ContactTracingStore();
+
 	/**
 	 * Maps activity type to its parameter.
 	 * This can be an identity map because the strings are canonicalized by the {@link ReplayHandler}.
 	 */
 	private final Map<String, EpisimConfigGroup.InfectionParams> paramsMap = new IdentityHashMap<>();
 
+	/**
+	 * Compact representation of the events for each day, partitioned by the task id of their container.
+	 */
+	private final Map<DayOfWeek, EventStore[]> eventStores = new EnumMap<>(DayOfWeek.class);
+
+	/**
+	 * Co-presence of persons for each partition of {@link #eventStores}, only used with {@link EpisimConfigGroup.ContactEngine#coPresence}.
+	 */
+	private final Map<DayOfWeek, CoPresenceGraph[]> coPresence = new EnumMap<>(DayOfWeek.class);
+
+	/**
+	 * Complete events for each day, only retained if containers are rebalanced and events need to be partitioned again.
+	 */
+	private final Map<DayOfWeek, EventStore> allEvents = new EnumMap<>(DayOfWeek.class);
+
 	/**
 	 * Holds the current restrictions in place for all the activities.
 	 */
@@ -237,6 +279,8 @@ public final class InfectionEventHandler implements Externalizable {
 	 */
 	void init(Map<DayOfWeek, List<Event>> events) {
 
+		episimConfig.checkConsistency(config);
+
 		iteration = 0;
 
 		updateEvents(events);
@@ -275,6 +319,7 @@ public final class InfectionEventHandler implements Externalizable {
 		}
 
 		createTrajectoryHandlers();
+		createPersonWorkers();
 
 		init = true;
 	}
@@ -295,128 +340,114 @@ public final class InfectionEventHandler implements Externalizable {
 		Map<EpisimContainer<?>, Object2IntMap<String>> activityUsage = new HashMap<>();
 
 		Map<List<Event>, DayOfWeek> sameDay = new IdentityHashMap<>(7);
+		Map<DayOfWeek, EventStore> stores = new EnumMap<>(DayOfWeek.class);
 
-		this.personMap.values().forEach(EpisimPerson::resetTrajectory);
+		// original events are only needed when they are written again
+		boolean retainEvents = episimConfig.getWriteEvents() == EpisimConfigGroup.WriteEvents.input ||
+				episimConfig.getWriteEvents() == EpisimConfigGroup.WriteEvents.all;
 
+		// Days are processed in parallel where possible, duplicated days are only scanned once
+		Map<DayOfWeek, DayScan> scans = new EnumMap<>(DayOfWeek.class);
 		for (Map.Entry<DayOfWeek, List<Event>> entry : events.entrySet()) {
+			if (sameDay.putIfAbsent(entry.getValue(), entry.getKey()) == null)
+				scans.put(entry.getKey(), new DayScan(entry.getValue()));
+		}
 
-			DayOfWeek day = entry.getKey();
-			List<Event> eventsForDay = entry.getValue();
-
-			if (sameDay.containsKey(eventsForDay)) {
-				DayOfWeek same = sameDay.get(eventsForDay);
-				log.info("Init Day {} same as {}", day, same);
-				this.personMap.values().forEach(p -> p.duplicateDay(day, same));
-				continue;
-			}
-
-			log.info("Init day {}", day);
-
-			this.personMap.values().forEach(p -> p.setStartOfDay(day));
-
-			for (Event event : eventsForDay) {
+		runTasks(scans.values().stream().map(s -> (Runnable) () -> s.collectIds()).collect(Collectors.toList()));
 
-				EpisimPerson person = null;
-				EpisimFacility facility = null;
+		this.personMap.values().forEach(EpisimPerson::resetTrajectory);
 
-				// Add all person and facilities
-				if (event instanceof HasPersonId) {
-					person = this.personMap.computeIfAbsent(((HasPersonId) event).getPersonId(), this::createPerson);
+		paramsMap.computeIfAbsent("home", this::createActivityType);
 
-					// If a person was added late, previous days are initialized at home
-					for (int i = 1; i < day.getValue(); i++) {
-						DayOfWeek it = DayOfWeek.of(i);
-						if (!person.hasActivity(it)) {
-							person.setStartOfDay(it);
-							Id<ActivityFacility> homeId = createHomeFacility(person).getContainerId();
+		// Persons are created sequentially in order of appearance, so that random numbers are drawn in the same order
+		// The position of the day on which a person was created is stored, already existing persons have 0
+		List<DayOfWeek> days = new ArrayList<>(events.keySet());
+		Int2IntMap created = new Int2IntOpenHashMap();
+		for (int i = 0; i < days.size(); i++) {
 
-							person.setFirstFacilityId(homeId, it);
-							person.setLastFacilityId(homeId, it, true);
+			DayOfWeek day = days.get(i);
+			DayScan scan = scans.get(day);
+			if (scan == null) {
+				log.info("Init Day {} same as {}", day, sameDay.get(events.get(day)));
+				continue;
+			}
 
-							EpisimConfigGroup.InfectionParams home = paramsMap.computeIfAbsent("home", this::createActivityType);
-							person.addToTrajectory(0, home, homeId);
-							person.setEndOfDay(it);
-							person.setStartOfDay(it.plus(1));
-						}
-					}
-				}
+			log.info("Init day {}", day);
 
-				if (event instanceof HasFacilityId) {
-					Id<ActivityFacility> episimFacilityId = ((HasFacilityId) event).getFacilityId();
-					facility = this.pseudoFacilityMap.computeIfAbsent(episimFacilityId, EpisimFacility::new);
+			int position = i + 1;
+			for (Id<Person> id : scan.persons) {
+				if (!personMap.containsKey(id)) {
+					personMap.put(id, createPerson(id));
+					created.put(id.index(), position);
 				}
+			}
 
-				if (event instanceof ActivityStartEvent) {
-
-					String actType = ((ActivityStartEvent) event).getActType();
-
-					EpisimConfigGroup.InfectionParams act = paramsMap.computeIfAbsent(actType, this::createActivityType);
-					totalUsers.mergeInt(facility, 1, Integer::sum);
-
-					Id<ActivityFacility> facilityId = ((ActivityStartEvent) event).getFacilityId();
-					person.addToTrajectory(event.getTime(), act, facilityId);
-
-					person.setLastFacilityId(facility.getContainerId(), day, true);
-
-				} else if (event instanceof ActivityEndEvent) {
-					String actType = ((ActivityEndEvent) event).getActType();
+			scan.facilities.forEach(id -> pseudoFacilityMap.computeIfAbsent(id, EpisimFacility::new));
+			scan.vehicles.forEach(id -> vehicleMap.computeIfAbsent(id, EpisimVehicle::new));
+			scan.actTypes.forEach(actType -> paramsMap.computeIfAbsent(actType, this::createActivityType));
+			scan.numPersons = personMap.size();
+		}
 
-					EpisimConfigGroup.InfectionParams act = paramsMap.computeIfAbsent(actType, this::createActivityType);
-					activityUsage.computeIfAbsent(facility, k -> new Object2IntOpenHashMap<>()).mergeInt(actType, 1, Integer::sum);
+		// Trajectories are independent for each person, persons are distributed to groups that are processed in parallel
+		int numGroups = episimConfig.getThreads();
+		List<List<EpisimPerson>> groups = new ArrayList<>(numGroups);
+		for (int i = 0; i < numGroups; i++) {
+			groups.add(new ArrayList<>());
+		}
 
-					// if this is the first event, container is saved and trajectory element created
-					if (!person.hasActivity(day)) {
-						Id<ActivityFacility> facilityId = ((ActivityEndEvent) event).getFacilityId();
-						person.addToTrajectory(0, act, facilityId);
-						person.setFirstFacilityId(facility.getContainerId(), day);
-					}
+		for (EpisimPerson person : personMap.values()) {
+			groups.get(person.getPersonId().index() % numGroups).add(person);
+		}
 
-					// person is not in this container anymore
-					person.setLastFacilityId(facility.getContainerId(), day, false);
-				}
+		runTasks(scans.values().stream().map(s -> (Runnable) () -> buildStore(s, retainEvents, numGroups)).collect(Collectors.toList()));
 
-				if (event instanceof PersonEntersVehicleEvent) {
-					EpisimVehicle vehicle = this.vehicleMap.computeIfAbsent(((PersonEntersVehicleEvent) event).getVehicleId(), EpisimVehicle::new);
+		// merge statistics of all days in order
+		for (Map.Entry<DayOfWeek, DayScan> entry : scans.entrySet()) {
 
-					maxGroupSize.mergeInt(vehicle, groupSize.mergeInt(vehicle, 1, Integer::sum), Integer::max);
-					totalUsers.mergeInt(vehicle, 1, Integer::sum);
+			DayScan scan = entry.getValue();
+			stores.put(entry.getKey(), scan.store);
 
-					person.setStaysInContainer(day, false);
+			scan.totalUsers.forEach((k, v) -> totalUsers.mergeInt(k, v, Integer::sum));
+			scan.activityUsage.forEach((k, v) -> {
+				Object2IntMap<String> usage = activityUsage.computeIfAbsent(k, c -> new Object2IntOpenHashMap<>());
+				v.forEach((actType, n) -> usage.mergeInt(actType, n, Integer::sum));
+			});
 
-				} else if (event instanceof PersonLeavesVehicleEvent) {
-					EpisimVehicle vehicle = this.vehicleMap.computeIfAbsent(((PersonLeavesVehicleEvent) event).getVehicleId(), EpisimVehicle::new);
-					groupSize.mergeInt(vehicle, -1, Integer::sum);
-					activityUsage.computeIfAbsent(vehicle, k -> new Object2IntOpenHashMap<>()).mergeInt("tr", 1, Integer::sum);
+			// group size of vehicles is carried over from the previous day
+			scan.maxGroupSize.forEach((k, v) -> maxGroupSize.mergeInt(k, groupSize.getInt(k) + v, Integer::max));
+			scan.groupSize.forEach((k, v) -> groupSize.mergeInt(k, v, Integer::sum));
+		}
 
-					// vehicle don't count as end of day containers
-					person.setStaysInContainer(day, false);
-				}
-			}
+		for (Map.Entry<DayOfWeek, List<Event>> entry : events.entrySet()) {
+			DayOfWeek day = entry.getKey();
+			stores.putIfAbsent(day, stores.get(sameDay.get(entry.getValue())));
+		}
 
-			int cnt = 0;
-			for (EpisimPerson person : this.personMap.values()) {
+		// Ids of home facilities are created before the trajectories are built concurrently, so that id indices do not depend on thread scheduling
+		personMap.values().forEach(InfectionEventHandler::getHomeFacilityId);
 
-				// person that didn't move will be put at home the whole day
-				if (!person.hasActivity(day)) {
-					person.setStartOfDay(day);
-					EpisimConfigGroup.InfectionParams home = paramsMap.computeIfAbsent("home", this::createActivityType);
-					EpisimFacility facility = createHomeFacility(person);
-					person.setFirstFacilityId(facility.getContainerId(), day);
-					person.setLastFacilityId(facility.getContainerId(), day, true);
-					person.addToTrajectory(0, home, facility.getContainerId());
-					cnt++;
-				}
+		List<int[]> stationary = new ArrayList<>(Collections.nCopies(numGroups, null));
+		runTasks(IntStream.range(0, numGroups)
+				.mapToObj(g -> (Runnable) () -> stationary.set(g, buildTrajectories(days, scans, sameDay, events, groups.get(g), created, g)))
+				.collect(Collectors.toList()));
 
-				person.setEndOfDay(day);
-			}
+		createHomeFacilities();
 
-			log.info("Persons stationary on {}: {} ({}%)", day, cnt, cnt * 100.0 / personMap.size());
+		for (int i = 0; i < days.size(); i++) {
+			DayScan scan = scans.get(days.get(i));
+			if (scan == null)
+				continue;
 
-			sameDay.put(eventsForDay, day);
+			int idx = i;
+			int cnt = stationary.stream().mapToInt(s -> s[idx]).sum();
+			log.info("Persons stationary on {}: {} ({}%)", days.get(i), cnt, cnt * 100.0 / scan.numPersons);
 		}
 
 		insertStationaryAgents();
 
+		// persons updated in parallel need to include the ones created by these events
+		persons = personMap.values().toArray(new EpisimPerson[0]);
+
 		// Add missing facilities, with only stationary agents
 		for (EpisimFacility facility : pseudoFacilityMap.values()) {
 			if (!activityUsage.containsKey(facility)) {
@@ -428,69 +459,29 @@ public final class InfectionEventHandler implements Externalizable {
 
 		double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), 0, iteration);
 
-		// Go through each day again to compute max group sizes
-		sameDay.clear();
-		for (Map.Entry<DayOfWeek, List<Event>> entry : events.entrySet()) {
-
-			DayOfWeek day = entry.getKey();
-			List<Event> eventsForDay = entry.getValue();
-
-			if (sameDay.containsKey(eventsForDay)) {
-				continue;
-			}
-
-			// Simulate the behaviour for unclosed trajectories
-			for (EpisimPerson person : personMap.values()) {
-				Id<ActivityFacility> first = person.getFirstFacilityId(day);
-				Id<ActivityFacility> last = person.getLastFacilityId(day.minus(1));
-
-				if (person.getStaysInContainer(day.minus(1))) {
-
-					if (pseudoFacilityMap.get(last).containsPerson(person))
-						pseudoFacilityMap.get(last).removePerson(person);
-
-					if (!pseudoFacilityMap.get(first).containsPerson(person))
-						pseudoFacilityMap.get(first).addPerson(person, now, person.getFirstActivity(day));
-
-				} else {
-					if (!pseudoFacilityMap.get(first).containsPerson(person))
-						pseudoFacilityMap.get(first).addPerson(person, now, person.getFirstActivity(day));
-				}
-			}
-
-			pseudoFacilityMap.forEach((k, v) -> maxGroupSize.mergeInt(v, v.getPersons().size(), Integer::max));
-
-			for (Event event : eventsForDay) {
-				if (event instanceof HasFacilityId && event instanceof HasPersonId) {
-					Id<ActivityFacility> episimFacilityId = ((HasFacilityId) event).getFacilityId();
-					EpisimFacility facility = pseudoFacilityMap.get(episimFacilityId);
-					EpisimPerson person = this.personMap.get(((HasPersonId) event).getPersonId());
-
-					// happens on filtered events that are not relevant
-					if (facility == null)
-						continue;
-
-					if (event instanceof ActivityStartEvent) {
-						if (!facility.containsPerson(person))
-							facility.addPerson(person, now, person.getActivity(day, event.getTime()));
-
-						maxGroupSize.mergeInt(facility, facility.getPersons().size(), Integer::max);
-					} else if (event instanceof ActivityEndEvent) {
-						if (facility.containsPerson(person))
-							facility.removePerson(person);
-					}
-				}
-			}
-
-			sameDay.put(eventsForDay, day);
+		// the replay of all days is skipped if the same input has been processed before
+		String cacheKey = TopologyCache.getKey(episimConfig, config);
+		Path cache = cacheKey != null ? TopologyCache.getPath(episimConfig, cacheKey) : null;
+		Object2IntMap<EpisimContainer<?>> facilitySizes = cache != null ? TopologyCache.read(cache, cacheKey, pseudoFacilityMap) : null;
+
+		if (facilitySizes != null)
+			log.info("Read max group sizes from cache {}", cache);
+		else {
+			facilitySizes = computeMaxGroupSize(stores, now);
+			if (cache != null)
+				TopologyCache.write(cache, cacheKey, facilitySizes);
 		}
 
+		facilitySizes.forEach((k, v) -> maxGroupSize.mergeInt(k, v, Integer::max));
+
 		pseudoFacilityMap.values().forEach(EpisimContainer::clearPersons);
 
-		// Put persons into their correct initial container
+		// Put persons into their correct initial container, with co-presence only persons that also start the next day there are kept
 		DayOfWeek startDay = EpisimUtils.getDayOfWeek(episimConfig, iteration);
+		boolean coPresence = episimConfig.getContactEngine() == EpisimConfigGroup.ContactEngine.coPresence;
 		for (EpisimPerson person : personMap.values()) {
-			if (person.getStaysInContainer(startDay)) {
+			if (person.getStaysInContainer(startDay) &&
+					(!coPresence || person.getLastFacilityId(startDay).equals(person.getFirstFacilityId(startDay.plus(1))))) {
 				EpisimFacility facility = pseudoFacilityMap.get(person.getLastFacilityId(startDay));
 				facility.addPerson(person, now, person.getLastActivity(startDay));
 			}
@@ -553,6 +544,367 @@ public final class InfectionEventHandler implements Externalizable {
 
 		balanceContainersByLoad(estimatedLoad);
 
+		allEvents.clear();
+		if (episimConfig.getRebalanceInterval() > 0)
+			allEvents.putAll(stores);
+
+		partitionEvents(stores);
+	}
+
+	/**
+	 * Split the events after the task ids are known, each task will only see events of its own containers.
+	 */
+	private void partitionEvents(Map<DayOfWeek, EventStore> stores) {
+		Map<EventStore, EventStore[]> partitions = new IdentityHashMap<>(7);
+		eventStores.clear();
+		stores.forEach((day, store) -> eventStores.put(day, partitions.computeIfAbsent(store, k -> k.partition(episimConfig.getNumReplayTasks()))));
+
+		coPresence.clear();
+		if (episimConfig.getContactEngine() == EpisimConfigGroup.ContactEngine.coPresence) {
+			// days with the same events and the same events on the next day have the same co-presence
+			Map<EventStore[], Map<EventStore[], CoPresenceGraph[]>> graphs = new IdentityHashMap<>(7);
+			eventStores.forEach((day, parts) -> coPresence.put(day, graphs.computeIfAbsent(parts, k -> new IdentityHashMap<>(7))
+					.computeIfAbsent(eventStores.get(day.plus(1)), k -> createCoPresence(day, parts))));
+
+			Set<CoPresenceGraph[]> distinct = Collections.newSetFromMap(new IdentityHashMap<>(7));
+			distinct.addAll(coPresence.values());
+			long edges = distinct.stream().flatMap(Arrays::stream).mapToLong(CoPresenceGraph::getNumEdges).sum();
+			log.info("Computed co-presence of {} distinct days with {} pairs", distinct.size(), edges);
+		}
+	}
+
+	/**
+	 * Compute the co-presence of each partition of a day. Persons start the day in the partition of their first facility.
+	 */
+	private CoPresenceGraph[] createCoPresence(DayOfWeek day, EventStore[] parts) {
+
+		List<List<EpisimPerson>> persons = new ArrayList<>(parts.length);
+		for (int i = 0; i < parts.length; i++)
+			persons.add(new ArrayList<>());
+
+		for (EpisimPerson person : personMap.values())
+			persons.get(pseudoFacilityMap.get(person.getFirstFacilityId(day)).getTaskId()).add(person);
+
+		DayOfWeek next = day.plus(1);
+		return IntStream.range(0, parts.length).parallel()
+				.mapToObj(i -> new CoPresenceGraph(parts[i], persons.get(i), p -> pseudoFacilityMap.get(p.getFirstFacilityId(day)),
+						(p, c) -> c instanceof EpisimFacility && p.getStaysInContainer(day) && c.getContainerId().equals(p.getLastFacilityId(day))
+								&& p.getLastFacilityId(day).equals(p.getFirstFacilityId(next))))
+				.toArray(CoPresenceGraph[]::new);
+	}
+
+	/**
+	 * Redistribute the containers to the tasks, using the processing time measured since the last rebalancing as load.
+	 * <p>
+	 * This happens between two days. Persons staying in a container overnight are kept by the container itself, so that
+	 * the new task will remove them or let them stay at the start of the next day, the same way the previous task would have done.
+	 */
+	private void rebalanceContainers() {
+
+		int numThreads = episimConfig.getNumReplayTasks();
+		double[] before = new double[numThreads];
+
+		List<Tuple<EpisimContainer<?>, Double>> measuredLoad = new ArrayList<>(pseudoFacilityMap.size() + vehicleMap.size());
+		for (EpisimContainer<?> container : Iterables.concat(pseudoFacilityMap.values(), vehicleMap.values())) {
+			double cost = container.getCost();
+			before[container.getTaskId()] += cost;
+			measuredLoad.add(Tuple.of(container, cost));
+			container.resetCost();
+		}
+
+		balanceContainersByLoad(measuredLoad);
+
+		double[] after = new double[numThreads];
+		for (Tuple<EpisimContainer<?>, Double> t : measuredLoad) {
+			after[t.getFirst().getTaskId()] += t.getSecond();
+		}
+
+		log.info("Rebalanced containers, max/mean load of threads changed from {} to {}", imbalance(before), imbalance(after));
+
+		partitionEvents(allEvents);
+	}
+
+	/**
+	 * Ratio of the maximum to the mean load.
+	 */
+	private static double imbalance(double[] load) {
+		double mean = Arrays.stream(load).average().orElse(0);
+		return mean > 0 ? Arrays.stream(load).max().orElse(0) / mean : 1;
+	}
+
+	/**
+	 * Create the events store of a day and count container usage.
+	 * All persons, containers and activity types of the day need to exist already.
+	 */
+	private void buildStore(DayScan scan, boolean retainEvents, int numGroups) {
+
+		EventStore.Builder store = new EventStore.Builder(retainEvents);
+
+		for (Event event : scan.events) {
+
+			if (event instanceof ActivityStartEvent) {
+				ActivityStartEvent e = (ActivityStartEvent) event;
+				EpisimFacility facility = this.pseudoFacilityMap.get(e.getFacilityId());
+
+				scan.totalUsers.mergeInt(facility, 1, Integer::sum);
+				store.add(event, EventStore.ACTIVITY_START, personMap.get(e.getPersonId()), facility, e.getActType());
+
+			} else if (event instanceof ActivityEndEvent) {
+				ActivityEndEvent e = (ActivityEndEvent) event;
+				EpisimFacility facility = this.pseudoFacilityMap.get(e.getFacilityId());
+
+				// linked map to retain the order in which activity types are added
+				scan.activityUsage.computeIfAbsent(facility, k -> new Object2IntLinkedOpenHashMap<>()).mergeInt(e.getActType(), 1, Integer::sum);
+				store.add(event, EventStore.ACTIVITY_END, personMap.get(e.getPersonId()), facility, e.getActType());
+			}
+
+			if (event instanceof PersonEntersVehicleEvent) {
+				PersonEntersVehicleEvent e = (PersonEntersVehicleEvent) event;
+				EpisimVehicle vehicle = this.vehicleMap.get(e.getVehicleId());
+
+				// group size relative to the start of the day
+				scan.maxGroupSize.mergeInt(vehicle, scan.groupSize.mergeInt(vehicle, 1, Integer::sum), Integer::max);
+				scan.totalUsers.mergeInt(vehicle, 1, Integer::sum);
+				store.add(event, EventStore.ENTERS_VEHICLE, personMap.get(e.getPersonId()), vehicle, null);
+
+			} else if (event instanceof PersonLeavesVehicleEvent) {
+				PersonLeavesVehicleEvent e = (PersonLeavesVehicleEvent) event;
+				EpisimVehicle vehicle = this.vehicleMap.get(e.getVehicleId());
+
+				scan.groupSize.mergeInt(vehicle, -1, Integer::sum);
+				scan.activityUsage.computeIfAbsent(vehicle, k -> new Object2IntLinkedOpenHashMap<>()).mergeInt("tr", 1, Integer::sum);
+				store.add(event, EventStore.LEAVES_VEHICLE, personMap.get(e.getPersonId()), vehicle, null);
+			}
+		}
+
+		scan.store = store.build();
+
+		if (episimConfig.getContagiousOptimization() == EpisimConfigGroup.ContagiousOptimization.skipContainers)
+			scan.store.linkEvents();
+		scan.eventsByPerson = scan.store.groupByPerson(numGroups, p -> p.getPersonId().index() % numGroups);
+
+		scan.appearing = new ArrayList<>(numGroups);
+		for (int i = 0; i < numGroups; i++) {
+			scan.appearing.add(new ArrayList<>());
+		}
+
+		for (Id<Person> id : scan.persons) {
+			scan.appearing.get(id.index() % numGroups).add(personMap.get(id));
+		}
+	}
+
+	/**
+	 * Build the trajectories of one group of persons for all days.
+	 *
+	 * @param created position of the day on which each person was created
+	 * @return number of stationary persons for each day position
+	 */
+	private int[] buildTrajectories(List<DayOfWeek> days, Map<DayOfWeek, DayScan> scans, Map<List<Event>, DayOfWeek> sameDay,
+									Map<DayOfWeek, List<Event>> events, List<EpisimPerson> persons, Int2IntMap created, int group) {
+
+		int[] stationary = new int[days.size()];
+
+		for (int pos = 1; pos <= days.size(); pos++) {
+
+			DayOfWeek day = days.get(pos - 1);
+			DayScan scan = scans.get(day);
+
+			if (scan == null) {
+				DayOfWeek same = sameDay.get(events.get(day));
+				for (EpisimPerson person : persons) {
+					if (created.get(person.getPersonId().index()) < pos)
+						person.duplicateDay(day, same);
+				}
+				continue;
+			}
+
+			for (EpisimPerson person : persons) {
+				if (created.get(person.getPersonId().index()) < pos)
+					person.setStartOfDay(day);
+			}
+
+			// If a person was added late, previous days are initialized at home
+			for (EpisimPerson person : scan.appearing.get(group)) {
+				for (int i = 1; i < day.getValue(); i++) {
+					DayOfWeek it = DayOfWeek.of(i);
+					if (!person.hasActivity(it)) {
+						person.setStartOfDay(it);
+						Id<ActivityFacility> homeId = getHomeFacilityId(person);
+
+						person.setFirstFacilityId(homeId, it);
+						person.setLastFacilityId(homeId, it, true);
+
+						person.addToTrajectory(0, paramsMap.get("home"), homeId);
+						person.setEndOfDay(it);
+						person.setStartOfDay(it.plus(1));
+					}
+				}
+			}
+
+			EventStore store = scan.store;
+			for (int i : scan.eventsByPerson[group]) {
+
+				EpisimPerson person = store.getPerson(i);
+				switch (store.getType(i)) {
+					case EventStore.ACTIVITY_START: {
+						EpisimConfigGroup.InfectionParams act = paramsMap.get(store.getActType(i));
+						Id<ActivityFacility> facilityId = store.getFacility(i).getContainerId();
+
+						person.addToTrajectory(store.getTime(i), act, facilityId);
+						person.setLastFacilityId(facilityId, day, true);
+						break;
+					}
+					case EventStore.ACTIVITY_END: {
+						EpisimConfigGroup.InfectionParams act = paramsMap.get(store.getActType(i));
+						Id<ActivityFacility> facilityId = store.getFacility(i).getContainerId();
+
+						// if this is the first event, container is saved and trajectory element created
+						if (!person.hasActivity(day)) {
+							person.addToTrajectory(0, act, facilityId);
+							person.setFirstFacilityId(facilityId, day);
+						}
+
+						// person is not in this container anymore
+						person.setLastFacilityId(facilityId, day, false);
+						break;
+					}
+					default:
+						// vehicle don't count as end of day containers
+						person.setStaysInContainer(day, false);
+				}
+			}
+
+			for (EpisimPerson person : persons) {
+
+				if (created.get(person.getPersonId().index()) > pos)
+					continue;
+
+				// person that didn't move will be put at home the whole day
+				if (!person.hasActivity(day)) {
+					person.setStartOfDay(day);
+					Id<ActivityFacility> homeId = getHomeFacilityId(person);
+					person.setFirstFacilityId(homeId, day);
+					person.setLastFacilityId(homeId, day, true);
+					person.addToTrajectory(0, paramsMap.get("home"), homeId);
+					stationary[pos - 1]++;
+				}
+
+				person.setEndOfDay(day);
+			}
+		}
+
+		return stationary;
+	}
+
+	/**
+	 * Go through each day again to compute max group sizes.
+	 * Containers are independent of each other, so that they are split into groups which are processed in parallel.
+	 *
+	 * @return max group size of facilities, ordered by group
+	 */
+	private Object2IntMap<EpisimContainer<?>> computeMaxGroupSize(Map<DayOfWeek, EventStore> stores, double now) {
+
+		int numGroups = episimConfig.getThreads();
+		ToIntFunction<EpisimContainer<?>> assignment = c -> c.getContainerId().index() % numGroups;
+
+		Map<EventStore, EventStore[]> partitions = new IdentityHashMap<>(7);
+		stores.values().forEach(s -> partitions.computeIfAbsent(s, k -> k.partition(numGroups, assignment)));
+
+		List<Object2IntMap<EpisimContainer<?>>> results = new ArrayList<>(Collections.nCopies(numGroups, null));
+		runTasks(IntStream.range(0, numGroups)
+				.mapToObj(g -> (Runnable) () -> results.set(g, computeMaxGroupSize(stores, partitions, assignment, g, now)))
+				.collect(Collectors.toList()));
+
+		Object2IntMap<EpisimContainer<?>> maxGroupSize = new Object2IntLinkedOpenHashMap<>();
+		results.forEach(maxGroupSize::putAll);
+
+		return maxGroupSize;
+	}
+
+	/**
+	 * Compute max group sizes for one group of facilities.
+	 */
+	private Object2IntMap<EpisimContainer<?>> computeMaxGroupSize(Map<DayOfWeek, EventStore> stores, Map<EventStore, EventStore[]> partitions,
+																  ToIntFunction<EpisimContainer<?>> assignment, int group, double now) {
+
+		Object2IntMap<EpisimContainer<?>> maxGroupSize = new Object2IntOpenHashMap<>();
+
+		Set<EventStore> sameStore = Collections.newSetFromMap(new IdentityHashMap<>(7));
+		for (Map.Entry<DayOfWeek, EventStore> entry : stores.entrySet()) {
+
+			DayOfWeek day = entry.getKey();
+
+			if (!sameStore.add(entry.getValue())) {
+				continue;
+			}
+
+			EventStore eventsForDay = partitions.get(entry.getValue())[group];
+
+			// Simulate the behaviour for unclosed trajectories
+			for (EpisimPerson person : personMap.values()) {
+				EpisimFacility first = pseudoFacilityMap.get(person.getFirstFacilityId(day));
+
+				if (person.getStaysInContainer(day.minus(1))) {
+					EpisimFacility last = pseudoFacilityMap.get(person.getLastFacilityId(day.minus(1)));
+
+					if (assignment.applyAsInt(last) == group && last.containsPerson(person))
+						last.removePerson(person);
+				}
+
+				if (assignment.applyAsInt(first) == group && !first.containsPerson(person))
+					first.addPerson(person, now, person.getFirstActivity(day));
+			}
+
+			for (EpisimFacility facility : pseudoFacilityMap.values()) {
+				if (assignment.applyAsInt(facility) == group)
+					maxGroupSize.mergeInt(facility, facility.getPersons().size(), Integer::max);
+			}
+
+			for (int i = 0; i < eventsForDay.size(); i++) {
+				byte type = eventsForDay.getType(i);
+				if (type == EventStore.ACTIVITY_START) {
+					EpisimFacility facility = eventsForDay.getFacility(i);
+					EpisimPerson person = eventsForDay.getPerson(i);
+
+					if (!facility.containsPerson(person))
+						facility.addPerson(person, now, person.getActivity(day, eventsForDay.getTime(i)));
+
+					maxGroupSize.mergeInt(facility, facility.getPersons().size(), Integer::max);
+				} else if (type == EventStore.ACTIVITY_END) {
+					EpisimFacility facility = eventsForDay.getFacility(i);
+					EpisimPerson person = eventsForDay.getPerson(i);
+
+					if (facility.containsPerson(person))
+						facility.removePerson(person);
+				}
+			}
+		}
+
+		return maxGroupSize;
+	}
+
+	/**
+	 * Run tasks on the executor and wait for all of them. Tasks are run directly when only one thread is used.
+	 */
+	private void runTasks(List<Runnable> tasks) {
+
+		if (tasks.size() <= 1 || episimConfig.getThreads() == 1) {
+			tasks.forEach(Runnable::run);
+			return;
+		}
+
+		CompletableFuture<?>[] futures = tasks.stream()
+				.map(t -> CompletableFuture.runAsync(t, executor))
+				.toArray(CompletableFuture[]::new);
+
+		try {
+			CompletableFuture.allOf(futures).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+
+			throw e;
+		}
 	}
 
 	/**
@@ -588,25 +940,23 @@ public final class InfectionEventHandler implements Externalizable {
 						thenComparing(t -> t.getFirst().getContainerId().toString());
 		Collections.sort(estimatedLoad, loadComperator);
 
-		final int numThreads = episimConfig.getThreads();
+		final int numThreads = episimConfig.getNumReplayTasks();
 		// the overall load of the containers assigned to the thread/taskId
-		final Double[] loadPerThread = new Double[numThreads];
+		final double[] loadPerThread = new double[numThreads];
+
+		// thread/taskId with the minimal load first, ties are resolved by the lower taskId
+		PriorityQueue<Integer> queue = new PriorityQueue<>(numThreads,
+				Comparator.<Integer>comparingDouble(i -> loadPerThread[i]).thenComparingInt(i -> i));
 		for (int i = 0; i < numThreads; i++)
-			loadPerThread[i] = 0.0;
+			queue.add(i);
 
 		for (Tuple<EpisimContainer<?>, Double> tuple : estimatedLoad) {
-			// search for the thread/taskId with the minimal load
-			int useThread = 0;
-			Double minLoad = loadPerThread[0];
-			for (int i = 1; i < numThreads; i++) {
-				if (loadPerThread[i] < minLoad) {
-					useThread = i;
-					minLoad = loadPerThread[i];
-				}
-			}
+			int useThread = queue.poll();
+
 			// add the load to this thread and set the taskId for the container
 			loadPerThread[useThread] += tuple.getSecond();
 			tuple.getFirst().setTaskId(useThread);
+			queue.add(useThread);
 		}
 	}
 
@@ -618,7 +968,7 @@ public final class InfectionEventHandler implements Externalizable {
 	private void balanceContainersByHash(List<Tuple<EpisimContainer<?>, Double>> estimatedLoad) {
 		for (Tuple<EpisimContainer<?>, Double> tuple : estimatedLoad) {
 			final EpisimContainer<?> container = tuple.getFirst();
-			final int useThread = Math.abs(container.getContainerId().hashCode()) % episimConfig.getThreads();
+			final int useThread = Math.abs(container.getContainerId().hashCode()) % episimConfig.getNumReplayTasks();
 			container.setTaskId(useThread);
 		}
 	}
@@ -628,15 +978,18 @@ public final class InfectionEventHandler implements Externalizable {
 	 */
 	protected void createTrajectoryHandlers() {
 
-		log.info("Initializing {} trajectory handlers", episimConfig.getThreads());
+		log.info("Initializing {} trajectory handlers", episimConfig.getNumReplayTasks());
 
-		for (int i = 0; i < episimConfig.getThreads(); i++) {
+		for (int i = 0; i < episimConfig.getNumReplayTasks(); i++) {
+
+			// container streams must not draw from the global random number generator for each handler
+			long seed = episimConfig.getRandomStreams() == EpisimConfigGroup.RandomStreams.container ? i : rnd.nextLong();
 
 			AbstractModule childModule = new AbstractModule() {
 				@Override
 				protected void configure() {
 					// the seed state is set later by this class
-					bind(SplittableRandom.class).toInstance(new SplittableRandom(rnd.nextLong()));
+					bind(SplittableRandom.class).toInstance(new SplittableRandom(seed));
 					bind(TrajectoryHandler.class);
 
 					TypeLiteral<Map<Id<Person>, EpisimPerson>> pMap = new TypeLiteral<>() {
@@ -662,6 +1015,93 @@ public final class InfectionEventHandler implements Externalizable {
 	}
 
 
+	/**
+	 * Create workers for updating persons in parallel, each with its own random stream and participation model.
+	 */
+	private void createPersonWorkers() {
+
+		if (episimConfig.getPersonUpdates() != EpisimConfigGroup.PersonUpdates.parallel)
+			return;
+
+		for (int i = 0; i < episimConfig.getThreads(); i++) {
+
+			// the seed is set for each person
+			SplittableRandom workerRnd = new SplittableRandom(i);
+
+			AbstractModule childModule = new AbstractModule() {
+				@Override
+				protected void configure() {
+					bind(SplittableRandom.class).toInstance(workerRnd);
+				}
+			};
+
+			Injector inj = GuiceUtils.createCopiedInjector(injector, List.of(childModule), ActivityParticipationModel.class);
+			personWorkers.add(new PersonWorker(workerRnd, inj.getInstance(ActivityParticipationModel.class)));
+		}
+	}
+
+	/**
+	 * Run an action for all blocks of {@link #persons} on the person workers. The blocks do not depend on the number of threads.
+	 */
+	private void runPersonBlocks(PersonBlockAction action) {
+
+		int blocks = numPersonBlocks();
+		AtomicInteger next = new AtomicInteger();
+
+		List<Runnable> tasks = new ArrayList<>();
+		for (PersonWorker worker : personWorkers) {
+			tasks.add(() -> {
+				int block;
+				while ((block = next.getAndIncrement()) < blocks) {
+					int from = block * PERSON_BLOCK_SIZE;
+					action.apply(worker, block, from, Math.min(from + PERSON_BLOCK_SIZE, persons.length));
+				}
+			});
+		}
+
+		runTasks(tasks);
+	}
+
+	private int numPersonBlocks() {
+		return (persons.length + PERSON_BLOCK_SIZE - 1) / PERSON_BLOCK_SIZE;
+	}
+
+	/**
+	 * Update antibodies of all persons in parallel. Antibodies are summed up per block and the blocks are merged in order.
+	 */
+	private void updateAntibodies(int iteration, double[] antibodies) {
+
+		double[][] sums = new double[numPersonBlocks()][];
+
+		runPersonBlocks((worker, block, from, to) -> {
+			double[] sum = new double[antibodies.length];
+			for (int i = from; i < to; i++) {
+				antibodyModel.updateAntibodies(persons[i], iteration);
+				addAntibodies(persons[i], sum);
+			}
+			sums[block] = sum;
+		});
+
+		for (double[] sum : sums) {
+			for (int i = 0; i < sum.length; i++) {
+				antibodies[i] += sum[i];
+			}
+		}
+	}
+
+	/**
+	 * Add antibodies of a person to the sum by {@link VirusStrain#ordinal()}. Persons that never had antibodies are skipped.
+	 */
+	private static void addAntibodies(EpisimPerson person, double[] sum) {
+		if (!person.hasAntibodies())
+			return;
+
+		VirusStrain[] strains = VirusStrain.values();
+		for (int i = 0; i < strains.length; i++) {
+			sum[i] += person.getAntibodies(strains[i]);
+		}
+	}
+
 	/**
 	 * Create a new person and lookup attributes from scenario.
 	 */
@@ -677,20 +1117,36 @@ public final class InfectionEventHandler implements Externalizable {
 
 		boolean traceable = localRnd.nextDouble() < tracingConfig.getEquipmentRate();
 
-		return new EpisimPerson(id, attrs, traceable, reporting);
+		return new EpisimPerson(id, attrs, traceable, reporting, tracingStore);
 	}
 
 	/**
-	 * Creates the home facility of a person.
+	 * Id of the facility where a person stays when it has no activities. The facility itself is only created by {@link #createHomeFacilities()}.
 	 */
-	private EpisimFacility createHomeFacility(EpisimPerson person) {
+	private static Id<ActivityFacility> getHomeFacilityId(EpisimPerson person) {
 		String homeId = (String) person.getAttributes().getAttribute("homeId");
 		if (homeId == null)
 			homeId = "home_of_" + person.getPersonId().toString();
 
-		Id<ActivityFacility> facilityId = Id.create(homeId, ActivityFacility.class);
-		// add facility that might not exist yet
-		return this.pseudoFacilityMap.computeIfAbsent(facilityId, EpisimFacility::new);
+		return Id.create(homeId, ActivityFacility.class);
+	}
+
+	/**
+	 * Create the home facilities used in the trajectories of stationary persons, sequentially in person order.
+	 */
+	private void createHomeFacilities() {
+		for (EpisimPerson person : personMap.values()) {
+			Id<ActivityFacility> homeId = getHomeFacilityId(person);
+			if (pseudoFacilityMap.containsKey(homeId))
+				continue;
+
+			for (DayOfWeek day : DayOfWeek.values()) {
+				if (homeId.equals(person.getFirstFacilityId(day)) || homeId.equals(person.getLastFacilityId(day))) {
+					pseudoFacilityMap.put(homeId, new EpisimFacility(homeId));
+					break;
+				}
+			}
+		}
 	}
 
 	private EpisimConfigGroup.InfectionParams createActivityType(String actType) {
@@ -756,6 +1212,10 @@ public final class InfectionEventHandler implements Externalizable {
 		if (iteration == 1)
 			reporting.reportStart(episimConfig.getStartDate(), episimConfig.getStartFromImmunization());
 
+		int interval = episimConfig.getRebalanceInterval();
+		if (interval > 0 && episimConfig.getNumReplayTasks() > 1 && iteration > 1 && (iteration - 1) % interval == 0)
+			rebalanceContainers();
+
 		double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), 0, iteration);
 		LocalDate date = episimConfig.getStartDate().plusDays(iteration - 1);
 
@@ -763,15 +1223,25 @@ public final class InfectionEventHandler implements Externalizable {
 		progressionModel.setIteration(iteration);
 		progressionModel.beforeStateUpdates(personMap, iteration, this.report);
 
-		// Sum of antibodies
-		Object2DoubleMap<VirusStrain> antibodies = new Object2DoubleOpenHashMap<>();
+		// Sum of antibodies by strain
+		double[] antibodies = new double[VirusStrain.values().length];
 
-		for (EpisimPerson person : personMap.values()) {
-			progressionModel.updateState(person, iteration);
-			antibodyModel.updateAntibodies(person, iteration);
+		boolean parallelUpdates = episimConfig.getPersonUpdates() == EpisimConfigGroup.PersonUpdates.parallel;
+
+		if (parallelUpdates) {
 
-			for (Object2DoubleMap.Entry<VirusStrain> kv : person.getAntibodies().object2DoubleEntrySet()) {
-				antibodies.mergeDouble(kv.getKey(), kv.getDoubleValue(), Double::sum);
+			// progression shares the next transitions and the tracing capacity of all persons
+			for (EpisimPerson person : persons) {
+				progressionModel.updateState(person, iteration);
+			}
+
+			updateAntibodies(iteration, antibodies);
+
+		} else {
+			for (EpisimPerson person : personMap.values()) {
+				progressionModel.updateState(person, iteration);
+				antibodyModel.updateAntibodies(person, iteration);
+				addAntibodies(person, antibodies);
 			}
 		}
 
@@ -812,14 +1282,15 @@ public final class InfectionEventHandler implements Externalizable {
 		reporting.reportCpuTime(iteration, "HandleInfections", "finished", -1);
 
 		reporting.reportCpuTime(iteration, "Reporting", "start", -1);
-		Map<String, EpisimReporting.InfectionReport> reports = reporting.createReports(personMap.values(), iteration);
+		Object2DoubleMap<String> timeUse = new Object2DoubleOpenHashMap<>();
+		Map<String, EpisimReporting.InfectionReport> reports = reporting.createReports(personMap.values(), iteration, timeUse);
 
 		reporting.reportAntibodyLevel(antibodies, personMap.size(), iteration);
 		this.report = reports.get("total");
 
 		reporting.reporting(reports, iteration, report.date);
 		reporting.reportCpuTime(iteration, "ReportTimeUse", "start", -2);
-		reporting.reportTimeUse(restrictions.keySet(), personMap.values(), iteration, report.date);
+		reporting.reportTimeUse(restrictions.keySet(), timeUse, personMap.size(), iteration, report.date);
 		reporting.reportCpuTime(iteration, "ReportTimeUse", "finished", -2);
 		reporting.reportDiseaseImport(infected, iteration, report.date);
 
@@ -833,21 +1304,53 @@ public final class InfectionEventHandler implements Externalizable {
 
 		activityParticipationModel.setRestrictionsForIteration(iteration, im);
 
-		for (EpisimPerson person : personMap.values()) {
-			// update person activity participation for the day
-			activityParticipationModel.updateParticipation(person, person.getActivityParticipation(),
-					person.getStartOfDay(day), person.getActivities(day));
+		if (parallelUpdates) {
 
-			testingModel.performTesting(person, iteration);
+			long personSeed = rnd.nextLong();
+			personWorkers.forEach(w -> w.participationModel().setRestrictionsForIteration(iteration, im));
 
-			activityParticipationModel.applyQuarantine(person, person.getActivityParticipation(), person.getStartOfDay(day), person.getActivities(day));
+			runPersonBlocks((worker, block, from, to) -> {
+				for (int i = from; i < to; i++) {
+					EpisimPerson person = persons[i];
+					worker.useStream(personSeed, person);
+					worker.participationModel().updateParticipation(person, person.getActivityParticipation(),
+							person.getStartOfDay(day), person.getActivities(day));
+				}
+			});
 
+			// testing shares the capacity of all persons
+			for (EpisimPerson person : persons) {
+				testingModel.performTesting(person, iteration);
+			}
+
+			runPersonBlocks((worker, block, from, to) -> {
+				for (int i = from; i < to; i++) {
+					EpisimPerson person = persons[i];
+					worker.participationModel().applyQuarantine(person, person.getActivityParticipation(),
+							person.getStartOfDay(day), person.getActivities(day));
+				}
+			});
+
+		} else {
+			for (EpisimPerson person : personMap.values()) {
+				// update person activity participation for the day
+				activityParticipationModel.updateParticipation(person, person.getActivityParticipation(),
+						person.getStartOfDay(day), person.getActivities(day));
+
+				testingModel.performTesting(person, iteration);
+
+				activityParticipationModel.applyQuarantine(person, person.getActivityParticipation(), person.getStartOfDay(day), person.getActivities(day));
+
+			}
 		}
 		reporting.reportCpuTime(iteration, "TestingModel", "finished", -1);
 
+		// with container streams, all handlers use the same seed, so that the number of draws does not depend on the threads
+		boolean containerStreams = episimConfig.getRandomStreams() == EpisimConfigGroup.RandomStreams.container;
+		long seed = containerStreams ? rnd.nextLong() : 0;
 		handlers.forEach(h -> {
 			h.setRestrictionsForIteration(iteration, im);
-			EpisimUtils.setSeed(h.getRnd(), rnd.nextLong());
+			h.setSeed(containerStreams ? seed : rnd.nextLong());
 		});
 
 		reporting.reportRestrictions(restrictions, iteration, report.date);
@@ -914,6 +1417,9 @@ public final class InfectionEventHandler implements Externalizable {
 			restrictions.put(act, Restriction.fromConfig(ConfigFactory.parseString(readChars(in))));
 		}
 
+		// persons restore their traced contacts
+		tracingStore.clear();
+
 		int persons = in.readInt();
 		for (int i = 0; i < persons; i++) {
 			Id<Person> id = Id.create(readChars(in), Person.class);
@@ -940,17 +1446,20 @@ public final class InfectionEventHandler implements Externalizable {
 	}
 
 	/**
-	 * Execute trajectory events.
+	 * Execute trajectory events. With {@link EpisimConfigGroup.ReplayScheduling#workStealing} there are more tasks than threads
+	 * and the executor is a work stealing pool, so that idle threads pick up the remaining tasks.
 	 *
-	 * @param day    current day
-	 * @param events events to execute
+	 * @param day current day
 	 */
-	void handleEvents(DayOfWeek day, List<Event> events) {
+	void handleEvents(DayOfWeek day) {
+
+		EventStore[] events = eventStores.get(day);
+		CoPresenceGraph[] graphs = coPresence.get(day);
 
 		if (handlers.size() > 1) {
 			var futures = new CompletableFuture[handlers.size()];
 			for (int i = 0; i < handlers.size(); i++) {
-				ReplayEventsTask task = new ReplayEventsTask(handlers.get(i), events, i, handlers.size());
+				ReplayEventsTask task = new ReplayEventsTask(handlers.get(i), events[i], graphs != null ? graphs[i] : null, i, handlers.size());
 				futures[i] = CompletableFuture.runAsync(task, executor);
 			}
 
@@ -961,10 +1470,15 @@ public final class InfectionEventHandler implements Externalizable {
 				executor.shutdown();
 				throw e;
 			}
+
+			// apply results in the order of the handlers, independent of thread scheduling
+			for (TrajectoryHandler handler : handlers) {
+				handler.flushBuffer();
+			}
 		} else {
 
 			// single threaded task is run directly
-			ReplayEventsTask task = new ReplayEventsTask(handlers.get(0), events, 0, 1);
+			ReplayEventsTask task = new ReplayEventsTask(handlers.get(0), events[0], graphs != null ? graphs[0] : null, 0, 1);
 			task.run();
 
 		}
@@ -1018,6 +1532,63 @@ public final class InfectionEventHandler implements Externalizable {
 
 	}
 
+	/**
+	 * Intermediate data of one distinct day while the events are initialized.
+	 */
+	private static final class DayScan {
+
+		private final List<Event> events;
+
+		/**
+		 * Persons in order of their first appearance.
+		 */
+		private final Set<Id<Person>> persons = new LinkedHashSet<>();
+		private final Set<Id<ActivityFacility>> facilities = new HashSet<>();
+		private final Set<Id<Vehicle>> vehicles = new HashSet<>();
+		private final Set<String> actTypes = new HashSet<>();
+
+		private final Object2IntMap<EpisimContainer<?>> totalUsers = new Object2IntOpenHashMap<>();
+		private final Map<EpisimContainer<?>, Object2IntMap<String>> activityUsage = new HashMap<>();
+
+		/**
+		 * Group sizes of vehicles relative to the start of the day.
+		 */
+		private final Object2IntMap<EpisimContainer<?>> groupSize = new Object2IntOpenHashMap<>();
+		private final Object2IntMap<EpisimContainer<?>> maxGroupSize = new Object2IntOpenHashMap<>();
+
+		private EventStore store;
+		private int[][] eventsByPerson;
+		private List<List<EpisimPerson>> appearing;
+		private int numPersons;
+
+		private DayScan(List<Event> events) {
+			this.events = events;
+		}
+
+		/**
+		 * Collect the ids of all entities that need to be created for this day.
+		 */
+		private void collectIds() {
+			for (Event event : events) {
+				if (event instanceof HasPersonId)
+					persons.add(((HasPersonId) event).getPersonId());
+
+				if (event instanceof HasFacilityId)
+					facilities.add(((HasFacilityId) event).getFacilityId());
+
+				if (event instanceof ActivityStartEvent)
+					actTypes.add(((ActivityStartEvent) event).getActType());
+				else if (event instanceof ActivityEndEvent)
+					actTypes.add(((ActivityEndEvent) event).getActType());
+
+				if (event instanceof PersonEntersVehicleEvent)
+					vehicles.add(((PersonEntersVehicleEvent) event).getVehicleId());
+				else if (event instanceof PersonLeavesVehicleEvent)
+					vehicles.add(((PersonLeavesVehicleEvent) event).getVehicleId());
+			}
+		}
+	}
+
 	/**
 	 * Container that is always a vehicle.
 	 */
@@ -1035,5 +1606,26 @@ public final class InfectionEventHandler implements Externalizable {
 			super(facilityId);
 		}
 	}
+
+	/**
+	 * Random stream and participation model used by one thread, when persons are updated in parallel.
+	 */
+	private record PersonWorker(SplittableRandom rnd, ActivityParticipationModel participationModel) {
+
+		/**
+		 * Continue with the random stream of a person, which is derived from the seed of the day and the person id.
+		 */
+		void useStream(long daySeed, EpisimPerson person) {
+			EpisimUtils.setSeed(rnd, EpisimUtils.mix64(daySeed ^ EpisimUtils.mix64(person.getPersonId().toString().hashCode())));
+		}
+	}
+
+	/**
+	 * Action performed by a worker on a block of persons.
+	 */
+	@FunctionalInterface
+	private interface PersonBlockAction {
+		void apply(PersonWorker worker, int block, int from, int to);
+	}
 }
 
@@ -21,22 +21,28 @@
 package org.matsim.episim;
 
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.events.*;
 import org.matsim.facilities.ActivityFacility;
 import org.matsim.vehicles.Vehicle;
 
-import java.lang.invoke.VarHandle;
-import java.util.Collection;
-import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * Replays all events for a single day to one {@link TrajectoryHandler}.
  */
 final public class ReplayEventsTask implements Runnable {
 
-	private final List<Event> events;
+	/**
+	 * Events of all containers belonging to this task.
+	 */
+	private final EventStore events;
 	private final TrajectoryHandler trajectoryHandler;
 
+	/**
+	 * Co-presence derived from the events, only present with {@link EpisimConfigGroup.ContactEngine#coPresence}.
+	 */
+	@Nullable
+	private final CoPresenceGraph graph;
+
 	/**
 	 * taskId is in [0, numThreads - 1], and each thread must have
 	 * a different taskId
@@ -46,11 +52,20 @@ final public class ReplayEventsTask implements Runnable {
 
 
 	public ReplayEventsTask(TrajectoryHandler trajectoryHandler,
-							List<Event> events,
+							EventStore events,
 							int taskId,
 							int numThreads) {
+		this(trajectoryHandler, events, null, taskId, numThreads);
+	}
+
+	ReplayEventsTask(TrajectoryHandler trajectoryHandler,
+					 EventStore events,
+					 @Nullable CoPresenceGraph graph,
+					 int taskId,
+					 int numThreads) {
 		this.trajectoryHandler = trajectoryHandler;
 		this.events = events;
+		this.graph = graph;
 		this.taskId = taskId;
 		this.numThreads = numThreads;
 	}
@@ -71,29 +86,24 @@ final public class ReplayEventsTask implements Runnable {
 
 	public void run() {
 		trajectoryHandler.reportCpuTime("start", taskId);
+
+		if (graph != null) {
+			trajectoryHandler.replayCoPresence(graph);
+			trajectoryHandler.reportCpuTime("finished", taskId);
+			return;
+		}
+
 		trajectoryHandler.onStartDay(this::handlesFacility, this::handlesVehicle);
 
-		for (final Event e : events) {
-			if (e instanceof ActivityStartEvent) {
-				ActivityStartEvent ase = (ActivityStartEvent) e;
-				if (handlesFacility(ase.getFacilityId()))
-					trajectoryHandler.handleEvent(ase);
-			} else if (e instanceof ActivityEndEvent) {
-				ActivityEndEvent aee = (ActivityEndEvent) e;
-				if (handlesFacility(aee.getFacilityId())) {
-					trajectoryHandler.handleEvent(aee);
-				}
-			} else if (e instanceof PersonEntersVehicleEvent) {
-				PersonEntersVehicleEvent peve = (PersonEntersVehicleEvent) e;
-				if (handlesVehicle(peve.getVehicleId()))
-					trajectoryHandler.handleEvent(peve);
-			} else {
-				PersonLeavesVehicleEvent plve = (PersonLeavesVehicleEvent) e;
-				if (handlesVehicle(plve.getVehicleId()))
-					trajectoryHandler.handleEvent(plve);
-			}
+		trajectoryHandler.markReplayedContainers(events);
+
+		// events are already partitioned, so that only the containers of this task are present
+		for (int i = 0; i < events.size(); i++) {
+			trajectoryHandler.handleEvent(events, i);
 		}
 
+		trajectoryHandler.finishSkippedContainers(events);
+
 		trajectoryHandler.reportCpuTime("finished", taskId);
 	}
 }
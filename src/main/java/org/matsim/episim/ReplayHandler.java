@@ -31,15 +31,31 @@ import org.matsim.api.core.v01.events.*;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.api.internal.HasPersonId;
+import org.matsim.core.events.EventsReaderXMLv1;
 import org.matsim.core.events.EventsUtils;
 import org.matsim.core.events.handler.BasicEventHandler;
 import org.matsim.core.gbl.Gbl;
 import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.utils.io.IOUtils;
 import org.matsim.facilities.ActivityFacility;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
 
 import javax.annotation.Nullable;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.time.DayOfWeek;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 /**
  * Handler that replays events from {@link EpisimConfigGroup#getInputEventsFile()} with corrected time and attributes.
@@ -48,6 +64,11 @@ public final class ReplayHandler {
 
 	private static final Logger log = LogManager.getLogger(ReplayHandler.class);
 
+	/**
+	 * Name of the xml element of an event.
+	 */
+	private static final String EVENT = "event";
+
 	/**
 	 * Needed in createEpisimFacilityId.
 	 */
@@ -86,9 +107,10 @@ public final class ReplayHandler {
 
 	/**
 	 * Replays event add modifies attributes based on current iteration.
+	 * The events are taken from the compact representation created in {@link InfectionEventHandler#init(Map)}.
 	 */
 	public void replayEvents(final InfectionEventHandler infectionHandler, DayOfWeek day) {
-		infectionHandler.handleEvents(day, events.get(day));
+		infectionHandler.handleEvents(day);
 	}
 
 	/**
@@ -99,19 +121,25 @@ public final class ReplayHandler {
 	}
 
 	/**
-	 * Read events as defined in config.
+	 * Read events as defined in config. A binary {@link EventCache} placed next to an event file will be used instead of
+	 * the file itself if it is valid.
+	 * <p>
+	 * Distinct files are read in parallel, files that are listed multiple times are only read once.
 	 */
 	public Map<DayOfWeek, List<Event>> readEvents(EpisimConfigGroup config) {
 
 		EnumMap<DayOfWeek, List<Event>> map = new EnumMap<>(DayOfWeek.class);
 
+		Set<String> paths = new LinkedHashSet<>();
 		for (EpisimConfigGroup.EventFileParams input : config.getInputEventsFiles()) {
+			paths.add(input.getPath());
+		}
 
-			List<Event> eventsForDay = new ArrayList<>();
-			EventsManager manager = EventsUtils.createEventsManager();
-			manager.addHandler(new EventReader(eventsForDay));
-			EventsUtils.readEvents(manager, input.getPath());
-			manager.finishProcessing();
+		Map<String, List<Event>> files = readEventFiles(config, paths);
+
+		for (EpisimConfigGroup.EventFileParams input : config.getInputEventsFiles()) {
+
+			List<Event> eventsForDay = files.get(input.getPath());
 
 			log.info("Read in {} events for {}, with time range {} - {}", eventsForDay.size(), input.getDays(), eventsForDay.get(0).getTime(),
 					eventsForDay.get(eventsForDay.size() - 1).getTime());
@@ -128,23 +156,153 @@ public final class ReplayHandler {
 	}
 
 	/**
-	 * Replaces all stored events
+	 * Read multiple files concurrently, using at most one thread per available processor.
+	 * <p>
+	 * Only the xml is parsed concurrently, and the attributes of all events are buffered per file. The events and their ids are created
+	 * afterwards by MATSim's event reader, one file after another in the order of the config. Otherwise id indices, and with them the
+	 * iteration order of all id maps, would depend on thread scheduling. The events are the same as when reading the files one by one.
+	 */
+	private Map<String, List<Event>> readEventFiles(EpisimConfigGroup config, Set<String> paths) {
+
+		Map<String, List<Event>> result = new HashMap<>();
+
+		if (paths.size() <= 1) {
+			paths.forEach(p -> result.put(p, readEventFile(config, p)));
+			return result;
+		}
+
+		int threads = Math.min(paths.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try {
+			Map<String, Future<Supplier<List<Event>>>> futures = new LinkedHashMap<>();
+			for (String path : paths) {
+				futures.put(path, executor.submit(() -> bufferEventFile(config, path)));
+			}
+
+			for (Map.Entry<String, Future<Supplier<List<Event>>>> e : futures.entrySet()) {
+				result.put(e.getKey(), e.getValue().get().get());
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while reading events", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+
+			throw new IllegalStateException("Could not read events", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Read one file into a buffer, either from its cache or by parsing the xml. The returned supplier creates the events from the buffer.
+	 */
+	private Supplier<List<Event>> bufferEventFile(EpisimConfigGroup config, String path) throws IOException, SAXException, ParserConfigurationException {
+
+		Path cache = EventCache.getCachePath(path);
+
+		try {
+			if (cache != null && EventCache.isValid(cache, path, config.getFacilitiesHandling())) {
+				log.info("Reading events from cache {}", cache);
+				EventBuffer buffer = EventCache.readBuffer(cache);
+				return () -> buffer.toEvents(scenario);
+			}
+		} catch (IOException e) {
+			// a broken cache is treated like a missing one
+			log.warn("Could not read event cache {}, parsing events instead.", cache, e);
+		}
+
+		List<Attributes> events = new ArrayList<>();
+		try (InputStream in = IOUtils.getInputStream(IOUtils.resolveFileOrResource(path))) {
+			SAXParserFactory.newInstance().newSAXParser().parse(in, new EventAttributesReader(events));
+		}
+
+		return () -> createEvents(config, scenario, events);
+	}
+
+	/**
+	 * Create events from buffered attributes with MATSim's event reader and apply the same filtering and attribute changes as
+	 * {@link #parseEvents(EpisimConfigGroup, Scenario, String)}.
+	 */
+	private static List<Event> createEvents(EpisimConfigGroup config, @Nullable Scenario scenario, List<Attributes> attributes) {
+
+		List<Event> events = new ArrayList<>();
+		EventsManager manager = EventsUtils.createEventsManager();
+		manager.addHandler(new EventReader(config, scenario, events));
+		manager.initProcessing();
+
+		EventsReaderXMLv1 reader = new EventsReaderXMLv1(manager);
+		Stack<String> context = new Stack<>();
+		for (Attributes atts : attributes) {
+			reader.startTag(EVENT, atts, context);
+		}
+
+		manager.finishProcessing();
+
+		return events;
+	}
+
+	/**
+	 * Read events of one file, either from its cache or by parsing the file.
+	 */
+	private List<Event> readEventFile(EpisimConfigGroup config, String path) {
+
+		Path cache = EventCache.getCachePath(path);
+
+		try {
+			if (cache != null && EventCache.isValid(cache, path, config.getFacilitiesHandling())) {
+				log.info("Reading events from cache {}", cache);
+				return EventCache.read(cache, scenario);
+			}
+		} catch (IOException e) {
+			// a broken cache is treated like a missing one
+			log.warn("Could not read event cache {}, parsing events instead.", cache, e);
+		}
+
+		return parseEvents(config, scenario, path);
+	}
+
+	/**
+	 * Parse an event file and apply the same filtering and attribute changes as used for the replay.
 	 *
-	 * @param events new events to store
+	 * @param scenario optional scenario to add missing coordinates
 	 */
-	void setEvents(Map<DayOfWeek, List<Event>> events) {
+	public static List<Event> parseEvents(EpisimConfigGroup config, @Nullable Scenario scenario, String path) {
+
+		List<Event> events = new ArrayList<>();
+		EventsManager manager = EventsUtils.createEventsManager();
+		manager.addHandler(new EventReader(config, scenario, events));
+		EventsUtils.readEvents(manager, path);
+		manager.finishProcessing();
+
+		return events;
+	}
+
+	/**
+	 * Releases the event objects once they have been converted by the {@link InfectionEventHandler}.
+	 * {@link #getEvents()} will be empty afterwards.
+	 */
+	void clearEvents() {
 		this.events.clear();
-		this.events.putAll(events);
 	}
 
 	/**
 	 * Helper class to read events one time.
 	 */
-	private final class EventReader implements BasicEventHandler {
+	private static final class EventReader implements BasicEventHandler {
 
+		private final EpisimConfigGroup episimConfig;
+		private final Scenario scenario;
 		private final List<Event> events;
 
-		private EventReader(List<Event> events) {
+		private EventReader(EpisimConfigGroup episimConfig, @Nullable Scenario scenario, List<Event> events) {
+			this.episimConfig = episimConfig;
+			this.scenario = scenario;
 			this.events = events;
 		}
 
@@ -166,7 +324,7 @@ public final class ReplayHandler {
 				}
 
 				event = new ActivityStartEvent(e.getTime(), e.getPersonId(), e.getLinkId(),
-						createEpisimFacilityId(e),
+						createEpisimFacilityId(episimConfig, e),
 						e.getActType().intern(), coord);
 			} else if (event instanceof ActivityEndEvent) {
 				ActivityEndEvent e = (ActivityEndEvent) event;
@@ -178,7 +336,7 @@ public final class ReplayHandler {
 				String actType = e.getActType().intern();
 				double time = e.getTime();
 				event = new ActivityEndEvent(time, e.getPersonId(), e.getLinkId(),
-						createEpisimFacilityId(e),
+						createEpisimFacilityId(episimConfig, e),
 						actType);
 			} else if (event instanceof PersonEntersVehicleEvent) {
 				if (!shouldHandlePersonEvent((PersonEntersVehicleEvent) event)) {
@@ -196,6 +354,24 @@ public final class ReplayHandler {
 
 	}
 
+	/**
+	 * Collects the attributes of all events in an event xml.
+	 */
+	private static final class EventAttributesReader extends DefaultHandler {
+
+		private final List<Attributes> events;
+
+		private EventAttributesReader(List<Attributes> events) {
+			this.events = events;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) {
+			if (EVENT.equals(qName))
+				events.add(new AttributesImpl(atts));
+		}
+	}
+
 	/**
 	 * Whether {@code event} should be handled.
 	 *
@@ -216,7 +392,7 @@ public final class ReplayHandler {
 		return !id.startsWith("pt_pt") && !id.startsWith("pt_tr") && !id.startsWith("drt") && !id.startsWith("rt");
 	}
 
-	private Id<ActivityFacility> createEpisimFacilityId(HasFacilityId event) {
+	private static Id<ActivityFacility> createEpisimFacilityId(EpisimConfigGroup episimConfig, HasFacilityId event) {
 		if (episimConfig.getFacilitiesHandling() == EpisimConfigGroup.FacilitiesHandling.snz) {
 			Id<ActivityFacility> id = event.getFacilityId();
 			if (id == null)
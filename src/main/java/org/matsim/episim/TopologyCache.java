@@ -0,0 +1,191 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.episim;
+
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.core.config.Config;
+import org.matsim.facilities.ActivityFacility;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * On-disk cache for the max group sizes of facilities, which {@link InfectionEventHandler#updateEvents(Map)} computes by
+ * replaying all days once more.
+ * <p>
+ * Like the {@link EventCache}, a cache is identified by the size and modification time of its input files instead of their content.
+ * The key consists of the event files with their days, the population file, the {@link EpisimConfigGroup.FacilitiesHandling}
+ * and the number of threads. Caching is disabled if one of the input files is not a local file.
+ * <p>
+ * Entries are stored in the order they were computed, so that the resulting maps are the same as without cache.
+ */
+final class TopologyCache {
+
+	private static final Logger log = LogManager.getLogger(TopologyCache.class);
+
+	private static final int MAGIC = 0x45505443;
+	private static final int VERSION = 1;
+
+	private TopologyCache() {
+	}
+
+	/**
+	 * Key describing the input of the max group sizes, or null if caching is disabled or the input can not be identified.
+	 */
+	@Nullable
+	static String getKey(EpisimConfigGroup episimConfig, Config config) {
+
+		if (episimConfig.getTopologyCache() == null || episimConfig.getInputEventsFiles().isEmpty())
+			return null;
+
+		StringBuilder key = new StringBuilder()
+				.append(episimConfig.getFacilitiesHandling()).append(';')
+				.append(episimConfig.getThreads());
+
+		for (EpisimConfigGroup.EventFileParams input : episimConfig.getInputEventsFiles()) {
+			String file = describe(input.getPath());
+			if (file == null)
+				return null;
+
+			key.append(';').append(input.getDays()).append('=').append(file);
+		}
+
+		String population = describe(config.plans().getInputFile());
+		if (population == null)
+			return null;
+
+		return key.append(';').append(population).toString();
+	}
+
+	/**
+	 * Path, size and modification time of a local file, or null if it is not one.
+	 */
+	@Nullable
+	private static String describe(@Nullable String file) {
+
+		if (file == null)
+			return null;
+
+		try {
+			Path path = Path.of(file);
+			if (!Files.isRegularFile(path))
+				return null;
+
+			return path.toAbsolutePath().normalize() + ":" + Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis();
+		} catch (InvalidPathException | IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Path of the cache file for a key.
+	 */
+	static Path getPath(EpisimConfigGroup episimConfig, String key) {
+		return Path.of(episimConfig.getTopologyCache()).resolve("topology-" + Hashing.murmur3_128().hashString(key, StandardCharsets.UTF_8) + ".bin");
+	}
+
+	/**
+	 * Read cached max group sizes in the order they were written.
+	 *
+	 * @return max group sizes, or null if the cache is missing, outdated or does not match the facilities
+	 */
+	@Nullable
+	static Object2IntMap<EpisimContainer<?>> read(Path cache, String key, Map<Id<ActivityFacility>, InfectionEventHandler.EpisimFacility> facilities) {
+
+		if (!Files.exists(cache))
+			return null;
+
+		Object2IntMap<EpisimContainer<?>> result = new Object2IntLinkedOpenHashMap<>();
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cache)))) {
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(key)) {
+				log.warn("Topology cache {} does not match the input, it will be ignored.", cache);
+				return null;
+			}
+
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String id = in.readUTF();
+				int size = in.readInt();
+
+				InfectionEventHandler.EpisimFacility facility = facilities.get(Id.create(id, ActivityFacility.class));
+				if (facility == null) {
+					log.warn("Facility {} from topology cache {} does not exist, it will be ignored.", id, cache);
+					return null;
+				}
+
+				result.put(facility, size);
+			}
+
+		} catch (IOException e) {
+			log.warn("Could not read topology cache {}", cache, e);
+			return null;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Write max group sizes to the cache. Failures are only logged, as the cache is not essential.
+	 */
+	static void write(Path cache, String key, Object2IntMap<EpisimContainer<?>> maxGroupSize) {
+
+		try {
+			Files.createDirectories(cache.toAbsolutePath().getParent());
+
+			// write to temporary file first, in case other runs access the same cache concurrently
+			Path tmp = Files.createTempFile(cache.toAbsolutePath().getParent(), "topology", ".tmp");
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+				out.writeInt(maxGroupSize.size());
+
+				for (Object2IntMap.Entry<EpisimContainer<?>> e : maxGroupSize.object2IntEntrySet()) {
+					out.writeUTF(e.getKey().getContainerId().toString());
+					out.writeInt(e.getIntValue());
+				}
+			} catch (IOException e) {
+				Files.deleteIfExists(tmp);
+				throw e;
+			}
+
+			Files.move(tmp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.info("Wrote topology cache {}", cache);
+
+		} catch (IOException e) {
+			log.warn("Could not write topology cache {}", cache, e);
+		}
+	}
+}
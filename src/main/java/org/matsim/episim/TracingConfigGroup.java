@@ -35,6 +35,7 @@ public class TracingConfigGroup extends ReflectiveConfigGroup {
 	private static final String GREEN_PASS_DAYS = "greenPassValidDays";
 	private static final String GREEN_PASS_BOOSTER_DAYS = "greenPassBoosterValidDays";
 	private static final String IGNORED_ACTIVITIES = "ignoredActivities";
+	private static final String CONTACT_RECORDING = "contactRecording";
 	private static final String GROUPNAME = "episimTracing";
 
 	/**
@@ -110,6 +111,11 @@ public class TracingConfigGroup extends ReflectiveConfigGroup {
 	 */
 	private Strategy strategy = Strategy.INDIVIDUAL_ONLY;
 
+	/**
+	 * Which contacts are recorded for tracing.
+	 */
+	private ContactRecording contactRecording = ContactRecording.ALL;
+
 	/**
 	 * Quarantine release strategy.
 	 */
@@ -212,6 +218,19 @@ public class TracingConfigGroup extends ReflectiveConfigGroup {
 		this.tracingProbability.putAll(tracingProbability);
 	}
 
+	/**
+	 * Highest tracing probability valid at or after {@code startDate}. With {@link ContactRecording#SAMPLED} contacts are recorded with this probability.
+	 */
+	public double getMaxTracingProbability(LocalDate startDate) {
+		double max = EpisimUtils.findValidEntry(tracingProbability, 1.0, startDate);
+		for (Map.Entry<LocalDate, Double> e : tracingProbability.entrySet()) {
+			if (e.getKey().isAfter(startDate))
+				max = Math.max(max, e.getValue());
+		}
+
+		return max;
+	}
+
 	/**
 	 * Sets one tracing probability valid throughout whole simulation.
 	 */
@@ -395,6 +414,16 @@ public class TracingConfigGroup extends ReflectiveConfigGroup {
 		this.strategy = strategy;
 	}
 
+	@StringGetter(CONTACT_RECORDING)
+	public ContactRecording getContactRecording() {
+		return contactRecording;
+	}
+
+	@StringSetter(CONTACT_RECORDING)
+	public void setContactRecording(ContactRecording contactRecording) {
+		this.contactRecording = contactRecording;
+	}
+
 	@StringGetter(LOCATION_THRESHOLD)
 	public int getLocationThreshold() {
 		return locationThreshold;
@@ -480,6 +509,26 @@ public class TracingConfigGroup extends ReflectiveConfigGroup {
 	}
 
 
+	/**
+	 * Defines which contacts are recorded for tracing.
+	 */
+	public enum ContactRecording {
+
+		/**
+		 * Record all contacts, the tracing probability is applied when a person is traced.
+		 */
+		ALL,
+
+		/**
+		 * Record contacts only with the highest tracing probability of the simulation, see {@link #getMaxTracingProbability(LocalDate)}.
+		 * When a person is traced, each recorded contact is traced with the tracing probability of that day, relative to the recording probability.
+		 * The recording draw is fixed per pair of persons for the whole run. Household members are always recorded if they are quarantined.
+		 * With {@link CapacityType#PER_CONTACT_PERSON} only the recorded contacts count towards the capacity,
+		 * so the capacity is used up more slowly than with {@link #ALL} if the tracing probability is below one.
+		 */
+		SAMPLED
+	}
+
 	/**
 	 * Defines, which person are released from quarantine.
 	 */
@@ -5,19 +5,18 @@ import com.google.inject.Inject;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.events.ActivityEndEvent;
-import org.matsim.api.core.v01.events.ActivityStartEvent;
-import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
-import org.matsim.api.core.v01.events.PersonLeavesVehicleEvent;
+import org.matsim.api.core.v01.events.Event;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.episim.model.ContactModel;
+import org.matsim.episim.model.DefaultContactModel;
 import org.matsim.episim.policy.Restriction;
 import org.matsim.facilities.ActivityFacility;
 import org.matsim.vehicles.Vehicle;
 
 import javax.inject.Named;
 import java.time.DayOfWeek;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.SplittableRandom;
 import java.util.function.Predicate;
@@ -30,6 +29,7 @@ final class TrajectoryHandler {
 	private static final Logger log = LogManager.getLogger(TrajectoryHandler.class);
 
 	private final EpisimConfigGroup episimConfig;
+	private final TracingConfigGroup tracingConfig;
 	private final EpisimReporting reporting;
 	private final ContactModel contactModel;
 	private final Map<Id<Person>, EpisimPerson> personMap;
@@ -41,31 +41,116 @@ final class TrajectoryHandler {
 	 */
 	private final SplittableRandom rnd;
 
+	/**
+	 * Whether processing time is accounted to the containers, needed for rebalancing.
+	 */
+	private final boolean measureCost;
+
+	/**
+	 * Whether random numbers are drawn from the streams of the containers instead of {@link #rnd}.
+	 */
+	private final boolean containerStreams;
+
+	/**
+	 * Seed of the current day, from which container streams are derived.
+	 */
+	private long daySeed;
+
+	/**
+	 * Whether containers without contagious visitors are skipped on the current day.
+	 */
+	private boolean skipContainers;
+
+	/**
+	 * Buffer for results shared with other handlers, only used when running multi threaded.
+	 */
+	private final ContactBuffer buffer;
+
+	/**
+	 * Participation of the intervals of a {@link CoPresenceGraph} on the current day.
+	 */
+	private boolean[] participates = new boolean[0];
+
+	/**
+	 * Actual enter time and activity of the intervals of a {@link CoPresenceGraph} on the current day.
+	 */
+	private double[] enterTimes = new double[0];
+	private EpisimPerson.PerformedActivity[] activities = new EpisimPerson.PerformedActivity[0];
+
+	/**
+	 * Iteration in which the random stream of a container has been initialized, by index of the container in the {@link CoPresenceGraph}.
+	 */
+	private int[] streamInitialized = new int[0];
+
 	private int iteration = 0;
 	private DayOfWeek day;
 
 	@Inject
-	public TrajectoryHandler(EpisimConfigGroup episimConfig, EpisimReporting reporting, ContactModel model, SplittableRandom rnd,
+	public TrajectoryHandler(EpisimConfigGroup episimConfig, TracingConfigGroup tracingConfig, EpisimReporting reporting, ContactModel model, SplittableRandom rnd,
 	                         @Named("personMap") Map<Id<Person>, EpisimPerson> personMap,
 	                         @Named("vehicleMap") Map<Id<Vehicle>, InfectionEventHandler.EpisimVehicle> vehicleMap,
 	                         @Named("pseudoFacilityMap") Map<Id<ActivityFacility>, InfectionEventHandler.EpisimFacility> pseudoFacilityMap) {
 		this.rnd = rnd;
 		this.episimConfig = episimConfig;
+		this.tracingConfig = tracingConfig;
 		this.reporting = reporting;
 		this.contactModel = model;
 		this.personMap = personMap;
 		this.vehicleMap = vehicleMap;
 		this.pseudoFacilityMap = pseudoFacilityMap;
+		this.measureCost = episimConfig.getRebalanceInterval() > 0;
+		this.containerStreams = episimConfig.getRandomStreams() == EpisimConfigGroup.RandomStreams.container;
+		this.buffer = episimConfig.getThreads() > 1 ? new ContactBuffer(reporting) : null;
+		this.contactModel.setBuffer(buffer);
+
+		// co-presence does not notify the contact model about persons entering or staying in containers
+		if (episimConfig.getContactEngine() == EpisimConfigGroup.ContactEngine.coPresence && model.getClass() != DefaultContactModel.class)
+			throw new IllegalStateException("Contact engine coPresence only supports the DefaultContactModel, but " + model.getClass().getSimpleName() + " is used.");
+	}
+
+	/**
+	 * Apply the buffered results of the current day, needs to be called after all handlers have finished.
+	 */
+	void flushBuffer() {
+		if (buffer != null)
+			buffer.flush(reporting);
 	}
 
 	SplittableRandom getRnd() {
 		return rnd;
 	}
 
+	/**
+	 * Set the seed for the next day.
+	 */
+	void setSeed(long seed) {
+		EpisimUtils.setSeed(rnd, seed);
+		this.daySeed = seed;
+	}
+
+	/**
+	 * Continue the random stream of a container, which is used by all models until {@link #storeStream(EpisimContainer)}.
+	 */
+	private void useStream(EpisimContainer<?> container) {
+		if (containerStreams)
+			EpisimUtils.setSeed(rnd, container.getRndState());
+	}
+
+	private void storeStream(EpisimContainer<?> container) {
+		if (containerStreams)
+			container.setRndState(EpisimUtils.getSeed(rnd));
+	}
+
 	void setRestrictionsForIteration(int iteration, ImmutableMap<String, Restriction> im) {
 		this.iteration = iteration;
 		this.day = EpisimUtils.getDayOfWeek(episimConfig, iteration);
 		contactModel.setRestrictionsForIteration(iteration, im);
+
+		// contacts in all containers are needed when they are tracked or written
+		this.skipContainers = episimConfig.getContagiousOptimization() == EpisimConfigGroup.ContagiousOptimization.skipContainers &&
+				iteration < tracingConfig.getPutTraceablePersonsInQuarantineAfterDay() &&
+				episimConfig.getWriteEvents() != EpisimConfigGroup.WriteEvents.tracing &&
+				episimConfig.getWriteEvents() != EpisimConfigGroup.WriteEvents.all;
 	}
 
 	/**
@@ -151,13 +236,22 @@ final class TrajectoryHandler {
 			if (!responsibleFacility.test(facility.getContainerId()))
 				continue;
 
+			long start = measureCost ? System.nanoTime() : 0;
+
+			if (containerStreams)
+				facility.initRandomStream(daySeed);
+
+			useStream(facility);
 			facility.resetContagiousCounter();
 
-			Iterator<EpisimPerson> it = facility.getPersons().iterator();
+			// disease status of persons staying overnight may have changed
+			facility.updateInfectious();
 
-			while (it.hasNext()) {
+			// persons are visited in entering order, the rank is only advanced for remaining persons
+			for (int rank = 0; rank < facility.getNumPersons(); ) {
 
-				EpisimPerson person = it.next();
+				int slot = facility.getSlotAtRank(rank);
+				EpisimPerson person = facility.getPerson(slot);
 
 				assert facility.getContainerId().equals(person.getLastFacilityId(prevDay)) :
 						String.format("Person %s needs to be in its last facility (%s) at the end of the day, but is in %s",
@@ -166,16 +260,25 @@ final class TrajectoryHandler {
 				// person needs to be at a different container and is removed here
 				if (person.getStaysInContainer(prevDay) && !person.getLastFacilityId(prevDay).equals(person.getFirstFacilityId(day))) {
 
-					EpisimPerson.PerformedActivity lastActivity = facility.getPerformedActivity(person.getPersonId());
+					EpisimPerson.PerformedActivity lastActivity = facility.getPerformedActivity(slot);
 
-					double timeSpent = now - facility.getContainerEnteringTime(person.getPersonId());
+					double timeSpent = now - facility.getEnteringTime(slot);
 					person.addSpentTime(lastActivity.actType(), timeSpent);
 
 					contactModel.infectionDynamicsFacility(person, facility, now);
-					facility.removePerson(person, it);
-				} else if (person.infectedButNotSerious())
-					facility.countContagious(1);
+					facility.removeSlot(slot);
+				} else {
+					if (person.infectedButNotSerious())
+						facility.countContagious(1);
+
+					rank++;
+				}
 			}
+
+			storeStream(facility);
+
+			if (measureCost)
+				facility.addCost(System.nanoTime() - start);
 		}
 
 		// all persons still in vehicles are removed at the end of the day
@@ -183,12 +286,24 @@ final class TrajectoryHandler {
 			if (!responsibleVehicle.test(vehicle.getContainerId()))
 				continue;
 
-			Iterator<EpisimPerson> it = vehicle.getPersons().iterator();
-			while (it.hasNext()) {
-				EpisimPerson person = it.next();
+			long start = measureCost ? System.nanoTime() : 0;
+
+			if (containerStreams)
+				vehicle.initRandomStream(daySeed);
+
+			useStream(vehicle);
+
+			while (vehicle.getNumPersons() > 0) {
+				int slot = vehicle.getSlotAtRank(0);
+				EpisimPerson person = vehicle.getPerson(slot);
 				contactModel.infectionDynamicsVehicle(person, vehicle, now);
-				vehicle.removePerson(person, it);
+				vehicle.removeSlot(slot);
 			}
+
+			storeStream(vehicle);
+
+			if (measureCost)
+				vehicle.addCost(System.nanoTime() - start);
 		}
 
 
@@ -204,8 +319,15 @@ final class TrajectoryHandler {
 				continue;
 
 			if (!person.getStaysInContainer(prevDay) || !person.getLastFacilityId(prevDay).equals(firstFacilityId)) {
+				useStream(firstFacility);
 				firstFacility.addPerson(person, now, person.getFirstActivity(day));
+
+				// containers need to know all contagious persons at the start of the day to decide whether they are skipped
+				if (skipContainers && person.infectedButNotSerious())
+					firstFacility.countContagious(1);
+
 				contactModel.notifyEnterFacility(person, firstFacility, now);
+				storeStream(firstFacility);
 			}
 		}
 	}
@@ -227,75 +349,212 @@ final class TrajectoryHandler {
 		return person.checkActivity(day, time) && person.checkNextActivity(day, time);
 	}
 
-	public void handleEvent(ActivityStartEvent activityStartEvent) {
-//		double now = activityStartEvent.getTime();
-		double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), activityStartEvent.getTime(), iteration);
+	/**
+	 * Pass the original event to reporting, if it has been retained.
+	 */
+	private void reportEvent(EventStore events, int i) {
+		Event event = events.getEvent(i);
+		if (event != null)
+			reporting.handleEvent(event);
+	}
+
+	/**
+	 * Handle one event of the store using the random stream of its container and account the processing time, if needed.
+	 */
+	void handleEvent(EventStore events, int i) {
+
+		long start = measureCost ? System.nanoTime() : 0;
+
+		EpisimContainer<?> container = events.getContainer(i);
+		useStream(container);
+
+		if (skipContainers && !container.isReplayed()) {
+			skipEvent(events, i);
+		} else {
+			switch (events.getType(i)) {
+				case EventStore.ACTIVITY_START:
+					handleActivityStart(events, i);
+					break;
+				case EventStore.ACTIVITY_END:
+					handleActivityEnd(events, i);
+					break;
+				case EventStore.ENTERS_VEHICLE:
+					handleEntersVehicle(events, i);
+					break;
+				default:
+					handleLeavesVehicle(events, i);
+			}
+		}
+
+		storeStream(container);
 
-		// find the person:
-		EpisimPerson episimPerson = this.personMap.get(activityStartEvent.getPersonId());
+		if (measureCost)
+			container.addCost(System.nanoTime() - start);
+	}
 
-		if (!checkParticipation(episimPerson, activityStartEvent.getTime()))
+	/**
+	 * Determine the containers that can host an infection on this day, because a contagious person is present at the start of the day
+	 * or visits them. Only these containers are replayed completely when containers are skipped.
+	 */
+	void markReplayedContainers(EventStore events) {
+
+		if (!skipContainers)
 			return;
 
-		reporting.handleEvent(activityStartEvent);
+		for (int i = 0; i < events.size(); i++) {
+			EpisimContainer<?> container = events.getContainer(i);
+			container.setReplayed(container.containsContagious());
+		}
 
-		// create pseudo facility id that includes the activity type:
-		Id<ActivityFacility> episimFacilityId = activityStartEvent.getFacilityId();
+		for (int i = 0; i < events.size(); i++) {
+			if (events.getPerson(i).infectedButNotSerious())
+				events.getContainer(i).setReplayed(true);
+		}
+	}
 
-		// find the facility
-		InfectionEventHandler.EpisimFacility episimFacility = this.pseudoFacilityMap.get(episimFacilityId);
+	/**
+	 * Handle an event of a container that is not replayed. The container is left unchanged until {@link #finishSkippedContainers(EventStore)},
+	 * whether a person is present is derived from the linked start event instead.
+	 */
+	private void skipEvent(EventStore events, int i) {
 
-		// add person to facility
-		episimFacility.addPerson(episimPerson, now, episimPerson.getActivity(day, activityStartEvent.getTime()));
+		double time = events.getTime(i);
+		double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), time, iteration);
+		EpisimPerson person = events.getPerson(i);
+		byte type = events.getType(i);
 
-		contactModel.notifyEnterFacility(episimPerson, episimFacility, now);
+		if (type == EventStore.ACTIVITY_START || type == EventStore.ENTERS_VEHICLE) {
+			if (!performsStart(events, i))
+				return;
+
+			reportEvent(events, i);
+
+			if (type == EventStore.ACTIVITY_START)
+				contactModel.notifyEnterFacility(person, events.getFacility(i), now);
+			else
+				contactModel.notifyEnterVehicle(person, events.getVehicle(i), now);
+
+			return;
+		}
+
+		EpisimContainer<?> container = events.getContainer(i);
+		int start = events.getMatch(i);
+
+		// person either entered on this day or was already present at the start of the day
+		boolean contained = start >= 0 ? performsStart(events, start) : container.containsPerson(person);
+
+		if (episimConfig.getActivityHandling() == EpisimConfigGroup.ActivityHandling.startOfDay && !contained)
+			return;
+
+		reportEvent(events, i);
+
+		if (episimConfig.getReportTimeUse() == EpisimConfigGroup.ReportTimeUse.yes) {
+			double enterTime = start >= 0 && contained ?
+					EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), events.getTime(start), iteration) :
+					container.getContainerEnteringTime(person.getPersonId());
+
+			person.addSpentTime(type == EventStore.ACTIVITY_END ? events.getActType(i) : "pt", now - enterTime);
+		}
+	}
+
+	/**
+	 * Whether the person of an activity start or vehicle enter event is actually entering the container.
+	 */
+	private boolean performsStart(EventStore events, int i) {
+		if (events.getType(i) == EventStore.ACTIVITY_START)
+			return checkParticipation(events.getPerson(i), events.getTime(i));
+
+		return checkVehicleUsage(events.getPerson(i), events.getTime(i));
+	}
+
+	/**
+	 * Bring skipped containers into the state they would have after a full replay. Persons that were present at the start and left are removed,
+	 * persons that entered and did not leave again are added, in the same order as during a replay.
+	 */
+	void finishSkippedContainers(EventStore events) {
+
+		if (!skipContainers)
+			return;
+
+		for (int i = 0; i < events.size(); i++) {
+
+			EpisimContainer<?> container = events.getContainer(i);
+			if (container.isReplayed() || events.getMatch(i) >= 0)
+				continue;
+
+			EpisimPerson person = events.getPerson(i);
+			byte type = events.getType(i);
+
+			if (type == EventStore.ACTIVITY_START || type == EventStore.ENTERS_VEHICLE) {
+				if (!performsStart(events, i))
+					continue;
+
+				double time = events.getTime(i);
+				double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), time, iteration);
+				container.addPerson(person, now, type == EventStore.ACTIVITY_START ?
+						person.getActivity(day, time) : EpisimPerson.UNSPECIFIC_ACTIVITY);
+
+			} else if (container.containsPerson(person))
+				container.removePerson(person);
+		}
 	}
 
-	public void handleEvent(ActivityEndEvent activityEndEvent) {
-//		double now = activityEndEvent.getTime();
-		double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), activityEndEvent.getTime(), iteration);
+	void handleActivityStart(EventStore events, int i) {
+		double time = events.getTime(i);
+		double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), time, iteration);
 
-		EpisimPerson episimPerson = this.personMap.get(activityEndEvent.getPersonId());
+		EpisimPerson episimPerson = events.getPerson(i);
+
+		if (!checkParticipation(episimPerson, time))
+			return;
 
-		// create pseudo facility id that includes the activity type:
-		Id<ActivityFacility> episimFacilityId = activityEndEvent.getFacilityId();
+		reportEvent(events, i);
 
-		// find the facility
-		InfectionEventHandler.EpisimFacility episimFacility = this.pseudoFacilityMap.get(episimFacilityId);
+		InfectionEventHandler.EpisimFacility episimFacility = events.getFacility(i);
+
+		// add person to facility
+		episimFacility.addPerson(episimPerson, now, episimPerson.getActivity(day, time));
+
+		contactModel.notifyEnterFacility(episimPerson, episimFacility, now);
+	}
+
+	void handleActivityEnd(EventStore events, int i) {
+		double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), events.getTime(i), iteration);
+
+		EpisimPerson episimPerson = events.getPerson(i);
+		InfectionEventHandler.EpisimFacility episimFacility = events.getFacility(i);
 
 		// person did not perform this activity
 		if (episimConfig.getActivityHandling() == EpisimConfigGroup.ActivityHandling.startOfDay && !episimFacility.containsPerson(episimPerson))
 			return;
 
-		reporting.handleEvent(activityEndEvent);
+		reportEvent(events, i);
 
-		if (episimConfig.getContagiousOptimization() == EpisimConfigGroup.ContagiousOptimization.no ||
+		if (episimConfig.getContagiousOptimization() != EpisimConfigGroup.ContagiousOptimization.yes ||
 				episimFacility.containsContagious()) {
 			contactModel.infectionDynamicsFacility(episimPerson, episimFacility, now);
 		}
 
 		if (episimConfig.getReportTimeUse() == EpisimConfigGroup.ReportTimeUse.yes) {
 			double timeSpent = now - episimFacility.getContainerEnteringTime(episimPerson.getPersonId());
-			episimPerson.addSpentTime(activityEndEvent.getActType(), timeSpent);
+			episimPerson.addSpentTime(events.getActType(i), timeSpent);
 		}
 
 		episimFacility.removePerson(episimPerson);
 	}
 
-	public void handleEvent(PersonEntersVehicleEvent entersVehicleEvent) {
-//		double now = entersVehicleEvent.getTime();
-		double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), entersVehicleEvent.getTime(), iteration);
+	void handleEntersVehicle(EventStore events, int i) {
+		double time = events.getTime(i);
+		double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), time, iteration);
 
-		// find the person:
-		EpisimPerson episimPerson = this.personMap.get(entersVehicleEvent.getPersonId());
+		EpisimPerson episimPerson = events.getPerson(i);
 
-		if (!checkVehicleUsage(episimPerson, entersVehicleEvent.getTime()))
+		if (!checkVehicleUsage(episimPerson, time))
 			return;
 
-		reporting.handleEvent(entersVehicleEvent);
+		reportEvent(events, i);
 
-		// find the vehicle:
-		InfectionEventHandler.EpisimVehicle episimVehicle = this.vehicleMap.get(entersVehicleEvent.getVehicleId());
+		InfectionEventHandler.EpisimVehicle episimVehicle = events.getVehicle(i);
 
 		// add person to vehicle and memorize entering time:
 		episimVehicle.addPerson(episimPerson, now, EpisimPerson.UNSPECIFIC_ACTIVITY);
@@ -303,27 +562,23 @@ final class TrajectoryHandler {
 		contactModel.notifyEnterVehicle(episimPerson, episimVehicle, now);
 	}
 
-	public void handleEvent(PersonLeavesVehicleEvent leavesVehicleEvent) {
-//		double now = leavesVehicleEvent.getTime();
-		double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), leavesVehicleEvent.getTime(), iteration);
+	void handleLeavesVehicle(EventStore events, int i) {
+		double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), events.getTime(i), iteration);
 
-		// find vehicle:
-		InfectionEventHandler.EpisimVehicle episimVehicle = this.vehicleMap.get(leavesVehicleEvent.getVehicleId());
-
-		EpisimPerson episimPerson = this.personMap.get(leavesVehicleEvent.getPersonId());
+		InfectionEventHandler.EpisimVehicle episimVehicle = events.getVehicle(i);
+		EpisimPerson episimPerson = events.getPerson(i);
 
 		// person did not enter the vehicle
 		if (episimConfig.getActivityHandling() == EpisimConfigGroup.ActivityHandling.startOfDay && !episimVehicle.containsPerson(episimPerson))
 			return;
 
-		reporting.handleEvent(leavesVehicleEvent);
+		reportEvent(events, i);
 
-		if (episimConfig.getContagiousOptimization() == EpisimConfigGroup.ContagiousOptimization.no ||
+		if (episimConfig.getContagiousOptimization() != EpisimConfigGroup.ContagiousOptimization.yes ||
 				episimVehicle.containsContagious()) {
 			contactModel.infectionDynamicsVehicle(episimPerson, episimVehicle, now);
 		}
 
-
 		if (episimConfig.getReportTimeUse() == EpisimConfigGroup.ReportTimeUse.yes) {
 			double timeSpent = now - episimVehicle.getContainerEnteringTime(episimPerson.getPersonId());
 
@@ -334,8 +589,127 @@ final class TrajectoryHandler {
 		episimVehicle.removePerson(episimPerson);
 	}
 
+	/**
+	 * Evaluate the contacts of a day from precomputed co-presence instead of replaying its events, see {@link EpisimConfigGroup.ContactEngine#coPresence}.
+	 * Containers are filled with the co-present persons only for the evaluation of a single departure. Between two days, they contain the
+	 * persons staying overnight, with their actual enter time and activity.
+	 */
+	void replayCoPresence(CoPresenceGraph graph) {
+
+		int n = graph.getNumIntervals();
+		if (participates.length < n) {
+			participates = new boolean[n];
+			enterTimes = new double[n];
+			activities = new EpisimPerson.PerformedActivity[n];
+		}
+
+		if (containerStreams && streamInitialized.length < graph.getNumContainers()) {
+			streamInitialized = new int[graph.getNumContainers()];
+			Arrays.fill(streamInitialized, -1);
+		}
+
+		double startOfDay = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), 0, iteration);
+
+		for (int k = 0; k < n; k++) {
+			EpisimPerson person = graph.getPerson(k);
+			EpisimContainer<?> container = graph.getContainer(k);
+			boolean vehicle = container instanceof InfectionEventHandler.EpisimVehicle;
+
+			if (graph.hasStart(k)) {
+				participates[k] = vehicle ? checkVehicleUsage(person, graph.getEnterTime(k)) : checkParticipation(person, graph.getEnterTime(k));
+				enterTimes[k] = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), graph.getEnterTime(k), iteration);
+				activities[k] = vehicle ? EpisimPerson.UNSPECIFIC_ACTIVITY : person.getActivity(day, graph.getEnterTime(k));
+			} else if (container.containsPerson(person)) {
+				// stayed overnight
+				participates[k] = true;
+				enterTimes[k] = container.getContainerEnteringTime(person.getPersonId());
+				activities[k] = container.getPerformedActivity(person.getPersonId());
+			} else {
+				participates[k] = vehicle || person.checkFirstActivity(day, 0);
+				enterTimes[k] = startOfDay;
+				activities[k] = vehicle ? EpisimPerson.UNSPECIFIC_ACTIVITY : person.getFirstActivity(day);
+			}
+		}
+
+		// persons of the previous day have been read, containers are filled again for each departure
+		for (int k = 0; k < n; k++)
+			graph.getContainer(k).clearPersons();
+
+		// contacts in all containers are needed when they are tracked or written
+		boolean all = iteration >= tracingConfig.getPutTraceablePersonsInQuarantineAfterDay() ||
+				episimConfig.getWriteEvents() == EpisimConfigGroup.WriteEvents.tracing ||
+				episimConfig.getWriteEvents() == EpisimConfigGroup.WriteEvents.all;
+
+		// positions of the departures to evaluate, in chronological order
+		BitSet departures = new BitSet(graph.getNumDepartures());
+		if (all)
+			departures.set(0, graph.getNumDepartures());
+		else {
+			for (int k = 0; k < n; k++) {
+				if (participates[k] && graph.getPerson(k).isInfectious())
+					graph.collectDepartures(k, departures);
+			}
+		}
+
+		for (int pos = departures.nextSetBit(0); pos >= 0; pos = departures.nextSetBit(pos + 1)) {
+			int k = graph.getDeparture(pos);
+
+			if (!participates[k])
+				continue;
+
+			EpisimContainer<?> container = graph.getContainer(k);
+			long start = measureCost ? System.nanoTime() : 0;
+
+			if (containerStreams) {
+				int c = graph.getContainerIndex(k);
+				if (streamInitialized[c] != iteration) {
+					container.initRandomStream(daySeed);
+					streamInitialized[c] = iteration;
+				}
+			}
+
+			useStream(container);
+
+			for (int j = 0; j < graph.getNumCoPresent(pos); j++) {
+				int other = graph.getCoPresent(pos, j);
+				if (participates[other])
+					container.addPerson(graph.getPerson(other), enterTimes[other], activities[other]);
+			}
+			container.addPerson(graph.getPerson(k), enterTimes[k], activities[k]);
+
+			double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), graph.getLeaveTime(k), iteration);
+			if (container instanceof InfectionEventHandler.EpisimFacility)
+				contactModel.infectionDynamicsFacility(graph.getPerson(k), (InfectionEventHandler.EpisimFacility) container, now);
+			else
+				contactModel.infectionDynamicsVehicle(graph.getPerson(k), (InfectionEventHandler.EpisimVehicle) container, now);
+
+			container.clearPersons();
+			storeStream(container);
+
+			if (measureCost)
+				container.addCost(System.nanoTime() - start);
+		}
+
+		for (int k = 0; k < n; k++) {
+			if (!participates[k])
+				continue;
+
+			// persons staying overnight are kept in their container, and leave it on one of the next days
+			if (graph.isStaying(k)) {
+				graph.getContainer(k).addPerson(graph.getPerson(k), enterTimes[k], activities[k]);
+			} else if (episimConfig.getReportTimeUse() == EpisimConfigGroup.ReportTimeUse.yes) {
+				double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), graph.getLeaveTime(k), iteration);
+				boolean vehicle = graph.getContainer(k) instanceof InfectionEventHandler.EpisimVehicle;
+				graph.getPerson(k).addSpentTime(vehicle ? "pt" : activities[k].actType(), now - enterTimes[k]);
+			}
+		}
+	}
+
 	public void reportCpuTime(String what, int taskId) {
-		reporting.reportCpuTime(iteration, "TrajectoryHandler", what, taskId);
+		if (buffer != null)
+			buffer.reportCpuTime(iteration, "TrajectoryHandler", what, taskId);
+		else
+			reporting.reportCpuTime(iteration, "TrajectoryHandler", what, taskId);
 	}
 
 	public InfectionEventHandler.EpisimFacility getEpisimFacility(Id<ActivityFacility> id) {
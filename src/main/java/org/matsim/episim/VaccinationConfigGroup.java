@@ -33,6 +33,8 @@ public class VaccinationConfigGroup extends ReflectiveConfigGroup {
 	private static final String IGA = "IGA";
 	private static final String TIME_PERIOD_IGA = "timePeriodIgA";
 	private static final String VALID_DEADLINE = "validDeadline";
+	private static final String PROTECTION_CURVE = "protectionCurve";
+	private static final String PROTECTION_CURVE_TOLERANCE = "protectionCurveTolerance";
 
 	private static final String GROUPNAME = "episimVaccination";
 
@@ -71,6 +73,16 @@ public class VaccinationConfigGroup extends ReflectiveConfigGroup {
 	private boolean useIgA = false;
 	private double timePeriodIgA = 120.;
 
+	/**
+	 * Evaluation of the antibody dependent protection curves.
+	 */
+	private ProtectionCurve protectionCurve = ProtectionCurve.exact;
+
+	/**
+	 * Maximum absolute error of tabulated protection curves.
+	 */
+	private double protectionCurveTolerance = 1e-5;
+
 	/**
 	 * Deadline after which days valid is in effect.
 	 */
@@ -261,6 +273,26 @@ public class VaccinationConfigGroup extends ReflectiveConfigGroup {
 		return this.timePeriodIgA;
 	}
 
+	@StringSetter(PROTECTION_CURVE)
+	public void setProtectionCurve(ProtectionCurve protectionCurve) {
+		this.protectionCurve = protectionCurve;
+	}
+
+	@StringGetter(PROTECTION_CURVE)
+	public ProtectionCurve getProtectionCurve() {
+		return protectionCurve;
+	}
+
+	@StringSetter(PROTECTION_CURVE_TOLERANCE)
+	public void setProtectionCurveTolerance(double protectionCurveTolerance) {
+		this.protectionCurveTolerance = protectionCurveTolerance;
+	}
+
+	@StringGetter(PROTECTION_CURVE_TOLERANCE)
+	public double getProtectionCurveTolerance() {
+		return protectionCurveTolerance;
+	}
+
 	@StringSetter(VALID_DEADLINE)
 	public void setValidDeadline(String validDeadline) {
 		this.validDeadline = LocalDate.parse(validDeadline);
@@ -453,6 +485,24 @@ public class VaccinationConfigGroup extends ReflectiveConfigGroup {
 		setVaccinationShare(collect);
 	}
 
+	/**
+	 * How antibody dependent protection curves, like {@code 1 / (1 + nAb^beta)}, are evaluated.
+	 */
+	public enum ProtectionCurve {
+		/**
+		 * Evaluate the exact function every time.
+		 */
+		exact,
+		/**
+		 * Use interpolated lookup table, within {@link #getProtectionCurveTolerance()} of the exact values.
+		 */
+		table,
+		/**
+		 * Compute both, use the exact value and log the maximum error of the table, if it exceeds the tolerance.
+		 */
+		validate
+	}
+
 	/**
 	 * Holds strain specific options.
 	 */
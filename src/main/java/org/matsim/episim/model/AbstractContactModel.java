@@ -20,7 +20,9 @@
  */
 package org.matsim.episim.model;
 
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.episim.*;
@@ -63,6 +65,26 @@ public abstract class AbstractContactModel implements ContactModel {
 	 */
 	protected final double trackingMinDuration;
 
+	/**
+	 * Whether only contacts that pass the tracing probability are recorded.
+	 */
+	private final boolean sampledTracing;
+
+	/**
+	 * Seed for the tracing draw of a pair of persons.
+	 */
+	private final long tracingSeed;
+
+	/**
+	 * Probability of recording a contact, only used with sampled tracing.
+	 */
+	private final double recordingProb;
+
+	/**
+	 * Precomputed rules and contact intensities for each pair of activities.
+	 */
+	final InteractionTable interactions;
+
 	/**
 	 * Infection probability calculation.
 	 */
@@ -77,6 +99,11 @@ public abstract class AbstractContactModel implements ContactModel {
 	 */
 	protected int numContacts = 0;
 
+	/**
+	 * Buffer for the results of this model, if null they are applied directly.
+	 */
+	protected ContactBuffer buffer;
+
 	/**
 	 * Curfew compliance valid for the day.
 	 */
@@ -97,6 +124,10 @@ public abstract class AbstractContactModel implements ContactModel {
 		this.trParams = episimConfig.selectInfectionParams("tr");
 		this.qhParams = episimConfig.selectInfectionParams(QUARANTINE_HOME);
 		this.trackingMinDuration = ConfigUtils.addOrGetModule(config, TracingConfigGroup.class).getMinDuration();
+		this.sampledTracing = tracingConfig.getContactRecording() == TracingConfigGroup.ContactRecording.SAMPLED;
+		this.tracingSeed = config.global().getRandomSeed();
+		this.recordingProb = sampledTracing ? tracingConfig.getMaxTracingProbability(episimConfig.getStartDate()) : 1;
+		this.interactions = new InteractionTable(episimConfig.getInfectionParams(), qhParams, tracingConfig.getIgnoredActivities());
 		this.scenario = scenario;
 
 		subdistrictFacilities = new HashMap<>();
@@ -193,24 +224,84 @@ public abstract class AbstractContactModel implements ContactModel {
 									  StringBuilder infectionType) {
 
 		// Don't track certain activities
-		if (infectionType.indexOf("pt") >= 0 || infectionType.indexOf("shop") >= 0) {
+		if (!InteractionTable.isTraceable(infectionType, tracingConfig.getIgnoredActivities())) {
 			return;
 		}
 
-		for (String act : tracingConfig.getIgnoredActivities()) {
-			if (infectionType.indexOf(act) >= 0)
-				return;
-		}
+		trackContactPerson(personLeavingContainer, otherPerson, now, jointTimeInContainer);
+	}
+
+	/**
+	 * Track contact, when the activities are already known to be traceable.
+	 */
+	protected void trackContactPerson(EpisimPerson personLeavingContainer, EpisimPerson otherPerson, double now, double jointTimeInContainer) {
 
 		// don't track below threshold
 		if (jointTimeInContainer < trackingMinDuration) {
 			return;
 		}
 
+		if (sampledTracing && !isSampledForTracing(personLeavingContainer, otherPerson)) {
+			return;
+		}
+
+		if (buffer != null) {
+			buffer.traceContact(personLeavingContainer, otherPerson, now);
+			return;
+		}
+
 		personLeavingContainer.addTraceableContactPerson(otherPerson, now);
 		otherPerson.addTraceableContactPerson(personLeavingContainer, now);
 	}
 
+	/**
+	 * Whether the contact between two persons is recorded for tracing. The draw does not use {@link #rnd} and is the same
+	 * for each pair of persons during the whole run, so that repeated contacts of a pair, also on different days, do not increase
+	 * the probability of being recorded. The tracing probability of the day a person is traced is applied to the recorded contacts later.
+	 */
+	private boolean isSampledForTracing(EpisimPerson person, EpisimPerson otherPerson) {
+
+		if (recordingProb >= 1)
+			return true;
+
+		// household members are always traced
+		if (tracingConfig.getQuarantineHousehold()) {
+			Object homeId = person.getAttributes().getAttribute("homeId");
+			if (homeId != null && homeId.equals(otherPerson.getAttributes().getAttribute("homeId")))
+				return true;
+		}
+
+		if (recordingProb <= 0)
+			return false;
+
+		return pairDraw(tracingSeed, person.getPersonId(), otherPerson.getPersonId()) < recordingProb;
+	}
+
+	/**
+	 * Uniform number in [0, 1) for a pair of persons. It depends on the id strings, not on the id indices,
+	 * which vary with the order ids are created in. The order of both persons does not matter.
+	 */
+	static double pairDraw(long seed, Id<Person> person, Id<Person> otherPerson) {
+		long a = EpisimUtils.mix64(person.toString().hashCode());
+		long b = EpisimUtils.mix64(otherPerson.toString().hashCode());
+
+		long h = EpisimUtils.mix64(seed ^ Math.min(a, b));
+		h = EpisimUtils.mix64(h ^ Math.max(a, b));
+
+		return (h >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Report a contact, see {@link EpisimReporting#reportContact(double, EpisimPerson, EpisimPerson, EpisimContainer, CharSequence, double)}.
+	 */
+	protected void reportContact(double now, EpisimPerson person, EpisimPerson contactPerson, EpisimContainer<?> container,
+	                             CharSequence actType, double duration) {
+		if (buffer != null)
+			buffer.reportContact(now, person, contactPerson, container, actType, duration);
+		else
+			reporting.reportContact(now, person, contactPerson, container, actType, duration);
+	}
+
 	private boolean activityRelevantForInfectionDynamics(EpisimPerson person, EpisimContainer<?> container, Map<String,
 			Restriction> restrictions, SplittableRandom rnd) {
 
@@ -370,7 +461,7 @@ public abstract class AbstractContactModel implements ContactModel {
 	/**
 	 * Sets the infection status of a person and reports the event.
 	 */
-	protected void infectPerson(EpisimPerson personWrapper, EpisimPerson infector, double now, StringBuilder infectionType,
+	protected void infectPerson(EpisimPerson personWrapper, EpisimPerson infector, double now, CharSequence infectionType,
 								double prob, EpisimContainer<?> container) {
 
 		if (personWrapper.getDiseaseStatus() != EpisimPerson.DiseaseStatus.susceptible) {
@@ -396,11 +487,16 @@ public abstract class AbstractContactModel implements ContactModel {
 			now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), 24 * 60 * 60 - 1, iteration);
 		}
 
-		personWrapper.possibleInfection(
-				new EpisimInfectionEvent(now, personWrapper.getPersonId(), infector.getPersonId(),
-						container.getContainerId(), infectionType.toString(), container.getPersons().size(), infector.getVirusStrain(), prob,
-						personWrapper.getAntibodies(infector.getVirusStrain()), personWrapper.getMaxAntibodies(infector.getVirusStrain()), personWrapper.getNumVaccinations())
-		);
+		EpisimInfectionEvent event = new EpisimInfectionEvent(now, personWrapper.getPersonId(), infector.getPersonId(),
+				container.getContainerId(), infectionType.toString(), container.getPersons().size(), infector.getVirusStrain(), prob,
+				personWrapper.getAntibodies(infector.getVirusStrain()), personWrapper.getMaxAntibodies(infector.getVirusStrain()), personWrapper.getNumVaccinations());
+
+		if (buffer != null) {
+			buffer.possibleInfection(personWrapper, event);
+			return;
+		}
+
+		personWrapper.possibleInfection(event);
 
 		// check infection immediately if there is only one thread
 		if (episimConfig.getThreads() == 1)
@@ -408,22 +504,30 @@ public abstract class AbstractContactModel implements ContactModel {
 
 	}
 
-	protected void potentialInfection(EpisimPerson personWrapper, EpisimPerson infector, double now, StringBuilder infectionType,
+	protected void potentialInfection(EpisimPerson personWrapper, EpisimPerson infector, double now, CharSequence infectionType,
 	                                  double prob, EpisimContainer<?> container, double probUnVac, double rnd) {
 
 		// for now, only filter vaccinated persons
 		if (personWrapper.getVaccinationStatus() == EpisimPerson.VaccinationStatus.no)
 			return;
 
-		personWrapper.potentialInfection(
-				new EpisimPotentialInfectionEvent(now, personWrapper.getPersonId(), infector.getPersonId(),
-						container.getContainerId(), infectionType.toString(), container.getPersons().size(), infector.getVirusStrain(), prob, probUnVac,
-						personWrapper.getAntibodies(infector.getVirusStrain()), rnd)
-		);
+		EpisimPotentialInfectionEvent event = new EpisimPotentialInfectionEvent(now, personWrapper.getPersonId(), infector.getPersonId(),
+				container.getContainerId(), infectionType.toString(), container.getPersons().size(), infector.getVirusStrain(), prob, probUnVac,
+				personWrapper.getAntibodies(infector.getVirusStrain()), rnd);
+
+		if (buffer != null)
+			buffer.potentialInfection(personWrapper, event);
+		else
+			personWrapper.potentialInfection(event);
 
 	}
 
 
+	@Override
+	public void setBuffer(ContactBuffer buffer) {
+		this.buffer = buffer;
+	}
+
 	public Map<String, Restriction> getRestrictions() {
 		return restrictions;
 	}
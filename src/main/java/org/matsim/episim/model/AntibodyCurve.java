@@ -0,0 +1,191 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.episim.model;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.episim.VaccinationConfigGroup;
+
+import java.util.concurrent.atomic.DoubleAccumulator;
+
+/**
+ * Evaluates the remaining risk {@code 1 / (1 + nAb^beta)} given an antibody level, either exactly or with an interpolated lookup table.
+ * <p>
+ * The table is linearly interpolated on an uniform grid, whose step size is derived from the second derivative of the curve and the configured tolerance.
+ * For each cell, the interpolation error is bounded analytically; cells where this bound exceeds the tolerance, as well as levels outside the table,
+ * are evaluated exactly. The second derivative is unbounded at zero for {@code beta < 2}, so the first cells are always exact in that case.
+ *
+ * @see VaccinationConfigGroup#getProtectionCurve()
+ */
+public final class AntibodyCurve {
+
+	private static final Logger log = LogManager.getLogger(AntibodyCurve.class);
+
+	/**
+	 * Antibody levels covered by the table. Individual antibody levels are capped at 150.
+	 */
+	static final double RANGE = 150;
+
+	/**
+	 * Maximum number of cells in the table.
+	 */
+	private static final int MAX_SIZE = 1 << 20;
+
+	private final VaccinationConfigGroup.ProtectionCurve mode;
+	private final double beta;
+	private final double tolerance;
+
+	private final double invStep;
+	private final double[] values;
+
+	/**
+	 * Cells which need to be evaluated exactly.
+	 */
+	private final boolean[] exact;
+
+	/**
+	 * Maximum difference between table and exact values, only recorded in validate mode.
+	 */
+	private final DoubleAccumulator maxError = new DoubleAccumulator(Math::max, 0);
+
+	public AntibodyCurve(VaccinationConfigGroup config) {
+		this(config.getProtectionCurve(), config.getBeta(), config.getProtectionCurveTolerance());
+	}
+
+	AntibodyCurve(VaccinationConfigGroup.ProtectionCurve mode, double beta, double tolerance) {
+		this.mode = mode;
+		this.beta = beta;
+		this.tolerance = tolerance;
+
+		if (mode == VaccinationConfigGroup.ProtectionCurve.exact) {
+			this.invStep = 0;
+			this.values = null;
+			this.exact = null;
+			return;
+		}
+
+		if (tolerance <= 0)
+			throw new IllegalStateException("Protection curve tolerance must be positive, but is " + tolerance);
+
+		// error of linear interpolation is bounded by h^2 / 8 * max |f''|
+		double h = Math.sqrt(8 * tolerance / maxSecondDerivative(beta));
+		int n = (int) Math.min(MAX_SIZE, Math.ceil(RANGE / h));
+
+		this.invStep = n / RANGE;
+		this.values = new double[n + 1];
+		this.exact = new boolean[n];
+
+		for (int i = 0; i <= n; i++)
+			values[i] = remainingRisk(i / invStep, beta);
+
+		double step = RANGE / n;
+		int numExact = 0;
+		for (int i = 0; i < n; i++) {
+			if (step * step / 8 * secondDerivativeBound(i * step, (i + 1) * step, beta) > tolerance) {
+				exact[i] = true;
+				numExact++;
+			}
+		}
+
+		log.info("Tabulated protection curve with beta={} using {} cells, {} of which are evaluated exactly", beta, n, numExact);
+	}
+
+	/**
+	 * Exact remaining risk for an antibody level.
+	 */
+	static double remainingRisk(double nAb, double beta) {
+		return 1.0 / (1.0 + Math.pow(nAb, beta));
+	}
+
+	/**
+	 * Maximum of the second derivative of the curve, sampled within the table range. Close to zero the derivative may be unbounded.
+	 * This is only used to choose the step size, the error of each cell is bounded by {@link #secondDerivativeBound(double, double, double)}.
+	 */
+	private static double maxSecondDerivative(double beta) {
+		double max = 0;
+		int samples = 10_000;
+		for (int i = 1; i <= samples; i++) {
+			double x = RANGE * i / samples;
+			double g = Math.pow(x, beta);
+			double d2 = beta * Math.pow(x, beta - 2) * ((beta + 1) * g - (beta - 1)) / Math.pow(1 + g, 3);
+			max = Math.max(max, Math.abs(d2));
+		}
+
+		return Math.max(max, 1e-12);
+	}
+
+	/**
+	 * Upper bound of the absolute second derivative on {@code [a, b]}. The second derivative is
+	 * {@code beta * x^(beta-2) * ((beta+1) * g - (beta-1)) / (1+g)^3} with {@code g = x^beta}. Each factor is monotone in x,
+	 * so its absolute maximum on the interval is attained at one of the bounds. The bound is infinite at zero for {@code beta < 2}.
+	 */
+	static double secondDerivativeBound(double a, double b, double beta) {
+		double ga = Math.pow(a, beta);
+		double gb = Math.pow(b, beta);
+
+		double power = beta < 2 ? Math.pow(a, beta - 2) : Math.pow(b, beta - 2);
+		double linear = Math.max(Math.abs((beta + 1) * ga - (beta - 1)), Math.abs((beta + 1) * gb - (beta - 1)));
+
+		return beta * power * linear / Math.pow(1 + ga, 3);
+	}
+
+	private double interpolate(int i, double f) {
+		return values[i] + (values[i + 1] - values[i]) * f;
+	}
+
+	private double lookup(double nAb) {
+		double x = nAb * invStep;
+		int i = (int) x;
+		if (nAb < 0 || i >= exact.length || exact[i])
+			return remainingRisk(nAb, beta);
+
+		return interpolate(i, x - i);
+	}
+
+	/**
+	 * Remaining risk (1 is full risk, 0 is no risk) for given antibody level.
+	 */
+	public double remainingRisk(double nAb) {
+
+		if (mode == VaccinationConfigGroup.ProtectionCurve.exact)
+			return remainingRisk(nAb, beta);
+		else if (mode == VaccinationConfigGroup.ProtectionCurve.table)
+			return lookup(nAb);
+
+		double expected = remainingRisk(nAb, beta);
+		double error = Math.abs(expected - lookup(nAb));
+		if (error > maxError.get()) {
+			maxError.accumulate(error);
+			if (error > tolerance)
+				log.warn("Tabulated protection curve for antibody level {} differs by {} from the exact value (tolerance {})", nAb, error, tolerance);
+		}
+
+		return expected;
+	}
+
+	/**
+	 * Maximum difference between table and exact values seen so far in validate mode.
+	 */
+	double getMaxError() {
+		return maxError.get();
+	}
+
+}
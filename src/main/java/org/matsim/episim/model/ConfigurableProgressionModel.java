@@ -110,6 +110,11 @@ public class ConfigurableProgressionModel extends AbstractProgressionModel {
 	 */
 	private double tracingProb = 1;
 
+	/**
+	 * Probability with which contacts have been recorded, if contacts are sampled.
+	 */
+	private double recordingProb = 1;
+
 	/**
 	 * Tracing delay for current day.
 	 */
@@ -168,6 +173,7 @@ public class ConfigurableProgressionModel extends AbstractProgressionModel {
 			tracingCapacity *= episimConfig.getSampleSize();
 
 		tracingProb = EpisimUtils.findValidEntry(tracingConfig.getTracingProbability(), 1.0, date);
+		recordingProb = tracingConfig.getMaxTracingProbability(episimConfig.getStartDate());
 		tracingDelay = EpisimUtils.findValidEntry(tracingConfig.getTracingDelay(), 0, date);
 		quarantineVaccinated = EpisimUtils.findValidEntry(tracingConfig.getQuarantineVaccinated(), true, date);
 		quarantineDuration = EpisimUtils.findValidEntry(tracingConfig.getQuarantineDuration(), 14, date);
@@ -206,9 +212,15 @@ public class ConfigurableProgressionModel extends AbstractProgressionModel {
 	public final void afterStateUpdates(Map<Id<Person>, EpisimPerson> persons, int day) {
 		double now = EpisimUtils.getCorrectedTime(episimConfig.getStartOffset(), 0, day);
 		int tracingDistance = tracingConfig.getTracingDayDistance();
-		// clear tracing if not relevant anymore
-		persons.values().parallelStream().forEach(person ->
-		    person.clearTraceableContractPersons(now - (tracingDelay + tracingDistance + 1) * DAY));
+		// clear tracing if not relevant anymore, persons usually share one store which is cleared only once
+		ContactTracingStore cleared = null;
+		for (EpisimPerson person : persons.values()) {
+			ContactTracingStore store = person.getTracingStore();
+			if (store != cleared) {
+				store.clear(now - (tracingDelay + tracingDistance + 1) * DAY);
+				cleared = store;
+			}
+		}
 	}
 
 
@@ -373,6 +385,9 @@ public class ConfigurableProgressionModel extends AbstractProgressionModel {
 		if (tracingConfig.getQuarantineHousehold())
 			homeId = (String) person.getAttributes().getAttribute("homeId");
 
+		// contacts have already been recorded with the highest tracing probability, only the remaining part is drawn here
+		boolean sampledContacts = tracingConfig.getContactRecording() == TracingConfigGroup.ContactRecording.SAMPLED;
+
 		for (EpisimPerson pw : person.getTraceableContactPersons(now - tracingConfig.getTracingDayDistance() * DAY)) {
 
 			if (tracingConfig.getCapacityType() == TracingConfigGroup.CapacityType.PER_CONTACT_PERSON) {
@@ -387,7 +402,8 @@ public class ConfigurableProgressionModel extends AbstractProgressionModel {
 
 			// Persons of the same household are always traced successfully
 			if ((homeId != null && homeId.equals(pw.getAttributes().getAttribute("homeId")))
-					|| tracingProb == 1d || rnd.nextDouble() < tracingProb) {
+					|| tracingProb == 1d || (sampledContacts ? tracingProb >= recordingProb || rnd.nextDouble() * recordingProb < tracingProb
+					: rnd.nextDouble() < tracingProb)) {
 				quarantinePerson(pw, day);
 				log.debug("sending person={} into quarantine because of contact to person={}", pw.getPersonId(), person.getPersonId());
 			}
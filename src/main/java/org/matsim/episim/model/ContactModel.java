@@ -20,6 +20,7 @@
  */
 package org.matsim.episim.model;
 
+import org.matsim.episim.ContactBuffer;
 import org.matsim.episim.EpisimPerson;
 import org.matsim.episim.InfectionEventHandler;
 import org.matsim.episim.policy.Restriction;
@@ -55,5 +56,12 @@ public interface ContactModel {
 	 */
 	int getNumContacts();
 
+	/**
+	 * Set the buffer that infections, traced contacts and reported contacts are written to instead of the shared persons.
+	 * A null value means results are applied directly, which is only safe when running single threaded.
+	 */
+	default void setBuffer(ContactBuffer buffer) {
+	}
+
 
 }
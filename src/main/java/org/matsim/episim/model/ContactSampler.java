@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.episim.model;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Draws indices uniformly without replacement. The result is the same as removing {@code rnd.nextInt(size)} from a list of the remaining
+ * indices in ascending order, so that the same persons are drawn as when sampling from a copy of the container list.
+ * <p>
+ * The remaining indices are counted in a Fenwick tree, which allows to find and remove the k-th remaining index in O(log n) without copying.
+ * Removals are undone on {@link #reset(int, int)}, so that the tree does not need to be rebuilt. Instances are not thread-safe.
+ */
+final class ContactSampler {
+
+	/**
+	 * Fenwick tree over the indices, using positions {@code 1} to {@code capacity}. Indices that have not been drawn count as one.
+	 */
+	private int[] tree = new int[1];
+
+	/**
+	 * Number of indices in the tree, always a power of two.
+	 */
+	private int capacity = 0;
+
+	/**
+	 * Indices removed since the last reset, needed to restore the tree.
+	 */
+	private int[] drawn = new int[16];
+	private int numDrawn;
+
+	private int remaining;
+
+	/**
+	 * Start sampling from indices {@code 0} to {@code size - 1}.
+	 */
+	void reset(int size) {
+		reset(size, -1);
+	}
+
+	/**
+	 * Start sampling from indices {@code 0} to {@code size - 1}, but without {@code excluded}.
+	 *
+	 * @param excluded index that is never drawn, or -1
+	 */
+	void reset(int size, int excluded) {
+
+		if (capacity < size) {
+			capacity = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+			tree = new int[capacity + 1];
+			for (int i = 1; i <= capacity; i++)
+				tree[i] = i & -i;
+		} else
+			restore();
+
+		numDrawn = 0;
+		remaining = size;
+
+		if (excluded >= 0)
+			remove(excluded);
+	}
+
+	/**
+	 * Whether there are indices left to draw.
+	 */
+	boolean hasNext() {
+		return remaining > 0;
+	}
+
+	/**
+	 * Draw the next index, which has not been drawn since the last reset.
+	 */
+	int next(SplittableRandom rnd) {
+
+		int k = rnd.nextInt(remaining);
+
+		// find the k-th remaining index by descending the tree
+		int pos = 0;
+		for (int step = capacity; step > 0; step >>= 1) {
+			int next = pos + step;
+			if (tree[next] <= k) {
+				pos = next;
+				k -= tree[next];
+			}
+		}
+
+		remove(pos);
+		return pos;
+	}
+
+	private void remove(int index) {
+		for (int i = index + 1; i <= capacity; i += i & -i)
+			tree[i]--;
+
+		if (numDrawn == drawn.length)
+			drawn = Arrays.copyOf(drawn, drawn.length * 2);
+
+		drawn[numDrawn++] = index;
+		remaining--;
+	}
+
+	/**
+	 * Add all removed indices back to the tree.
+	 */
+	private void restore() {
+		for (int t = 0; t < numDrawn; t++) {
+			for (int i = drawn[t] + 1; i <= capacity; i += i & -i)
+				tree[i]++;
+		}
+	}
+}
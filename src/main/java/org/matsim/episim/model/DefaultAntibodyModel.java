@@ -2,6 +2,8 @@ package org.matsim.episim.model;
 
 
 import com.google.inject.Inject;
+import it.unimi.dsi.fastutil.ints.IntRBTreeSet;
+import it.unimi.dsi.fastutil.ints.IntSortedSet;
 import org.matsim.episim.EpisimConfigGroup;
 import org.matsim.episim.EpisimPerson;
 import org.matsim.episim.EpisimUtils;
@@ -21,6 +23,12 @@ public class DefaultAntibodyModel implements AntibodyModel {
 
 	private final EpisimConfigGroup episimConfig;
 
+	/**
+	 * Daily decay of antibodies, and for persons with a longer half-life after multiple immunity events.
+	 */
+	private final double decay;
+	private final double decayMultipleEvents;
+
 
 	@Inject
 	DefaultAntibodyModel(AntibodyModel.Config antibodyConfig, EpisimConfigGroup episimConfigGroup) {
@@ -28,6 +36,8 @@ public class DefaultAntibodyModel implements AntibodyModel {
 		this.episimConfig = episimConfigGroup;
 		localRnd = new SplittableRandom(2938); // todo: should it be a fixed seed, i.e not change btwn snapshots
 
+		decay = Math.pow(0.5, 1 / HALF_LIFE_DAYS);
+		decayMultipleEvents = Math.pow(0.5, 1 / (HALF_LIFE_DAYS * antibodyConfig.hlMultiForInfected));
 
 	}
 
@@ -52,8 +62,15 @@ public class DefaultAntibodyModel implements AntibodyModel {
 
 	}
 
+	/**
+	 * Recalculates antibodies from the immune history of each person. Only the days around immunity events and the last day
+	 * are evaluated, because the decay on all other days is applied in closed form and yields the same levels as updating every day.
+	 */
 	@Override
 	public void recalculateAntibodiesAfterSnapshot(Collection<EpisimPerson> persons, int iteration) {
+
+		IntSortedSet days = new IntRBTreeSet();
+
 		for (EpisimPerson person : persons) {
 
 			// reset to 0.0
@@ -61,18 +78,41 @@ public class DefaultAntibodyModel implements AntibodyModel {
 				person.setAntibodies(strain, 0.0);
 			}
 
-			// recalculate antibodies from immune history
-			for (int it = 1; it < iteration; it++) {
-				updateAntibodies(person, it);
+			// immunity events are handled on the following day
+			days.clear();
+			for (int i = 0; i < person.getNumVaccinations(); i++) {
+				addEventDay(days, person.getVaccinationDates().getInt(i) + 1, iteration);
+			}
 
+			for (int i = 0; i < person.getNumInfections(); i++) {
+				addEventDay(days, 1 - person.daysSinceInfection(i, 0), iteration);
 			}
+
+			if (iteration > 1)
+				days.add(iteration - 1);
+
+			// recalculate antibodies from immune history
+			for (int day : days) {
+				updateAntibodies(person, day);
+			}
+		}
+	}
+
+	/**
+	 * Add the day of an immunity event and its neighbours, so that the decay rate only changes between consecutive days.
+	 */
+	private static void addEventDay(IntSortedSet days, int day, int iteration) {
+		for (int d = day - 1; d <= day + 1; d++) {
+			if (d >= 1 && d < iteration)
+				days.add(d);
 		}
 	}
 
 	/**
 	 * Updates the antibody levels for person. If an immunity event occurs (vaccination or infection) on the previous
 	 * day, antibodies will increase. If not, they will decrease. This method was designed to also recalculate antibodies
-	 * when the simulation is started from snapshot.
+	 * when the simulation is started from snapshot. It needs to be called for every day, but the decay is only evaluated
+	 * lazily by the person, see {@link EpisimPerson#decayAntibodies(int, double)}.
 	 *
 	 * @param person person whose antibodies to update
 	 * @param day    current day / iteration
@@ -84,6 +124,8 @@ public class DefaultAntibodyModel implements AntibodyModel {
 		if (person.getVaccinationDates().contains(day - 1)) {
 			int vaccinationIndex = person.getVaccinationDates().indexOf(day - 1);
 			VaccinationType vaccinationType = person.getVaccinationType(vaccinationIndex);
+			// no decay on the day of an immunity event
+			person.decayAntibodies(day, 1);
 			handleImmunization(person, vaccinationType);
 			return;
 		}
@@ -92,25 +134,23 @@ public class DefaultAntibodyModel implements AntibodyModel {
 		for (int infectionIndex = 0; infectionIndex < person.getNumInfections(); infectionIndex++) {
 			if (person.daysSinceInfection(infectionIndex, day) == 1) {
 				VirusStrain virusStrain = person.getVirusStrain(infectionIndex);
+				person.decayAntibodies(day, 1);
 				handleImmunization(person, virusStrain);
 				return;
 			}
 		}
 
-		double halflifeDays = HALF_LIFE_DAYS;
+		double dailyDecay = decay;
 
 		if ((person.getNumInfections() > 0 && person.getNumVaccinations() > 0)
 			|| person.getNumInfections() > 4
 			|| person.getNumVaccinations() > 3) {
 
-			halflifeDays *= antibodyConfig.hlMultiForInfected; // 1, 2, 5
+			dailyDecay = decayMultipleEvents; // half-life multiplied by 1, 2, 5
 		}
 
-		// if no immunity event: exponential decay, day by day:
-		for (VirusStrain strain : VirusStrain.values()) {
-			double oldAntibodyLevel = person.getAntibodies(strain);
-			person.setAntibodies(strain, oldAntibodyLevel * Math.pow(0.5, 1 / halflifeDays));
-		}
+		// if no immunity event: exponential decay, evaluated in closed form since the last immunity event
+		person.decayAntibodies(day, dailyDecay);
 
 	}
 
@@ -160,8 +200,8 @@ public class DefaultAntibodyModel implements AntibodyModel {
 
 	private boolean checkFirstImmunization(EpisimPerson person) {
 		boolean firstImmunization = true;
-		for (double abLevel : person.getAntibodies().values()) {
-			if (abLevel > 0) {
+		for (VirusStrain strain : VirusStrain.values()) {
+			if (person.getAntibodies(strain) > 0) {
 				firstImmunization = false;
 				break;
 			}
@@ -28,8 +28,6 @@ import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.episim.*;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.SplittableRandom;
 
 import static org.matsim.episim.EpisimPerson.DiseaseStatus;
@@ -48,14 +46,14 @@ public final class DefaultContactModel extends AbstractContactModel {
 	private final int trackingAfterDay;
 
 	/**
-	 * In order to avoid recreating a the list of other persons in the container every time it is stored as instance variable.
+	 * Draws the contact persons from the container without copying its persons.
 	 */
-	List<EpisimPerson> otherPersonsInContainer = new ArrayList<>();
+	private final ContactSampler sampler = new ContactSampler();
 
 	/**
-	 * This buffer is used to store the infection type.
+	 * Evaluate only pairs of infectious and susceptible persons, see {@link EpisimConfigGroup.ContactPairs#infectious}.
 	 */
-	private final StringBuilder buffer = new StringBuilder();
+	private final boolean infectiousPairs;
 
 	@Inject
 	/* package */
@@ -64,6 +62,11 @@ public final class DefaultContactModel extends AbstractContactModel {
 		// (make injected constructor non-public so that arguments can be changed without repercussions.  kai, jun'20)
 		super(rnd, config, infectionModel, reporting, scenario);
 		this.trackingAfterDay = ConfigUtils.addOrGetModule(config, TracingConfigGroup.class).getPutTraceablePersonsInQuarantineAfterDay();
+
+		// all contacts are needed when they are written
+		this.infectiousPairs = episimConfig.getContactPairs() == EpisimConfigGroup.ContactPairs.infectious &&
+				episimConfig.getWriteEvents() != EpisimConfigGroup.WriteEvents.tracing &&
+				episimConfig.getWriteEvents() != EpisimConfigGroup.WriteEvents.all;
 	}
 
 	DefaultContactModel(SplittableRandom rnd, Config config,
@@ -84,7 +87,7 @@ public final class DefaultContactModel extends AbstractContactModel {
 	private void infectionDynamicsGeneralized(EpisimPerson personLeavingContainer, EpisimContainer<?> container, double now) {
 
 		// no infection possible if there is only one person
-		if (iteration == 0 || container.getPersons().size() == 1) {
+		if (iteration == 0 || container.getNumPersons() == 1) {
 			return;
 		}
 
@@ -95,24 +98,42 @@ public final class DefaultContactModel extends AbstractContactModel {
 		// start tracking late as possible because of computational costs
 		boolean trackingEnabled = iteration >= trackingAfterDay;
 
-		otherPersonsInContainer.addAll(container.getPersons());
-		otherPersonsInContainer.remove(personLeavingContainer);
+		int leavingSlot = container.getSlot(personLeavingContainer.getPersonId());
+		if (leavingSlot == -1)
+			throw new IllegalStateException("Person " + personLeavingContainer.getPersonId() + " is not in container " + container.getContainerId());
+
+		EpisimConfigGroup.InfectionParams leavingParams = getInfectionParams(container, personLeavingContainer, container.getPerformedActivity(leavingSlot));
+		double containerEnterTimeOfPersonLeaving = container.getEnteringTime(leavingSlot);
+
+		if (infectiousPairs && !trackingEnabled) {
+			if (personLeavingContainer.getDiseaseStatus() == DiseaseStatus.susceptible) {
+				infectionDynamicsSusceptible(personLeavingContainer, leavingParams, containerEnterTimeOfPersonLeaving, container, now);
+				return;
+			}
+
+			// infectious persons still draw their contacts among all persons, others can not be part of an infection
+			if (!personLeavingContainer.isInfectious())
+				return;
+		}
+
+		// the leaving person itself is not a contact
+		sampler.reset(container.getNumPersons(), container.getRank(leavingSlot));
 
 		// For the time being, will just assume that the first 10 persons are the ones we interact with.  Note that because of
 		// shuffle, those are 10 different persons every day.
 
 		// persons are scaled to number of agents with sample size, but at least 3 for the small development scenarios
 //		int contactWith = Math.min(otherPersonsInContainer.size(), Math.max((int) (episimConfig.getSampleSize() * 10), 3));
-		int contactWith = Math.min(otherPersonsInContainer.size(), (int)episimConfig.getMaxContacts());
-		for (int ii = 0; ii < contactWith; ii++) {
+		int contactWith = (int) episimConfig.getMaxContacts();
+		for (int ii = 0; ii < contactWith && sampler.hasNext(); ii++) {
 
 			// we are essentially looking at the situation when the person leaves the container.  Interactions with other persons who have
 			// already left the container were treated then.  In consequence, we have some "circle of persons around us" (yyyy which should
 			//  depend on the density), and then a probability of infection in either direction.
 
-			// Draw the contact person and remove it -> we don't want to draw it multiple times
-			EpisimPerson contactPerson = otherPersonsInContainer.remove(rnd.nextInt(otherPersonsInContainer.size()));
-
+			// Draw the contact person without replacement -> we don't want to draw it multiple times
+			int slot = container.getSlotAtRank(sampler.next(rnd));
+			EpisimPerson contactPerson = container.getPerson(slot);
 
 			if (!personRelevantForTrackingOrInfectionDynamics(now, contactPerson, container, getRestrictions(), rnd)) {
 				continue;
@@ -131,86 +152,112 @@ public final class DefaultContactModel extends AbstractContactModel {
 				}
 			}
 
-			// activity params of the contact person and leaving person
-			EpisimConfigGroup.InfectionParams leavingParams = getInfectionParams(container, personLeavingContainer,  container.getPerformedActivity(personLeavingContainer.getPersonId()));
-			EpisimConfigGroup.InfectionParams contactParams = getInfectionParams(container, contactPerson,  container.getPerformedActivity(contactPerson.getPersonId()));
-
-			String leavingPersonsActivity = leavingParams == qhParams ? "home" : leavingParams.getContainerName();
-			String otherPersonsActivity = contactParams == qhParams ? "home" : contactParams.getContainerName();
+			evaluateContact(personLeavingContainer, leavingParams, containerEnterTimeOfPersonLeaving, contactPerson, slot, container, now, trackingEnabled);
+		}
+	}
 
-			StringBuilder infectionType = getInfectionType(buffer, container, leavingPersonsActivity, otherPersonsActivity);
+	/**
+	 * Evaluate only the contacts of a susceptible person with the infectious persons in the container.
+	 * When drawing contacts among all persons, each other person is drawn with probability {@code min(1, maxContacts / (n - 1))},
+	 * which is applied to each infectious person independently here.
+	 */
+	private void infectionDynamicsSusceptible(EpisimPerson personLeavingContainer, EpisimConfigGroup.InfectionParams leavingParams,
+											  double containerEnterTimeOfPersonLeaving, EpisimContainer<?> container, double now) {
 
-			double containerEnterTimeOfPersonLeaving = container.getContainerEnteringTime(personLeavingContainer.getPersonId());
-			double containerEnterTimeOfOtherPerson = container.getContainerEnteringTime(contactPerson.getPersonId());
-			double jointTimeInContainer = calculateJointTimeInContainer(now, leavingParams, containerEnterTimeOfPersonLeaving, containerEnterTimeOfOtherPerson);
+		int others = container.getNumPersons() - 1;
+		double drawn = Math.min(1.0, (int) episimConfig.getMaxContacts() / (double) others);
 
-			//forbid certain cross-activity interactions, keep track of contacts
-			if (container instanceof InfectionEventHandler.EpisimFacility) {
-				//home can only interact with home, leisure or work
-				if (infectionType.indexOf("home") >= 0 && infectionType.indexOf("leis") == -1 && infectionType.indexOf("work") == -1
-						&& !(leavingPersonsActivity.startsWith("home") && otherPersonsActivity.startsWith("home"))) {
-					continue;
-				} else if (infectionType.indexOf("edu") >= 0 && infectionType.indexOf("work") == -1 && !(leavingPersonsActivity.startsWith("edu") && otherPersonsActivity.startsWith("edu"))) {
-					//edu can only interact with work or edu
-					continue;
-				}
-				if (trackingEnabled) {
-					trackContactPerson(personLeavingContainer, contactPerson, now, jointTimeInContainer, infectionType);
-				}
+		for (int i = 0; i < container.getNumInfectious(); i++) {
 
-				// Only a subset of contacts are reported at the moment
-				// tracking has to be enabled to report more contacts
-				reporting.reportContact(now, personLeavingContainer, contactPerson, container, infectionType, jointTimeInContainer);
-			}
+			EpisimPerson contactPerson = container.getInfectious(i);
 
-			if (!AbstractContactModel.personsCanInfectEachOther(personLeavingContainer, contactPerson)) {
+			if (drawn < 1.0 && rnd.nextDouble() >= drawn)
 				continue;
-			}
 
-			// person can only infect others 4 days after being contagious
-			if ((personLeavingContainer.hadDiseaseStatus(DiseaseStatus.contagious) &&
-					personLeavingContainer.daysSince(DiseaseStatus.contagious, iteration) > episimConfig.getDaysInfectious())
-					|| (contactPerson.hadDiseaseStatus(DiseaseStatus.contagious) &&
-					contactPerson.daysSince(DiseaseStatus.contagious, iteration) > episimConfig.getDaysInfectious()))
+			if (!personRelevantForTrackingOrInfectionDynamics(now, contactPerson, container, getRestrictions(), rnd))
 				continue;
 
-			// persons leaving their first-ever activity have no starting time for that activity.  Need to hedge against that.  Since all persons
-			// start healthy (the first seeds are set at enterVehicle), we can make some assumptions.
-			if (containerEnterTimeOfPersonLeaving < 0 && containerEnterTimeOfOtherPerson < 0) {
-				throw new IllegalStateException("should not happen");
-				// should only happen at first activity.  However, at first activity all persons are susceptible.  So the only way we
-				// can get here is if an infected person entered the container and is now leaving again, while the other person has been in the
-				// container from the beginning.  ????  kai, mar'20
-			}
+			int slot = container.getSlot(contactPerson.getPersonId());
+			evaluateContact(personLeavingContainer, leavingParams, containerEnterTimeOfPersonLeaving, contactPerson, slot, container, now, false);
+		}
+	}
 
-			if (jointTimeInContainer < 0 || jointTimeInContainer > 86400 * 7) {
-				log.warn(containerEnterTimeOfPersonLeaving);
-				log.warn(containerEnterTimeOfOtherPerson);
-				log.warn(now);
-				throw new IllegalStateException("joint time in container is not plausible for personLeavingContainer=" + personLeavingContainer.getPersonId() + " and contactPerson=" + contactPerson.getPersonId() + ". Joint time is=" + jointTimeInContainer);
-			}
+	/**
+	 * Evaluate the contact of the leaving person with the person in {@code slot} and infect one of them if possible.
+	 */
+	private void evaluateContact(EpisimPerson personLeavingContainer, EpisimConfigGroup.InfectionParams leavingParams, double containerEnterTimeOfPersonLeaving,
+								 EpisimPerson contactPerson, int slot, EpisimContainer<?> container, double now, boolean trackingEnabled) {
 
-			double contactIntensity = Math.min(leavingParams.getContactIntensity(), contactParams.getContactIntensity());
+		// activity params of the contact person and leaving person
+		EpisimConfigGroup.InfectionParams contactParams = getInfectionParams(container, contactPerson, container.getPerformedActivity(slot));
 
-			// need to differentiate which person might be the infector
-			if (personLeavingContainer.getDiseaseStatus() == DiseaseStatus.susceptible) {
+		int pair = interactions.pair(leavingParams, contactParams);
+		boolean inFacility = container instanceof InfectionEventHandler.EpisimFacility;
 
-				double prob = infectionModel.calcInfectionProbability(personLeavingContainer, contactPerson, getRestrictions(),
-						leavingParams, contactParams, contactIntensity, jointTimeInContainer);
-				if (rnd.nextDouble() < prob)
-					infectPerson(personLeavingContainer, contactPerson, now, infectionType, prob, container);
+		String infectionType = inFacility ? interactions.getInfectionType(pair) : InteractionTable.VEHICLE;
 
-			} else {
-				double prob = infectionModel.calcInfectionProbability(contactPerson, personLeavingContainer, getRestrictions(),
-						contactParams, leavingParams, contactIntensity, jointTimeInContainer);
+		double containerEnterTimeOfOtherPerson = container.getEnteringTime(slot);
+		double jointTimeInContainer = calculateJointTimeInContainer(now, leavingParams, containerEnterTimeOfPersonLeaving, containerEnterTimeOfOtherPerson);
 
-				if (rnd.nextDouble() < prob)
-					infectPerson(contactPerson, personLeavingContainer, now, infectionType, prob, container);
+		//forbid certain cross-activity interactions, keep track of contacts
+		if (inFacility) {
+			//home can only interact with home, leisure or work, edu only with work or edu
+			if (!interactions.isRelevant(pair)) {
+				return;
+			}
+			if (trackingEnabled && interactions.isTraceable(pair)) {
+				trackContactPerson(personLeavingContainer, contactPerson, now, jointTimeInContainer);
 			}
+
+			// Only a subset of contacts are reported at the moment
+			// tracking has to be enabled to report more contacts
+			reportContact(now, personLeavingContainer, contactPerson, container, infectionType, jointTimeInContainer);
 		}
 
-		// Clear cached container
-		otherPersonsInContainer.clear();
+		if (!AbstractContactModel.personsCanInfectEachOther(personLeavingContainer, contactPerson)) {
+			return;
+		}
+
+		// person can only infect others 4 days after being contagious
+		if ((personLeavingContainer.hadDiseaseStatus(DiseaseStatus.contagious) &&
+				personLeavingContainer.daysSince(DiseaseStatus.contagious, iteration) > episimConfig.getDaysInfectious())
+				|| (contactPerson.hadDiseaseStatus(DiseaseStatus.contagious) &&
+				contactPerson.daysSince(DiseaseStatus.contagious, iteration) > episimConfig.getDaysInfectious()))
+			return;
+
+		// persons leaving their first-ever activity have no starting time for that activity.  Need to hedge against that.  Since all persons
+		// start healthy (the first seeds are set at enterVehicle), we can make some assumptions.
+		if (containerEnterTimeOfPersonLeaving < 0 && containerEnterTimeOfOtherPerson < 0) {
+			throw new IllegalStateException("should not happen");
+			// should only happen at first activity.  However, at first activity all persons are susceptible.  So the only way we
+			// can get here is if an infected person entered the container and is now leaving again, while the other person has been in the
+			// container from the beginning.  ????  kai, mar'20
+		}
+
+		if (jointTimeInContainer < 0 || jointTimeInContainer > 86400 * 7) {
+			log.warn(containerEnterTimeOfPersonLeaving);
+			log.warn(containerEnterTimeOfOtherPerson);
+			log.warn(now);
+			throw new IllegalStateException("joint time in container is not plausible for personLeavingContainer=" + personLeavingContainer.getPersonId() + " and contactPerson=" + contactPerson.getPersonId() + ". Joint time is=" + jointTimeInContainer);
+		}
+
+		double contactIntensity = interactions.getIntensity(pair);
+
+		// need to differentiate which person might be the infector
+		if (personLeavingContainer.getDiseaseStatus() == DiseaseStatus.susceptible) {
+
+			double prob = infectionModel.calcInfectionProbability(personLeavingContainer, contactPerson, getRestrictions(),
+					leavingParams, contactParams, contactIntensity, jointTimeInContainer);
+			if (rnd.nextDouble() < prob)
+				infectPerson(personLeavingContainer, contactPerson, now, infectionType, prob, container);
+
+		} else {
+			double prob = infectionModel.calcInfectionProbability(contactPerson, personLeavingContainer, getRestrictions(),
+					contactParams, leavingParams, contactIntensity, jointTimeInContainer);
+
+			if (rnd.nextDouble() < prob)
+				infectPerson(contactPerson, personLeavingContainer, now, infectionType, prob, container);
+		}
 	}
 
 }
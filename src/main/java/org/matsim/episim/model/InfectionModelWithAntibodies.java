@@ -8,7 +8,6 @@ import org.matsim.core.config.ConfigUtils;
 import org.matsim.episim.*;
 import org.matsim.episim.policy.Restriction;
 
-import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +25,7 @@ public final class InfectionModelWithAntibodies implements InfectionModel {
 	private final SplittableRandom rnd;
 	private final VaccinationConfigGroup vaccinationConfig;
 	private final VirusStrainConfigGroup virusStrainConfig;
+	private final AntibodyCurve antibodyCurve;
 
 	private final Map<VirusStrain, double[]> susceptibility = new EnumMap<>(VirusStrain.class);
 	private final Map<VirusStrain, double[]> infectivity = new EnumMap<>(VirusStrain.class);
@@ -36,9 +36,25 @@ public final class InfectionModelWithAntibodies implements InfectionModel {
 	 */
 	private final double scale;
 
+	/**
+	 * Entries of {@link EpisimPerson#getImmunityCache(int, int)}, two for each strain and one for the infector.
+	 */
+	private static final int INFECTOR_SLOT = 2 * VirusStrain.values().length;
+	private static final int CACHE_SIZE = INFECTOR_SLOT + 1;
+
+	/**
+	 * Strains belonging to the same line, indexed by ordinal. Previous infections within a line provide partial IgA protection.
+	 */
+	private final boolean[] strainsLineA = new boolean[VirusStrain.values().length];
+	private final boolean[] strainsLineB = new boolean[VirusStrain.values().length];
+
 	private double outdoorFactor;
 	private int iteration;
-	private double lastUnVac;
+
+	/**
+	 * Exponent of the last calculated probability, without the immunity factor of the target.
+	 */
+	private double lastExponent;
 
 	@Inject
 	InfectionModelWithAntibodies(FaceMaskModel faceMaskModel, ProgressionModel progression,
@@ -48,11 +64,27 @@ public final class InfectionModelWithAntibodies implements InfectionModel {
 		this.episimConfig = ConfigUtils.addOrGetModule(config, EpisimConfigGroup.class);
 		this.vaccinationConfig = ConfigUtils.addOrGetModule(config, VaccinationConfigGroup.class);
 		this.virusStrainConfig = ConfigUtils.addOrGetModule(config, VirusStrainConfigGroup.class);
+		this.antibodyCurve = new AntibodyCurve(vaccinationConfig);
 		this.reporting = reporting;
 		this.rnd = rnd;
 
 		AgeDependentInfectionModelWithSeasonality.preComputeAgeDependency(susceptibility, infectivity, virusStrainConfig);
 
+		for (VirusStrain strain : List.of(VirusStrain.OMICRON_BA1, VirusStrain.OMICRON_BA2, VirusStrain.OMICRON_BA5, VirusStrain.STRAIN_A,
+				VirusStrain.STRAIN_B, VirusStrain.BQ, VirusStrain.XBB_15, VirusStrain.XBB_19, VirusStrain.EG)) {
+			strainsLineA[strain.ordinal()] = true;
+			strainsLineB[strain.ordinal()] = true;
+		}
+
+		if (vaccinationConfig.getUseIgA()) {
+			for (VirusStrain strain : VirusStrain.values()) {
+				if (strain.toString().startsWith("A_"))
+					strainsLineA[strain.ordinal()] = true;
+				if (strain.toString().startsWith("B_"))
+					strainsLineB[strain.ordinal()] = true;
+			}
+		}
+
 		// based on https://arxiv.org/abs/2007.06602
 		distribution = new NormalDistribution(0.5, 2.6);
 		scale = 1 / distribution.density(distribution.getNumericalMean());
@@ -68,7 +100,8 @@ public final class InfectionModelWithAntibodies implements InfectionModel {
 
 	@Override
 	public double getLastUnVacInfectionProbability() {
-		return lastUnVac;
+		// computed on demand, because it is not needed by most contact models
+		return 1 - Math.exp(-lastExponent * antibodyCurve.remainingRisk(0.0));
 	}
 
 	@Override
@@ -79,165 +112,82 @@ public final class InfectionModelWithAntibodies implements InfectionModel {
 		//noinspection ConstantConditions 		// ci corr can not be null, because sim is initialized with non null value
 		double ciCorrection = Math.min(restrictions.get(act1.getContainerName()).getCiCorrection(), restrictions.get(act2.getContainerName()).getCiCorrection());
 
-		double susceptibility = this.susceptibility.get(infector.getVirusStrain())[target.getAge()];
-		double infectivity = this.infectivity.get(infector.getVirusStrain())[infector.getAge()];
+		VirusStrain virusStrain = infector.getVirusStrain();
 
-		VirusStrainConfigGroup.StrainParams strain = virusStrainConfig.getParams(infector.getVirusStrain());
+		double susceptibility = this.susceptibility.get(virusStrain)[target.getAge()];
+		double infectivity = this.infectivity.get(virusStrain)[infector.getAge()];
 
-		double relativeAntibodyLevelTarget = target.getAntibodies(infector.getVirusStrain());
+		VirusStrainConfigGroup.StrainParams strain = virusStrainConfig.getParams(virusStrain);
 
 		double indoorOutdoorFactor = InfectionModelWithSeasonality.getIndoorOutdoorFactor(outdoorFactor, rnd, act1, act2);
 		double shedding = maskModel.getWornMask(infector, act2, restrictions.get(act2.getContainerName())).shedding;
 		double intake = maskModel.getWornMask(target, act1, restrictions.get(act1.getContainerName())).intake;
 
 		//reduced infectivity if infector has antibodies
-		double immunityFactorInfector = 1.0 / (1.0 + Math.pow(infector.getAntibodyLevelAtInfection(), vaccinationConfig.getBeta()));
-		infectivity *= (1.0 - (0.25 * (1.0 - immunityFactorInfector)));
-
-		{
-			double igaFactor = 0.0;
-			double igaTimePeriod = vaccinationConfig.getTimePeriodIgA();
-			if (target.hadStrain(infector.getVirusStrain())) {
-
-				int lastInfectionWithStrain = 0;
-				for (int ii = 0; ii < target.getNumInfections();  ii++) {
-					if (target.getVirusStrain(ii) == infector.getVirusStrain()) {
-						lastInfectionWithStrain = ii;
-					}
-				}
-//				igaFactor = Math.exp( - target.daysSinceInfection(lastInfectionWithStrain, iteration) / 120.0);
-				igaFactor = 1.0 / (1.0 + Math.exp(-2.0 * (1.0 - target.daysSinceInfection(lastInfectionWithStrain, iteration) / igaTimePeriod)));
-
-			}
-
-			ArrayList<VirusStrain> strainsLineA = new ArrayList<VirusStrain>();
-			strainsLineA.add(VirusStrain.OMICRON_BA1);
-			strainsLineA.add(VirusStrain.OMICRON_BA2);
-			strainsLineA.add(VirusStrain.OMICRON_BA5);
-			strainsLineA.add(VirusStrain.STRAIN_A);
-			strainsLineA.add(VirusStrain.STRAIN_B);
-			strainsLineA.add(VirusStrain.BQ);
-			strainsLineA.add(VirusStrain.XBB_15);
-			strainsLineA.add(VirusStrain.XBB_19);
-			strainsLineA.add(VirusStrain.EG);
-
-			ArrayList<VirusStrain> strainsLineB = new ArrayList<VirusStrain>();
-			strainsLineB.add(VirusStrain.OMICRON_BA1);
-			strainsLineB.add(VirusStrain.OMICRON_BA2);
-			strainsLineB.add(VirusStrain.OMICRON_BA5);
-			strainsLineB.add(VirusStrain.STRAIN_A);
-			strainsLineB.add(VirusStrain.STRAIN_B);
-			strainsLineB.add(VirusStrain.BQ);
-			strainsLineB.add(VirusStrain.XBB_15);
-			strainsLineB.add(VirusStrain.XBB_19);
-			strainsLineB.add(VirusStrain.EG);
-
-			if (vaccinationConfig.getUseIgA()) {
-
-				for (VirusStrain str : VirusStrain.values()) {
-					if (str.toString().startsWith("A_"))
-						strainsLineA.add(str);
-				}
-				for (VirusStrain str : VirusStrain.values()) {
-					if (str.toString().startsWith("B_"))
-						strainsLineB.add(str);
-				}
-			}
-
-//			if (vaccinationConfig.getUseIgA()) {
-
-				if(strainsLineA.contains(infector.getVirusStrain())){
-					int lastInfectionWithStrain = 0;
-					boolean targetHadStrain = false;
-					for (int ii = 0; ii < target.getNumInfections();  ii++) {
-						if (strainsLineA.contains(target.getVirusStrain(ii))){
-							targetHadStrain = true;
-							lastInfectionWithStrain = ii;
-						}
-					}
-
-					if (targetHadStrain) {
-						double fac = 1.0 / (1.0 + Math.exp(-2.0 * (1.0 - target.daysSinceInfection(lastInfectionWithStrain, iteration) / igaTimePeriod)));
-						fac = fac / 1.4;
-						igaFactor = Math.max(fac, igaFactor);
-					}
-				}
-
-				if(strainsLineB.contains(infector.getVirusStrain())){
-					int lastInfectionWithStrain = 0;
-					boolean targetHadStrain = false;
-					for (int ii = 0; ii < target.getNumInfections();  ii++) {
-						if (strainsLineB.contains(target.getVirusStrain(ii))){
-							targetHadStrain = true;
-							lastInfectionWithStrain = ii;
-						}
-					}
-
-					if (targetHadStrain) {
-						double fac = 1.0 / (1.0 + Math.exp(-2.0 * (1.0 - target.daysSinceInfection(lastInfectionWithStrain, iteration) / igaTimePeriod)));
-						fac = fac / 1.4;
-						igaFactor = Math.max(fac, igaFactor);
-					}
-				}
-
-//				if(strainsLineA.contains(infector.getVirusStrain()) || strainsLineB.contains(infector.getVirusStrain())){
-//					int lastInfectionWithStrain = 0;
-//					boolean targetHadStrain = false;
-//					for (int ii = 0; ii < target.getNumInfections();  ii++) {
-//						if (strainsLineA.contains(target.getVirusStrain(ii)) || strainsLineB.contains(target.getVirusStrain(ii))){
-//							targetHadStrain = true;
-//							lastInfectionWithStrain = ii;
-//						}
-//					}
-//
-//					if (targetHadStrain) {
-//						double fac = 1.0 / (1.0 + Math.exp(-2.0 * (1.0 - target.daysSinceInfection(lastInfectionWithStrain, iteration) / igaTimePeriod)));
-//						fac = fac / 1.4 / 1.4;
-//						igaFactor = Math.max(fac, igaFactor);
-//					}
-//				}
-
-				susceptibility = susceptibility * (1.0 - igaFactor);
-//			}
+		double[] infectorCache = infector.getImmunityCache(iteration, CACHE_SIZE);
+		if (Double.isNaN(infectorCache[INFECTOR_SLOT])) {
+			double immunityFactorInfector = antibodyCurve.remainingRisk(infector.getAntibodyLevelAtInfection());
+			infectorCache[INFECTOR_SLOT] = 1.0 - (0.25 * (1.0 - immunityFactorInfector));
+		}
+		infectivity *= infectorCache[INFECTOR_SLOT];
+
+		double[] targetCache = target.getImmunityCache(iteration, CACHE_SIZE);
+		int slot = 2 * virusStrain.ordinal();
+		if (Double.isNaN(targetCache[slot])) {
+			targetCache[slot] = 1.0 - calcIgaFactor(target, virusStrain);
+			// remaining risk --> lower val, lower risk, max risk at 1
+			targetCache[slot + 1] = antibodyCurve.remainingRisk(target.getAntibodies(virusStrain));
 		}
 
+		susceptibility *= targetCache[slot];
+		double immunityFactor = targetCache[slot + 1];
 
-
-		lastUnVac = calcInfectionProbabilityWoImmunity(target, infector, restrictions, act1, act2, contactIntensity, jointTimeInContainer, indoorOutdoorFactor, shedding, intake, infectivity, susceptibility);
-		// remaining risk --> lower val, lower risk, max risk at 1
-		double immunityFactor = 1.0 / (1.0 + Math.pow(relativeAntibodyLevelTarget, vaccinationConfig.getBeta()));
-
-		return 1 - Math.exp(-episimConfig.getCalibrationParameter() * susceptibility * infectivity * contactIntensity * jointTimeInContainer * ciCorrection
+		lastExponent = episimConfig.getCalibrationParameter() * susceptibility * infectivity * contactIntensity * jointTimeInContainer * ciCorrection
 				* target.getSusceptibility()
 				* getInfectivity(infector)
 				* strain.getInfectiousness()
 				* shedding
 				* intake
-				* indoorOutdoorFactor
-				* immunityFactor
-		);
+				* indoorOutdoorFactor;
+
+		return 1 - Math.exp(-lastExponent * immunityFactor);
 	}
 
-	private double calcInfectionProbabilityWoImmunity(EpisimPerson target, EpisimPerson infector, Map<String, Restriction> restrictions, EpisimConfigGroup.InfectionParams act1, EpisimConfigGroup.InfectionParams act2, double contactIntensity, double jointTimeInContainer,
-	                                            double indoorOutdoorFactor, double shedding, double intake, double infectivity, double susceptibility) {
+	/**
+	 * Protection by IgA of previous infections with the same strain or a strain of the same line.
+	 */
+	private double calcIgaFactor(EpisimPerson target, VirusStrain virusStrain) {
+
+		int lastSame = -1;
+		int lastA = -1;
+		int lastB = -1;
+		for (int ii = 0; ii < target.getNumInfections(); ii++) {
+			int s = target.getVirusStrain(ii).ordinal();
+			if (s == virusStrain.ordinal())
+				lastSame = ii;
+			if (strainsLineA[s])
+				lastA = ii;
+			if (strainsLineB[s])
+				lastB = ii;
+		}
 
-		//noinspection ConstantConditions 		// ci corr can not be null, because sim is initialized with non null value
-		double ciCorrection = Math.min(restrictions.get(act1.getContainerName()).getCiCorrection(), restrictions.get(act2.getContainerName()).getCiCorrection());
+		double igaTimePeriod = vaccinationConfig.getTimePeriodIgA();
+		double igaFactor = 0.0;
 
-		VirusStrainConfigGroup.StrainParams strain = virusStrainConfig.getParams(infector.getVirusStrain());
+		if (lastSame >= 0)
+			igaFactor = 1.0 / (1.0 + Math.exp(-2.0 * (1.0 - target.daysSinceInfection(lastSame, iteration) / igaTimePeriod)));
 
-		double relativeAntibodyLevel = 0.0;
+		if (strainsLineA[virusStrain.ordinal()] && lastA >= 0) {
+			double fac = 1.0 / (1.0 + Math.exp(-2.0 * (1.0 - target.daysSinceInfection(lastA, iteration) / igaTimePeriod)));
+			igaFactor = Math.max(fac / 1.4, igaFactor);
+		}
 
-		return 1 - Math.exp(-episimConfig.getCalibrationParameter() * susceptibility * infectivity * contactIntensity * jointTimeInContainer * ciCorrection
-				* target.getSusceptibility()
-				* getInfectivity(infector)
-				* strain.getInfectiousness()
-				* shedding
-				* intake
-				* indoorOutdoorFactor
-				/ (1.0 + Math.pow(relativeAntibodyLevel, vaccinationConfig.getBeta()))
+		if (strainsLineB[virusStrain.ordinal()] && lastB >= 0) {
+			double fac = 1.0 / (1.0 + Math.exp(-2.0 * (1.0 - target.daysSinceInfection(lastB, iteration) / igaTimePeriod)));
+			igaFactor = Math.max(fac / 1.4, igaFactor);
+		}
 
-		);
+		return igaFactor;
 	}
 
 	/**
@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.episim.model;
+
+import org.matsim.episim.EpisimConfigGroup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Precomputed properties of every pair of {@link EpisimConfigGroup.InfectionParams}, indexed by their {@link EpisimConfigGroup.InfectionParams#getIndex()}.
+ * This replaces the string based rules on the infection type, which would otherwise be evaluated for every contact in a facility.
+ * <p>
+ * Pairs are ordered, the first params always belong to the person leaving the container.
+ */
+final class InteractionTable {
+
+	/**
+	 * Infection type used for all contacts in vehicles.
+	 */
+	static final String VEHICLE = "pt";
+
+	private final int n;
+
+	/**
+	 * Whether the activities are allowed to interact in a facility.
+	 */
+	private final boolean[] relevant;
+
+	/**
+	 * Whether contacts between the activities can be traced.
+	 */
+	private final boolean[] traceable;
+
+	private final double[] intensity;
+
+	/**
+	 * Index into {@link #types} for each pair.
+	 */
+	private final short[] type;
+
+	/**
+	 * Distinct infection types.
+	 */
+	private final String[] types;
+
+	/**
+	 * @param params            all infection params of the config
+	 * @param qhParams          home quarantine params, which are labeled as home
+	 * @param ignoredActivities activities that are not traced, see {@link org.matsim.episim.TracingConfigGroup#getIgnoredActivities()}
+	 */
+	InteractionTable(Collection<EpisimConfigGroup.InfectionParams> params, EpisimConfigGroup.InfectionParams qhParams,
+					 Collection<String> ignoredActivities) {
+
+		this.n = params.size();
+		this.relevant = new boolean[n * n];
+		this.traceable = new boolean[n * n];
+		this.intensity = new double[n * n];
+		this.type = new short[n * n];
+
+		List<String> labels = new ArrayList<>();
+
+		for (EpisimConfigGroup.InfectionParams leaving : params) {
+			for (EpisimConfigGroup.InfectionParams contact : params) {
+
+				String leavingAct = leaving == qhParams ? "home" : leaving.getContainerName();
+				String contactAct = contact == qhParams ? "home" : contact.getContainerName();
+				String infectionType = leavingAct + "_" + contactAct;
+
+				int i = leaving.getIndex() * n + contact.getIndex();
+				relevant[i] = isRelevant(infectionType, leavingAct, contactAct);
+				traceable[i] = isTraceable(infectionType, ignoredActivities);
+				intensity[i] = Math.min(leaving.getContactIntensity(), contact.getContactIntensity());
+
+				int idx = labels.indexOf(infectionType);
+				if (idx == -1) {
+					labels.add(infectionType);
+					idx = labels.size() - 1;
+				}
+
+				type[i] = (short) idx;
+			}
+		}
+
+		this.types = labels.toArray(new String[0]);
+	}
+
+	/**
+	 * Home can only interact with home, leisure or work. Edu can only interact with work or edu.
+	 */
+	static boolean isRelevant(String infectionType, String leavingAct, String contactAct) {
+		if (infectionType.contains("home") && !infectionType.contains("leis") && !infectionType.contains("work")
+				&& !(leavingAct.startsWith("home") && contactAct.startsWith("home")))
+			return false;
+
+		return !infectionType.contains("edu") || infectionType.contains("work") || (leavingAct.startsWith("edu") && contactAct.startsWith("edu"));
+	}
+
+	/**
+	 * Contacts in pt and during shopping are never traced, as well as the configured ignored activities.
+	 */
+	static boolean isTraceable(CharSequence infectionType, Collection<String> ignoredActivities) {
+		String t = infectionType.toString();
+		if (t.contains(VEHICLE) || t.contains("shop"))
+			return false;
+
+		for (String act : ignoredActivities) {
+			if (t.contains(act))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Index of the pair, that can be passed to the other methods.
+	 */
+	int pair(EpisimConfigGroup.InfectionParams leaving, EpisimConfigGroup.InfectionParams contact) {
+		return leaving.getIndex() * n + contact.getIndex();
+	}
+
+	boolean isRelevant(int pair) {
+		return relevant[pair];
+	}
+
+	boolean isTraceable(int pair) {
+		return traceable[pair];
+	}
+
+	/**
+	 * Contact intensity of the pair, which is the minimum of both intensities.
+	 */
+	double getIntensity(int pair) {
+		return intensity[pair];
+	}
+
+	/**
+	 * Infection type of a contact in a facility.
+	 */
+	String getInfectionType(int pair) {
+		return types[type[pair]];
+	}
+
+}
@@ -6,6 +6,7 @@ import org.matsim.episim.EpisimPerson.DiseaseStatus;
 import org.matsim.episim.Immunizable;
 import org.matsim.episim.VaccinationConfigGroup;
 import org.matsim.episim.VirusStrainConfigGroup;
+import org.matsim.episim.model.AntibodyCurve;
 import org.matsim.episim.model.VirusStrain;
 
 import java.util.SplittableRandom;
@@ -15,6 +16,7 @@ public class AntibodyDependentTransitionModel implements DiseaseStatusTransition
 	private final SplittableRandom rnd;
 	private final VaccinationConfigGroup vaccinationConfig;
 	private final VirusStrainConfigGroup strainConfig;
+	private final AntibodyCurve antibodyCurve;
 
 	@Inject
 	public AntibodyDependentTransitionModel(SplittableRandom rnd, VaccinationConfigGroup vaccinationConfig,
@@ -22,6 +24,7 @@ public class AntibodyDependentTransitionModel implements DiseaseStatusTransition
 		this.rnd = rnd;
 		this.vaccinationConfig = vaccinationConfig;
 		this.strainConfig = strainConfigGroup;
+		this.antibodyCurve = new AntibodyCurve(vaccinationConfig);
 	}
 
 	@Override
@@ -143,7 +146,7 @@ public class AntibodyDependentTransitionModel implements DiseaseStatusTransition
 		}
 
 		// returns remaining risk of infection (1 is full risk, 0 is no risk), opposite of vaccine effectiveness
-		return 1. / (1. + Math.pow(abNoWaning,vaccinationConfig.getBeta()));
+		return antibodyCurve.remainingRisk(abNoWaning);
 
 	}
 
@@ -170,7 +173,7 @@ public class AntibodyDependentTransitionModel implements DiseaseStatusTransition
 			abNoWaning *= 3.7;
 		}
 
-		return 1. / (1. + Math.pow(abNoWaning, vaccinationConfig.getBeta()));
+		return antibodyCurve.remainingRisk(abNoWaning);
 
 	}
 
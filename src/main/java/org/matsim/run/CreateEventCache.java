@@ -0,0 +1,82 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.episim.EpisimConfigGroup;
+import org.matsim.episim.EventCache;
+import org.matsim.episim.ReplayHandler;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Converts event files into the binary {@link EventCache} format. The cache is written next to the input
+ * and will be picked up automatically by the {@link ReplayHandler}.
+ */
+@CommandLine.Command(
+		name = "createEventCache",
+		description = "Preprocess input event files into binary caches for faster loading.",
+		mixinStandardHelpOptions = true
+)
+public class CreateEventCache implements Callable<Integer> {
+
+	private static final Logger log = LogManager.getLogger(CreateEventCache.class);
+
+	@CommandLine.Parameters(arity = "1..*", description = "Input event files")
+	private List<String> input;
+
+	@CommandLine.Option(names = "--facilities-handling", description = "Facilities handling used by the simulation: ${COMPLETION-CANDIDATES}",
+			defaultValue = "snz")
+	private EpisimConfigGroup.FacilitiesHandling facilitiesHandling;
+
+	public static void main(String[] args) {
+		System.exit(new CommandLine(new CreateEventCache()).execute(args));
+	}
+
+	@Override
+	public Integer call() throws Exception {
+
+		EpisimConfigGroup config = ConfigUtils.addOrGetModule(ConfigUtils.createConfig(), EpisimConfigGroup.class);
+		config.setFacilitiesHandling(facilitiesHandling);
+
+		for (String path : input) {
+
+			Path cache = EventCache.getCachePath(path);
+			if (cache == null) {
+				log.error("Cache can only be created for local files: {}", path);
+				return 1;
+			}
+
+			log.info("Reading events from {}", path);
+			List<Event> events = ReplayHandler.parseEvents(config, null, path);
+
+			EventCache.write(cache, events, facilitiesHandling, path);
+		}
+
+		return 0;
+	}
+}
@@ -70,7 +70,7 @@ import java.util.concurrent.Callable;
 		footerHeading = "\n",
 		usageHelpWidth = 120,
 		usageHelpAutoWidth = true, showDefaultValues = true, mixinStandardHelpOptions = true, abbreviateSynopsis = true,
-		subcommands = {CommandLine.HelpCommand.class, RunParallel.class, CreateBatteryForCluster.class, AnalysisCommand.class}
+		subcommands = {CommandLine.HelpCommand.class, RunParallel.class, CreateBatteryForCluster.class, AnalysisCommand.class, CreateEventCache.class}
 )
 public final class RunEpisim implements Callable<Integer> {
 
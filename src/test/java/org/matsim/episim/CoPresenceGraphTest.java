@@ -0,0 +1,91 @@
+package org.matsim.episim;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CoPresenceGraphTest {
+
+	@Test
+	public void sweep() {
+
+		EpisimPerson p1 = EpisimTestUtils.createPerson();
+		EpisimPerson p2 = EpisimTestUtils.createPerson();
+		EpisimPerson p3 = EpisimTestUtils.createPerson();
+		InfectionEventHandler.EpisimFacility home = EpisimTestUtils.createFacility();
+		InfectionEventHandler.EpisimFacility other = EpisimTestUtils.createFacility();
+		InfectionEventHandler.EpisimFacility work = EpisimTestUtils.createFacility();
+
+		// p2 has no events and stays at home
+		EventStore store = new EventStore.Builder(false)
+				.add(new ActivityEndEvent(10, p1.getPersonId(), null, home.getContainerId(), "home"),
+						EventStore.ACTIVITY_END, p1, home, "home")
+				.add(new ActivityStartEvent(30, p1.getPersonId(), null, work.getContainerId(), "work", null),
+						EventStore.ACTIVITY_START, p1, work, "work")
+				.add(new ActivityEndEvent(35, p3.getPersonId(), null, other.getContainerId(), "home"),
+						EventStore.ACTIVITY_END, p3, other, "home")
+				.add(new ActivityStartEvent(40, p3.getPersonId(), null, work.getContainerId(), "work", null),
+						EventStore.ACTIVITY_START, p3, work, "work")
+				.add(new ActivityEndEvent(50, p1.getPersonId(), null, work.getContainerId(), "work"),
+						EventStore.ACTIVITY_END, p1, work, "work")
+				.add(new ActivityEndEvent(60, p3.getPersonId(), null, work.getContainerId(), "work"),
+						EventStore.ACTIVITY_END, p3, work, "work")
+				.add(new ActivityStartEvent(70, p1.getPersonId(), null, home.getContainerId(), "home", null),
+						EventStore.ACTIVITY_START, p1, home, "home")
+				.build();
+
+		Map<EpisimPerson, EpisimContainer<?>> first = Map.of(p1, home, p2, home, p3, other);
+		CoPresenceGraph graph = new CoPresenceGraph(store, List.of(p1, p2, p3), first::get, (p, c) -> p == p2 && c == home);
+
+		assertThat(graph.getNumIntervals()).isEqualTo(6);
+		assertThat(graph.getNumDepartures()).isEqualTo(5);
+		assertThat(graph.getNumEdges()).isEqualTo(3);
+		assertThat(graph.getNumContainers()).isEqualTo(3);
+
+		// p1 leaves home, while p2 is there since the start of the day
+		int k = graph.getDeparture(0);
+		assertThat(graph.getPerson(k)).isSameAs(p1);
+		assertThat(graph.hasStart(k)).isFalse();
+		assertThat(graph.getEnterTime(k)).isEqualTo(0);
+		assertThat(graph.getLeaveTime(k)).isEqualTo(10);
+		assertThat(graph.getNumCoPresent(0)).isEqualTo(1);
+
+		int stationary = graph.getCoPresent(0, 0);
+		assertThat(graph.getPerson(stationary)).isSameAs(p2);
+		assertThat(graph.hasStart(stationary)).isFalse();
+		assertThat(graph.isStaying(stationary)).isTrue();
+
+		assertThat(graph.getNumCoPresent(1)).isEqualTo(0);
+
+		// p1 leaves work, p3 is present
+		k = graph.getDeparture(2);
+		assertThat(graph.getPerson(k)).isSameAs(p1);
+		assertThat(graph.getContainer(k)).isSameAs(work);
+		assertThat(graph.getEnterTime(k)).isEqualTo(30);
+		assertThat(graph.getPerson(graph.getCoPresent(2, 0))).isSameAs(p3);
+
+		// p1 leaves home at the end of the day, p2 stays overnight and has no departure
+		k = graph.getDeparture(4);
+		assertThat(graph.getPerson(k)).isSameAs(p1);
+		assertThat(graph.getContainer(k)).isSameAs(home);
+		assertThat(graph.isStaying(k)).isFalse();
+		assertThat(graph.getLeaveTime(k)).isEqualTo(24 * 60 * 60);
+		assertThat(graph.getCoPresent(4, 0)).isEqualTo(stationary);
+
+		// departures involving p3 at work
+		BitSet departures = new BitSet();
+		graph.collectDepartures(graph.getCoPresent(2, 0), departures);
+		assertThat(departures.stream()).containsExactly(2, 3);
+
+		// departures involving p2, which are only the ones of others
+		departures.clear();
+		graph.collectDepartures(stationary, departures);
+		assertThat(departures.stream()).containsExactly(0, 4);
+	}
+}
@@ -0,0 +1,51 @@
+package org.matsim.episim;
+
+import org.junit.Test;
+import org.matsim.episim.events.EpisimInfectionEvent;
+import org.matsim.episim.model.VirusStrain;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContactBufferTest {
+
+	private static EpisimInfectionEvent event(double time, EpisimPerson person, EpisimPerson infector) {
+		return new EpisimInfectionEvent(time, person.getPersonId(), infector.getPersonId(), null, "work",
+				2, VirusStrain.SARS_CoV_2, 0.5, 0, 0, 0);
+	}
+
+	@Test
+	public void flush() {
+
+		EpisimReporting reporting = EpisimTestUtils.getReporting();
+
+		EpisimPerson p = EpisimTestUtils.createPerson("work", null);
+		EpisimPerson i1 = EpisimTestUtils.createPerson("work", null);
+		EpisimPerson i2 = EpisimTestUtils.createPerson("work", null);
+
+		ContactBuffer b1 = new ContactBuffer(reporting);
+		ContactBuffer b2 = new ContactBuffer(reporting);
+
+		b1.possibleInfection(p, event(200, p, i1));
+		b2.possibleInfection(p, event(100, p, i2));
+		b1.traceContact(p, i1, 50);
+
+		// nothing is applied before flushing
+		assertThat(p.getTraceableContactPersons(0)).isEmpty();
+		assertThat(b1.isEmpty()).isFalse();
+
+		b1.flush(reporting);
+		b2.flush(reporting);
+
+		assertThat(b1.isEmpty()).isTrue();
+		assertThat(b2.isEmpty()).isTrue();
+
+		assertThat(p.getTraceableContactPersons(0)).containsExactly(i1);
+		assertThat(i1.getTraceableContactPersons(0)).containsExactly(p);
+
+		// the earliest infection is used, regardless of the flush order
+		EpisimInfectionEvent e = p.checkInfection();
+		assertThat(e.getInfectorId()).isEqualTo(i2.getPersonId());
+		assertThat(e.getTime()).isEqualTo(100);
+	}
+
+}
@@ -0,0 +1,53 @@
+package org.matsim.episim;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContactTracingStoreTest {
+
+	private static final double DAY = 24 * 60 * 60;
+
+	@Test
+	public void window() {
+
+		ContactTracingStore store = new ContactTracingStore();
+
+		EpisimPerson p = EpisimTestUtils.createPerson("work", null);
+		EpisimPerson c1 = EpisimTestUtils.createPerson("work", null);
+		EpisimPerson c2 = EpisimTestUtils.createPerson("work", null);
+		EpisimPerson c3 = EpisimTestUtils.createPerson("work", null);
+
+		// spans more days than the initial ring size
+		for (int day = 0; day < 10; day++) {
+			store.add(c3, c1, day * DAY + 100);
+			store.add(p, c1, day * DAY + 200);
+		}
+
+		store.add(p, c2, 8 * DAY);
+		store.add(c2, p, 8 * DAY);
+
+		assertThat(store.getContactPersons(p, 0)).containsExactly(c1, c2);
+		assertThat(store.getContactPersons(p, 9 * DAY)).containsExactly(c1);
+		assertThat(store.getContactPersons(c2, 0)).containsExactly(p);
+		assertThat(store.getContactPersons(c1, 0)).isEmpty();
+
+		// latest time of contact is used
+		assertThat(store.getContacts(p, 0).getDouble(c1)).isEqualTo(9 * DAY + 200);
+
+		store.clear(9 * DAY);
+		assertThat(store.size()).isEqualTo(2);
+		assertThat(store.getContactPersons(p, 0)).containsExactly(c1);
+
+		// days can be added again after clearing
+		store.add(p, c2, 2 * DAY);
+		assertThat(store.getContactPersons(p, 0)).containsExactly(c1, c2);
+
+		store.clear(9 * DAY);
+		assertThat(store.getContactPersons(p, 0)).containsExactly(c1);
+
+		store.clear();
+		assertThat(store.size()).isZero();
+	}
+
+}
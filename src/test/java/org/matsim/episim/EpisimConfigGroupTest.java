@@ -51,6 +51,35 @@ public class EpisimConfigGroupTest {
 
 	}
 
+	@Test
+	public void rebalanceRequiresContainerStreams() {
+
+		EpisimConfigGroup config = new EpisimConfigGroup();
+		config.setRebalanceInterval(3);
+
+		assertThatExceptionOfType(IllegalStateException.class)
+				.isThrownBy(() -> config.checkConsistency(ConfigUtils.createConfig()));
+
+		config.setRandomStreams(EpisimConfigGroup.RandomStreams.container);
+		config.checkConsistency(ConfigUtils.createConfig());
+	}
+
+	@Test
+	public void replayTasks() {
+
+		EpisimConfigGroup config = new EpisimConfigGroup();
+		config.setThreads(4);
+		config.setShardsPerThread(16);
+
+		assertThat(config.getNumReplayTasks()).isEqualTo(4);
+
+		config.setReplayScheduling(EpisimConfigGroup.ReplayScheduling.workStealing);
+		assertThat(config.getNumReplayTasks()).isEqualTo(64);
+
+		config.setThreads(1);
+		assertThat(config.getNumReplayTasks()).isEqualTo(1);
+	}
+
 	@Test
 	public void samePrefix() {
 
@@ -0,0 +1,91 @@
+package org.matsim.episim;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EpisimContainerTest {
+
+	@Test
+	public void slots() {
+
+		InfectionEventHandler.EpisimFacility f = EpisimTestUtils.createFacility();
+
+		List<EpisimPerson> persons = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			EpisimPerson p = EpisimTestUtils.createPerson("c10", null);
+			EpisimPerson.PerformedActivity act = p.getTrajectory().get(0);
+			f.addPerson(p, i, act);
+			persons.add(p);
+		}
+
+		assertThat(f.getNumPersons()).isEqualTo(10);
+		assertThat(f.getPersons()).containsExactlyElementsOf(persons);
+
+		// the last person moves into the free slot, the entering order is retained
+		f.removePerson(persons.get(2));
+		assertThat(f.getNumPersons()).isEqualTo(9);
+		assertThat(f.containsPerson(persons.get(2))).isFalse();
+		assertThat(f.getSlot(persons.get(9).getPersonId())).isEqualTo(2);
+		assertThat(f.getSlot(persons.get(3).getPersonId())).isEqualTo(3);
+		assertThat(f.getPerson(2)).isSameAs(persons.get(9));
+		assertThat(f.getRank(2)).isEqualTo(8);
+		assertThat(f.getRank(3)).isEqualTo(2);
+		assertThat(f.getSlotAtRank(2)).isEqualTo(3);
+
+		persons.remove(2);
+		assertThat(f.getPersons()).containsExactlyElementsOf(persons);
+
+		// entering times and activities are moved as well
+		assertThat(f.getContainerEnteringTime(persons.get(7).getPersonId())).isEqualTo(9);
+		assertThat(f.getEnteringTime(2)).isEqualTo(9);
+		assertThat(f.getPerformedActivity(persons.get(8).getPersonId())).isSameAs(persons.get(8).getTrajectory().get(0));
+
+		// persons entering later are appended
+		f.removePerson(persons.get(0));
+		f.addPerson(persons.get(0), 10, null);
+		assertThat(f.getPerson(f.getSlotAtRank(f.getNumPersons() - 1))).isSameAs(persons.get(0));
+		assertThat(f.getRank(f.getSlot(persons.get(0).getPersonId()))).isEqualTo(8);
+		assertThat(f.getContainerEnteringTime(persons.get(0).getPersonId())).isEqualTo(10);
+
+		while (f.getNumPersons() > 0)
+			f.removeSlot(0);
+
+		assertThat(f.getPersons()).isEmpty();
+	}
+
+	@Test
+	public void order() {
+
+		InfectionEventHandler.EpisimFacility f = EpisimTestUtils.createFacility();
+		SplittableRandom rnd = new SplittableRandom(1);
+
+		List<EpisimPerson> persons = new ArrayList<>();
+		List<EpisimPerson> contained = new ArrayList<>();
+		for (int i = 0; i < 50; i++)
+			persons.add(EpisimTestUtils.createPerson("c10", null));
+
+		// random entering and leaving, which also grows and compacts the order
+		for (int i = 0; i < 2000; i++) {
+			EpisimPerson p = persons.get(rnd.nextInt(persons.size()));
+			if (f.containsPerson(p)) {
+				f.removePerson(p);
+				contained.remove(p);
+			} else {
+				f.addPerson(p, i, null);
+				contained.add(p);
+			}
+
+			assertThat(f.getPersons()).containsExactlyElementsOf(contained);
+			for (int rank = 0; rank < contained.size(); rank++) {
+				int slot = f.getSlot(contained.get(rank).getPersonId());
+				assertThat(f.getRank(slot)).isEqualTo(rank);
+				assertThat(f.getSlotAtRank(rank)).isEqualTo(slot);
+			}
+		}
+	}
+}
@@ -3,6 +3,8 @@ package org.matsim.episim;
 import org.junit.Test;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
+import org.matsim.episim.model.VaccinationType;
+import org.matsim.episim.model.VirusStrain;
 
 import java.io.*;
 import java.time.DayOfWeek;
@@ -49,7 +51,7 @@ public class EpisimPersonTest {
 		p1.addTraceableContactPerson(p2, 0);
 		assertThat(p1.getTraceableContactPersons(0)).containsExactly(p2);
 
-		p1.clearTraceableContractPersons(Integer.MAX_VALUE);
+		p1.getTracingStore().clear(Integer.MAX_VALUE);
 
 		p1.setTraceable(true);
 		p2.setTraceable(false);
@@ -156,4 +158,67 @@ public class EpisimPersonTest {
 				.isEqualTo(EpisimPerson.DiseaseStatus.showingSymptoms);
 
 	}
+
+	@Test
+	public void antibodies() throws IOException {
+
+		EpisimPerson p1 = EpisimTestUtils.createPerson("work", null);
+		assertThat(p1.getAntibodies()).isEmpty();
+		assertThat(p1.getMaxAntibodies()).isEmpty();
+
+		p1.decayAntibodies(1, 0.5);
+		assertThat(p1.getAntibodies()).hasSize(VirusStrain.values().length)
+				.containsEntry(VirusStrain.DELTA, 0.0);
+
+		p1.setAntibodies(VirusStrain.DELTA, 8);
+		p1.updateMaxAntibodies(VirusStrain.DELTA, 8);
+		p1.decayAntibodies(2, 0.5);
+		p1.decayAntibodies(3, 0.5);
+
+		assertThat(p1.getAntibodies(VirusStrain.DELTA)).isEqualTo(2);
+		assertThat(p1.getAntibodies().getDouble(VirusStrain.DELTA)).isEqualTo(2);
+		assertThat(p1.getMaxAntibodies()).containsEntry(VirusStrain.DELTA, 8.0)
+				.containsEntry(VirusStrain.ALPHA, 0.0);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream bout = new ObjectOutputStream(out);
+		p1.write(bout);
+		bout.flush();
+
+		EpisimPerson p2 = EpisimTestUtils.createPerson("c1.0", null);
+		p2.read(new ObjectInputStream(new ByteArrayInputStream(out.toByteArray())), new HashMap<>());
+
+		assertThat(p2.getAntibodies()).isEqualTo(p1.getAntibodies());
+		assertThat(p2.getMaxAntibodies(VirusStrain.DELTA)).isEqualTo(8);
+
+		// decay continues from the restored values
+		p2.decayAntibodies(4, 0.5);
+		assertThat(p2.getAntibodies(VirusStrain.DELTA)).isEqualTo(1);
+	}
+
+	@Test
+	public void immunityCache() {
+
+		EpisimPerson p = EpisimTestUtils.createPerson("work", null);
+
+		double[] cache = p.getImmunityCache(3, 4);
+		assertThat(cache).hasSize(4).containsOnly(Double.NaN);
+
+		cache[1] = 0.5;
+		assertThat(p.getImmunityCache(3, 4)).isSameAs(cache);
+
+		// new day, the array is reused
+		assertThat(p.getImmunityCache(4, 4)[1]).isNaN();
+		assertThat(p.getImmunityCache(4, 4)).isSameAs(cache);
+
+		cache = p.getImmunityCache(4, 4);
+		cache[1] = 0.5;
+
+		p.setAntibodies(VirusStrain.SARS_CoV_2, 1.0);
+		assertThat(p.getImmunityCache(4, 4)[1]).isNaN();
+
+		p.getImmunityCache(4, 4)[1] = 0.5;
+		p.setVaccinationStatus(EpisimPerson.VaccinationStatus.yes, VaccinationType.mRNA, 4);
+		assertThat(p.getImmunityCache(4, 4)[1]).isNaN();
+	}
 }
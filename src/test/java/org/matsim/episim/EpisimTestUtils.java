@@ -205,6 +205,9 @@ public class EpisimTestUtils {
 			init.accept(p);
 		}
 
+		// disease status was changed after persons were added
+		container.updateInfectious();
+
 		return container;
 	}
 
@@ -0,0 +1,112 @@
+package org.matsim.episim;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class EventCacheTest {
+
+	@Rule
+	public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public void writeAndRead() throws Exception {
+
+		Id<Person> p1 = Id.createPersonId("p1");
+		Id<Person> p2 = Id.createPersonId("p2");
+		Id<ActivityFacility> home = Id.create("home_1", ActivityFacility.class);
+		Id<Vehicle> bus = Id.createVehicleId("bus");
+		Id<Link> link = Id.createLinkId("l1");
+
+		List<Event> events = List.of(
+				new ActivityEndEvent(100, p1, link, home, "home"),
+				new PersonEntersVehicleEvent(200, p1, bus),
+				new PersonEntersVehicleEvent(250, p2, bus),
+				new PersonLeavesVehicleEvent(300, p1, bus),
+				new ActivityStartEvent(400, p1, link, home, "home", new Coord(1, 2)),
+				new ActivityStartEvent(500, p2, null, home, "leisure", null)
+		);
+
+		Path dir = Path.of(utils.getOutputDirectory());
+		Files.createDirectories(dir);
+
+		Path cache = dir.resolve("events.xml.gz" + EventCache.SUFFIX);
+		EventCache.write(cache, events, EpisimConfigGroup.FacilitiesHandling.snz, dir.resolve("events.xml.gz").toString());
+
+		assertThat(EventCache.isValid(cache, dir.resolve("events.xml.gz").toString(), EpisimConfigGroup.FacilitiesHandling.snz))
+				.isTrue();
+		assertThat(EventCache.isValid(cache, dir.resolve("events.xml.gz").toString(), EpisimConfigGroup.FacilitiesHandling.bln))
+				.isFalse();
+
+		List<Event> read = EventCache.read(cache, null);
+
+		assertThat(read).hasSameSizeAs(events);
+		assertThat(read).extracting(Event::getTime).containsExactly(100., 200., 250., 300., 400., 500.);
+
+		ActivityEndEvent end = (ActivityEndEvent) read.get(0);
+		assertThat(end.getPersonId()).isEqualTo(p1);
+		assertThat(end.getFacilityId()).isEqualTo(home);
+		assertThat(end.getLinkId()).isEqualTo(link);
+		assertThat(end.getActType()).isSameAs("home");
+
+		assertThat(((PersonEntersVehicleEvent) read.get(2)).getPersonId()).isEqualTo(p2);
+		assertThat(((PersonLeavesVehicleEvent) read.get(3)).getVehicleId()).isEqualTo(bus);
+
+		ActivityStartEvent start = (ActivityStartEvent) read.get(4);
+		assertThat(start.getCoord().getX()).isEqualTo(1);
+		assertThat(start.getCoord().getY()).isEqualTo(2);
+
+		ActivityStartEvent noCoord = (ActivityStartEvent) read.get(5);
+		assertThat(noCoord.getCoord()).isNull();
+		assertThat(noCoord.getLinkId()).isNull();
+		assertThat(noCoord.getActType()).isEqualTo("leisure");
+	}
+
+	@Test
+	public void truncated() throws Exception {
+
+		List<Event> events = List.of(
+				new PersonEntersVehicleEvent(200, Id.createPersonId("p1"), Id.createVehicleId("bus")),
+				new PersonLeavesVehicleEvent(300, Id.createPersonId("p1"), Id.createVehicleId("bus"))
+		);
+
+		Path dir = Path.of(utils.getOutputDirectory());
+		Files.createDirectories(dir);
+
+		Path cache = dir.resolve("events.xml.gz" + EventCache.SUFFIX);
+		EventCache.write(cache, events, EpisimConfigGroup.FacilitiesHandling.snz, dir.resolve("events.xml.gz").toString());
+
+		// no temporary files are left behind
+		try (Stream<Path> files = Files.list(dir)) {
+			assertThat(files).containsExactly(cache);
+		}
+
+		byte[] content = Files.readAllBytes(cache);
+		Files.write(cache, Arrays.copyOf(content, content.length - 10));
+
+		assertThatThrownBy(() -> EventCache.read(cache, null))
+				.isInstanceOf(IOException.class);
+
+		Files.write(cache, Arrays.copyOf(content, 40));
+
+		assertThatThrownBy(() -> EventCache.read(cache, null))
+				.isInstanceOf(IOException.class);
+	}
+}
@@ -0,0 +1,153 @@
+package org.matsim.episim;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EventStoreTest {
+
+	@Test
+	public void build() {
+
+		EpisimPerson p1 = EpisimTestUtils.createPerson();
+		EpisimPerson p2 = EpisimTestUtils.createPerson();
+		InfectionEventHandler.EpisimFacility home = EpisimTestUtils.createFacility();
+		InfectionEventHandler.EpisimFacility work = EpisimTestUtils.createFacility();
+
+		EventStore store = new EventStore.Builder(false)
+				.add(new ActivityEndEvent(10, p1.getPersonId(), null, home.getContainerId(), "home"),
+						EventStore.ACTIVITY_END, p1, home, "home")
+				.add(new ActivityEndEvent(20, p2.getPersonId(), null, home.getContainerId(), "home"),
+						EventStore.ACTIVITY_END, p2, home, "home")
+				.add(new ActivityStartEvent(30, p1.getPersonId(), null, work.getContainerId(), "work", null),
+						EventStore.ACTIVITY_START, p1, work, "work")
+				.build();
+
+		assertThat(store.size()).isEqualTo(3);
+
+		assertThat(store.getType(0)).isEqualTo(EventStore.ACTIVITY_END);
+		assertThat(store.getPerson(1)).isSameAs(p2);
+		assertThat(store.getFacility(1)).isSameAs(home);
+		assertThat(store.getFacility(2)).isSameAs(work);
+		assertThat(store.getTime(2)).isEqualTo(30);
+		assertThat(store.getActType(0)).isEqualTo("home");
+		assertThat(store.getActType(2)).isEqualTo("work");
+
+		// events are not retained
+		assertThat(store.getEvent(0)).isNull();
+	}
+
+	@Test
+	public void retainEvents() {
+
+		EpisimPerson p = EpisimTestUtils.createPerson();
+		InfectionEventHandler.EpisimVehicle vehicle = new InfectionEventHandler.EpisimVehicle(Id.createVehicleId("bus"));
+
+		PersonEntersVehicleEvent event = new PersonEntersVehicleEvent(50, p.getPersonId(), vehicle.getContainerId());
+
+		EventStore store = new EventStore.Builder(true)
+				.add(event, EventStore.ENTERS_VEHICLE, p, vehicle, null)
+				.build();
+
+		assertThat(store.getVehicle(0)).isSameAs(vehicle);
+		assertThat(store.getActType(0)).isNull();
+		assertThat(store.getEvent(0)).isSameAs(event);
+	}
+
+	@Test
+	public void partition() {
+
+		EpisimPerson p = EpisimTestUtils.createPerson();
+		InfectionEventHandler.EpisimFacility f1 = EpisimTestUtils.createFacility();
+		InfectionEventHandler.EpisimFacility f2 = EpisimTestUtils.createFacility();
+
+		f1.setTaskId(0);
+		f2.setTaskId(1);
+
+		EventStore store = new EventStore.Builder(false)
+				.add(new ActivityEndEvent(10, p.getPersonId(), null, f1.getContainerId(), "home"),
+						EventStore.ACTIVITY_END, p, f1, "home")
+				.add(new ActivityStartEvent(20, p.getPersonId(), null, f2.getContainerId(), "work", null),
+						EventStore.ACTIVITY_START, p, f2, "work")
+				.add(new ActivityEndEvent(30, p.getPersonId(), null, f2.getContainerId(), "work"),
+						EventStore.ACTIVITY_END, p, f2, "work")
+				.add(new ActivityStartEvent(40, p.getPersonId(), null, f1.getContainerId(), "home", null),
+						EventStore.ACTIVITY_START, p, f1, "home")
+				.build();
+
+		EventStore[] parts = store.partition(2);
+
+		assertThat(parts[0].size()).isEqualTo(2);
+		assertThat(parts[0].getTime(0)).isEqualTo(10);
+		assertThat(parts[0].getTime(1)).isEqualTo(40);
+		assertThat(parts[0].getFacility(1)).isSameAs(f1);
+
+		assertThat(parts[1].size()).isEqualTo(2);
+		assertThat(parts[1].getType(0)).isEqualTo(EventStore.ACTIVITY_START);
+		assertThat(parts[1].getActType(1)).isEqualTo("work");
+
+		assertThat(store.partition(1)[0]).isSameAs(store);
+	}
+
+	@Test
+	public void groupByPerson() {
+
+		EpisimPerson p1 = EpisimTestUtils.createPerson();
+		EpisimPerson p2 = EpisimTestUtils.createPerson();
+		InfectionEventHandler.EpisimFacility f = EpisimTestUtils.createFacility();
+
+		EventStore store = new EventStore.Builder(false)
+				.add(new ActivityEndEvent(10, p1.getPersonId(), null, f.getContainerId(), "home"),
+						EventStore.ACTIVITY_END, p1, f, "home")
+				.add(new ActivityEndEvent(20, p2.getPersonId(), null, f.getContainerId(), "home"),
+						EventStore.ACTIVITY_END, p2, f, "home")
+				.add(new ActivityStartEvent(30, p1.getPersonId(), null, f.getContainerId(), "home", null),
+						EventStore.ACTIVITY_START, p1, f, "home")
+				.build();
+
+		int[][] groups = store.groupByPerson(2, p -> p == p1 ? 1 : 0);
+
+		assertThat(groups[0]).containsExactly(1);
+		assertThat(groups[1]).containsExactly(0, 2);
+	}
+
+	@Test
+	public void linkEvents() {
+
+		EpisimPerson p1 = EpisimTestUtils.createPerson();
+		EpisimPerson p2 = EpisimTestUtils.createPerson();
+		InfectionEventHandler.EpisimFacility f1 = EpisimTestUtils.createFacility();
+		InfectionEventHandler.EpisimFacility f2 = EpisimTestUtils.createFacility();
+
+		f1.setTaskId(0);
+		f2.setTaskId(1);
+
+		EventStore store = new EventStore.Builder(false)
+				.add(new ActivityEndEvent(10, p1.getPersonId(), null, f1.getContainerId(), "home"),
+						EventStore.ACTIVITY_END, p1, f1, "home")
+				.add(new ActivityStartEvent(20, p1.getPersonId(), null, f2.getContainerId(), "work", null),
+						EventStore.ACTIVITY_START, p1, f2, "work")
+				.add(new ActivityStartEvent(25, p2.getPersonId(), null, f2.getContainerId(), "work", null),
+						EventStore.ACTIVITY_START, p2, f2, "work")
+				.add(new ActivityEndEvent(30, p1.getPersonId(), null, f2.getContainerId(), "work"),
+						EventStore.ACTIVITY_END, p1, f2, "work")
+				.build();
+
+		store.linkEvents();
+
+		assertThat(store.getMatch(0)).isEqualTo(-1);
+		assertThat(store.getMatch(1)).isEqualTo(3);
+		assertThat(store.getMatch(2)).isEqualTo(-1);
+		assertThat(store.getMatch(3)).isEqualTo(1);
+
+		// links are translated to the indices of the partition
+		EventStore[] parts = store.partition(2);
+		assertThat(parts[1].getMatch(0)).isEqualTo(2);
+		assertThat(parts[1].getMatch(2)).isEqualTo(0);
+		assertThat(parts[0].getMatch(0)).isEqualTo(-1);
+	}
+}
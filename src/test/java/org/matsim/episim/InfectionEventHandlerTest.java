@@ -9,13 +9,17 @@ import com.google.inject.util.Modules;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.matsim.core.config.Config;
 import org.matsim.core.controler.OutputDirectoryLogging;
 import org.matsim.episim.model.SimulationListener;
 import org.matsim.run.RunEpisimIntegrationTest;
 import org.matsim.testcases.MatsimTestUtils;
 
+import java.io.File;
 import java.time.LocalDate;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 public class InfectionEventHandlerTest {
 
 	@Rule
@@ -46,6 +50,36 @@ public class InfectionEventHandlerTest {
 
 	}
 
+	@Test
+	public void rebalance() {
+
+		File fixed = runWithStreams("fixed", 0);
+		File rebalanced = runWithStreams("rebalanced", 3);
+
+		// containers are assigned to other threads after rebalancing, which must not change the results
+		assertThat(new File(rebalanced, "infections.txt")).hasSameTextualContentAs(new File(fixed, "infections.txt"));
+	}
+
+	/**
+	 * Run with multiple threads and container random streams in a separate output directory.
+	 */
+	private File runWithStreams(String name, int rebalanceInterval) {
+
+		Injector injector = Guice.createInjector(Modules.override(new EpisimModule()).with(new RunEpisimIntegrationTest.TestScenario(utils, 20)));
+
+		File output = new File(utils.getOutputDirectory(), name);
+		injector.getInstance(Config.class).controler().setOutputDirectory(output.getPath());
+
+		EpisimConfigGroup episimConfig = injector.getInstance(EpisimConfigGroup.class);
+		episimConfig.setThreads(4);
+		episimConfig.setRebalanceInterval(rebalanceInterval);
+		episimConfig.setRandomStreams(EpisimConfigGroup.RandomStreams.container);
+
+		injector.getInstance(EpisimRunner.class).run(10);
+
+		return output;
+	}
+
 	static class EventUpdater implements SimulationListener {
 
 		private final EpisimRunner runner;
@@ -0,0 +1,49 @@
+package org.matsim.episim;
+
+import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TopologyCacheTest {
+
+	@Rule
+	public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public void writeAndRead() {
+
+		Map<Id<ActivityFacility>, InfectionEventHandler.EpisimFacility> facilities = new IdMap<>(ActivityFacility.class);
+		Object2IntMap<EpisimContainer<?>> maxGroupSize = new Object2IntLinkedOpenHashMap<>();
+
+		for (int i = 10; i > 0; i--) {
+			InfectionEventHandler.EpisimFacility facility = new InfectionEventHandler.EpisimFacility(Id.create("f" + i, ActivityFacility.class));
+			facilities.put(facility.getContainerId(), facility);
+			maxGroupSize.put(facility, i);
+		}
+
+		Path cache = Path.of(utils.getOutputDirectory()).resolve("topology.bin");
+		TopologyCache.write(cache, "key", maxGroupSize);
+
+		// entries are read in the order they were written
+		Object2IntMap<EpisimContainer<?>> read = TopologyCache.read(cache, "key", facilities);
+		assertThat(read).isNotNull();
+		assertThat(read.keySet()).containsExactlyElementsOf(maxGroupSize.keySet());
+		assertThat(read).isEqualTo(maxGroupSize);
+
+		// different input or unknown facilities invalidate the cache
+		assertThat(TopologyCache.read(cache, "other", facilities)).isNull();
+
+		facilities.remove(Id.create("f1", ActivityFacility.class));
+		assertThat(TopologyCache.read(cache, "key", facilities)).isNull();
+	}
+}
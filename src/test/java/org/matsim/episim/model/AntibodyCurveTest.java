@@ -0,0 +1,68 @@
+package org.matsim.episim.model;
+
+import org.junit.Test;
+import org.matsim.episim.VaccinationConfigGroup.ProtectionCurve;
+
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class AntibodyCurveTest {
+
+	@Test
+	public void exact() {
+
+		AntibodyCurve curve = new AntibodyCurve(ProtectionCurve.exact, 1.5, 1e-5);
+
+		assertThat(curve.remainingRisk(0)).isEqualTo(1);
+		assertThat(curve.remainingRisk(4)).isEqualTo(1 / (1 + Math.pow(4, 1.5)));
+	}
+
+	@Test
+	public void withinTolerance() {
+
+		SplittableRandom rnd = new SplittableRandom(1);
+
+		for (double beta : new double[]{0.5, 1, 1.2, 1.9, 2, 3}) {
+			for (double tolerance : new double[]{1e-3, 1e-6}) {
+
+				AntibodyCurve curve = new AntibodyCurve(ProtectionCurve.validate, beta, tolerance);
+				AntibodyCurve table = new AntibodyCurve(ProtectionCurve.table, beta, tolerance);
+
+				for (int i = 0; i < 100_000; i++) {
+					// every second level is close to zero, where the curve is steep
+					double nAb = i % 2 == 0 ? rnd.nextDouble() * AntibodyCurve.RANGE * 1.1 : rnd.nextDouble() * 0.1;
+					assertThat(table.remainingRisk(nAb))
+							.isCloseTo(AntibodyCurve.remainingRisk(nAb, beta), within(tolerance));
+
+					curve.remainingRisk(nAb);
+				}
+
+				assertThat(curve.getMaxError()).isLessThanOrEqualTo(tolerance);
+			}
+		}
+	}
+
+	@Test
+	public void secondDerivativeBound() {
+
+		for (double beta : new double[]{0.5, 1.5, 2, 3}) {
+			for (double a = 0.01; a < AntibodyCurve.RANGE; a *= 1.7) {
+				double b = a * 1.1;
+				double bound = AntibodyCurve.secondDerivativeBound(a, b, beta);
+
+				// numerical second derivative within the interval
+				for (double f : new double[]{0, 0.5, 1}) {
+					double x = a + (b - a) * f;
+					double h = x * 1e-4;
+					double d2 = (AntibodyCurve.remainingRisk(x + h, beta) - 2 * AntibodyCurve.remainingRisk(x, beta) + AntibodyCurve.remainingRisk(x - h, beta)) / (h * h);
+					assertThat(Math.abs(d2)).isLessThanOrEqualTo(bound * 1.001 + 1e-6);
+				}
+			}
+
+			if (beta < 2)
+				assertThat(AntibodyCurve.secondDerivativeBound(0, 0.1, beta)).isInfinite();
+		}
+	}
+}
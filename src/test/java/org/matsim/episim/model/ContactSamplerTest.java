@@ -0,0 +1,83 @@
+package org.matsim.episim.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class ContactSamplerTest {
+
+	@Test
+	public void withoutReplacement() {
+
+		ContactSampler sampler = new ContactSampler();
+		SplittableRandom rnd = new SplittableRandom(1);
+
+		for (int size : new int[]{1, 5, 40, 3, 100}) {
+
+			sampler.reset(size);
+
+			Set<Integer> drawn = new HashSet<>();
+			while (sampler.hasNext())
+				drawn.add(sampler.next(rnd));
+
+			assertThat(drawn).hasSize(size);
+			assertThat(drawn).allMatch(i -> i >= 0 && i < size);
+		}
+	}
+
+	@Test
+	public void uniform() {
+
+		ContactSampler sampler = new ContactSampler();
+		SplittableRandom rnd = new SplittableRandom(1);
+
+		int size = 10;
+		int n = 100_000;
+		int[] counts = new int[size];
+
+		for (int i = 0; i < n; i++) {
+			sampler.reset(size);
+
+			// only partially drawn, the buffer needs to be restored by the next reset
+			for (int j = 0; j < 3; j++)
+				counts[sampler.next(rnd)]++;
+		}
+
+		for (int c : counts) {
+			assertThat(c / (3.0 * n)).isCloseTo(0.1, within(0.005));
+		}
+	}
+
+	@Test
+	public void sameAsList() {
+
+		ContactSampler sampler = new ContactSampler();
+		SplittableRandom rnd = new SplittableRandom(1);
+		SplittableRandom rndList = new SplittableRandom(1);
+
+		for (int size : new int[]{2, 5, 40, 3, 100, 17}) {
+			for (int excluded = 0; excluded < size; excluded += 3) {
+
+				sampler.reset(size, excluded);
+
+				List<Integer> list = new ArrayList<>();
+				for (int i = 0; i < size; i++) {
+					if (i != excluded)
+						list.add(i);
+				}
+
+				// drawn in the same order as removing from a list
+				for (int i = 0; i < Math.min(10, size - 1); i++) {
+					assertThat(sampler.next(rnd)).isEqualTo(list.remove(rndList.nextInt(list.size())));
+				}
+			}
+		}
+	}
+}
@@ -169,6 +169,72 @@ public class DefaultAntibodyModelTest {
 
 	}
 
+	/**
+	 * Tests that the lazily evaluated decay matches the daily exponential decay after an immunity event.
+	 */
+	@Test
+	public void testClosedFormDecay() {
+
+		EpisimPerson person = EpisimTestUtils.createPerson();
+
+		model.updateAntibodies(person, 0);
+		person.setVaccinationStatus(EpisimPerson.VaccinationStatus.yes, VaccinationType.mRNA, 1);
+
+		model.updateAntibodies(person, 1);
+		model.updateAntibodies(person, 2);
+
+		Object2DoubleMap<VirusStrain> initial = new Object2DoubleOpenHashMap<>(person.getAntibodies());
+		double decay = Math.pow(0.5, 1 / DefaultAntibodyModel.HALF_LIFE_DAYS);
+
+		for (int day = 3; day <= 300; day++) {
+			model.updateAntibodies(person, day);
+
+			for (VirusStrain strain : strainsToCheck) {
+				double expected = initial.getDouble(strain) * Math.pow(decay, day - 2);
+				assertThat(person.getAntibodies(strain)).isCloseTo(expected, Offset.offset(1e-9));
+			}
+		}
+
+		// reading the map applies the decay, but does not change the values
+		double before = person.getAntibodies(VirusStrain.DELTA);
+		assertThat(person.getAntibodies().getDouble(VirusStrain.DELTA)).isEqualTo(before);
+		model.updateAntibodies(person, 301);
+		assertThat(person.getAntibodies(VirusStrain.DELTA)).isCloseTo(before * decay, Offset.offset(1e-9));
+	}
+
+	/**
+	 * Tests that recalculating antibodies after a snapshot yields the same levels as updating them every day.
+	 */
+	@Test
+	public void testRecalculateAfterSnapshot() {
+
+		List<EpisimPerson> persons = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			EpisimPerson person = EpisimTestUtils.createPerson();
+			person.setVaccinationStatus(EpisimPerson.VaccinationStatus.yes, VaccinationType.mRNA, 10);
+			person.setVaccinationStatus(EpisimPerson.VaccinationStatus.yes, VaccinationType.mRNA, 11);
+			EpisimTestUtils.infectPerson(person, VirusStrain.DELTA, 24 * 60 * 60 * 150);
+			person.setDiseaseStatus(24 * 60 * 60 * 150, EpisimPerson.DiseaseStatus.recovered);
+			persons.add(person);
+		}
+
+		for (int day = 1; day < 400; day++) {
+			model.updateAntibodies(persons.get(0), day);
+		}
+
+		model.recalculateAntibodiesAfterSnapshot(List.of(persons.get(1)), 400);
+
+		for (VirusStrain strain : VirusStrain.values()) {
+			double expected = persons.get(0).getAntibodies(strain);
+			assertThat(persons.get(1).getAntibodies(strain)).isCloseTo(expected, Offset.offset(1e-9 * Math.max(1, expected)));
+		}
+
+		// both persons continue in the same way
+		model.updateAntibodies(persons.get(0), 400);
+		model.updateAntibodies(persons.get(1), 400);
+		assertThat(persons.get(1).getAntibodies(VirusStrain.DELTA)).isCloseTo(persons.get(0).getAntibodies(VirusStrain.DELTA), Offset.offset(1e-9));
+	}
+
 	/**
 	 * Tests that relative antibody levels (nAb) spike when an immunity events occur (infection or vaccination) and
 	 * decrease on all other days. In this example, the agent is infected w/ the wild type on day 50, gets vaccinated
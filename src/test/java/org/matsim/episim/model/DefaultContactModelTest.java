@@ -9,6 +9,7 @@ import org.junit.Test;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.scenario.ScenarioUtils;
@@ -126,6 +127,25 @@ public class DefaultContactModelTest {
 		assertThat(rate).isCloseTo(0, OFFSET);
 	}
 
+	@Test
+	public void infectiousPairs() {
+
+		Supplier<InfectionEventHandler.EpisimFacility> f = () -> EpisimTestUtils.addPersons(
+				EpisimTestUtils.createFacility(1, "c1.0", EpisimTestUtils.CONTAGIOUS), 29, "c1.0", p -> {
+				});
+
+		double all = sampleInfectionRate(Duration.ofMinutes(30), "c1.0", f, (c) -> EpisimTestUtils.createPerson("c1.0", c));
+
+		ConfigUtils.addOrGetModule(config, EpisimConfigGroup.class).setContactPairs(EpisimConfigGroup.ContactPairs.infectious);
+		model = new DefaultContactModel(rnd, config, reporting, infectionModel);
+		model.setRestrictionsForIteration(1, restrictions);
+
+		double infectious = sampleInfectionRate(Duration.ofMinutes(30), "c1.0", f, (c) -> EpisimTestUtils.createPerson("c1.0", c));
+
+		assertThat(all).isBetween(0.05, 0.95);
+		assertThat(infectious).isCloseTo(all, Offset.offset(0.015));
+	}
+
 	@Test
 	public void alone() {
 		double rate = sampleInfectionRate(Duration.ofMinutes(10), "c10",
@@ -434,6 +454,53 @@ public class DefaultContactModelTest {
 				.isEqualTo(tracking);
 	}
 
+	@Test
+	public void sampledTracing() {
+		TracingConfigGroup tracingConfig = ConfigUtils.addOrGetModule(config, TracingConfigGroup.class);
+		EpisimConfigGroup episimConfig = ConfigUtils.addOrGetModule(config, EpisimConfigGroup.class);
+
+		tracingConfig.setPutTraceablePersonsInQuarantineAfterDay(0);
+		tracingConfig.setMinContactDuration_sec(0);
+		tracingConfig.setTracingProbability(0.3);
+		tracingConfig.setContactRecording(TracingConfigGroup.ContactRecording.SAMPLED);
+
+		model = new DefaultContactModel(rnd, config, reporting, infectionModel);
+		model.setRestrictionsForIteration(1, episimConfig.createInitialRestrictions());
+
+		int traced = 0;
+		for (int i = 0; i < 10_000; i++) {
+			InfectionEventHandler.EpisimFacility f = EpisimTestUtils.createFacility(1, "leis", (p) -> { });
+			EpisimPerson person = EpisimTestUtils.createPerson("leis", f);
+			model.infectionDynamicsFacility(person, f, Duration.ofMinutes(15).getSeconds());
+			traced += person.getTraceableContactPersons(0).size();
+		}
+
+		assertThat(traced / 10_000d).isCloseTo(0.3, Offset.offset(0.02));
+	}
+
+	@Test
+	public void sampledTracingPerPair() {
+
+		Id<Person> a = Id.createPersonId("sampledA");
+		Id<Person> b = Id.createPersonId("sampledB");
+
+		// one draw per pair, independent of the order of persons
+		assertThat(AbstractContactModel.pairDraw(1, a, b)).isEqualTo(AbstractContactModel.pairDraw(1, b, a));
+
+		int recorded = 0;
+		for (int i = 0; i < 10_000; i++) {
+			if (AbstractContactModel.pairDraw(1, a, Id.createPersonId("sampled" + i)) < 0.3)
+				recorded++;
+		}
+
+		assertThat(recorded / 10_000d).isCloseTo(0.3, Offset.offset(0.02));
+
+		// the draw only depends on the id strings
+		assertThat(AbstractContactModel.pairDraw(1, Id.createPersonId("sampledC"), a))
+				.isEqualTo(AbstractContactModel.pairDraw(1, Id.createPersonId("sampledC"), Id.createPersonId("sampledA")))
+				.isNotEqualTo(AbstractContactModel.pairDraw(1, Id.createPersonId("sampledC"), b));
+	}
+
 	@Test
 	public void restrictionEffectiveness() {
 
@@ -0,0 +1,55 @@
+package org.matsim.episim.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.episim.EpisimConfigGroup;
+import org.matsim.episim.EpisimTestUtils;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InteractionTableTest {
+
+	private EpisimConfigGroup config;
+	private InteractionTable table;
+
+	@Before
+	public void setup() {
+		config = ConfigUtils.addOrGetModule(EpisimTestUtils.createTestConfig(), EpisimConfigGroup.class);
+		table = new InteractionTable(config.getInfectionParams(), config.selectInfectionParams(AbstractContactModel.QUARANTINE_HOME), Set.of("leis"));
+	}
+
+	private int pair(String leaving, String contact) {
+		return table.pair(config.selectInfectionParams(leaving), config.selectInfectionParams(contact));
+	}
+
+	@Test
+	public void rules() {
+
+		assertThat(table.isRelevant(pair("home", "home"))).isTrue();
+		assertThat(table.isRelevant(pair("home", "leis"))).isTrue();
+		assertThat(table.isRelevant(pair("work", "home"))).isTrue();
+		assertThat(table.isRelevant(pair("home", "c1.0"))).isFalse();
+
+		assertThat(table.isRelevant(pair("edu", "edu"))).isTrue();
+		assertThat(table.isRelevant(pair("edu", "work"))).isTrue();
+		assertThat(table.isRelevant(pair("leis", "edu"))).isFalse();
+
+		// quarantine at home is treated as home
+		assertThat(table.isRelevant(pair("quarantine_home", "home"))).isTrue();
+		assertThat(table.getInfectionType(pair("quarantine_home", "home"))).isEqualTo("home_home");
+	}
+
+	@Test
+	public void types() {
+
+		assertThat(table.getInfectionType(pair("leis", "work"))).isEqualTo("leis_work");
+		assertThat(table.getIntensity(pair("c0.1", "c5"))).isEqualTo(0.1);
+		assertThat(table.getIntensity(pair("c10", "c5"))).isEqualTo(5);
+
+		assertThat(table.isTraceable(pair("home", "work"))).isTrue();
+		assertThat(table.isTraceable(pair("home", "leis"))).isFalse();
+	}
+}